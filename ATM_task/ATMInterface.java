@@ -1,60 +1,448 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.Normalizer;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Money as a primitive {@code long} count of cents. Arithmetic is exact and
+ * overflow-checked, and parsing and formatting work directly on characters
+ * so the hot path creates no intermediate objects.
+ */
+final class Money {
+    static final long CENTS_PER_DOLLAR = 100;
+
+    private Money() {
+    }
+
+    public static long ofDollars(long dollars) {
+        return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Converts a legacy {@code double} dollar amount, rounding to the nearest cent.
+     */
+    public static long fromDouble(double dollars) {
+        return Math.round(dollars * CENTS_PER_DOLLAR);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    public static int compare(long a, long b) {
+        return Long.compare(a, b);
+    }
+
+    /**
+     * Parses "123", "123.4" or "123.45" (optionally with a leading '$') into cents.
+     *
+     * @throws NumberFormatException if the text is not a plain amount or does not fit in a long
+     */
+    public static long parse(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        while (length > i && Character.isWhitespace(text.charAt(length - 1))) {
+            length--;
+        }
+        if (i < length && text.charAt(i) == '$') {
+            i++;
+        }
+        boolean negative = i < length && text.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        long cents = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        try {
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else if (c >= '0' && c <= '9' && fractionDigits < 2) {
+                    cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                    digits++;
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else {
+                    throw new NumberFormatException("Not a valid amount: " + text);
+                }
+            }
+            if (digits == 0) {
+                throw new NumberFormatException("Not a valid amount: " + text);
+            }
+            for (int scale = Math.max(fractionDigits, 0); scale < 2; scale++) {
+                cents = Math.multiplyExact(cents, 10);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + text);
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Appends the amount as dollars with two decimals, e.g. 123456 as "1234.56".
+     */
+    public static StringBuilder appendTo(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+        }
+        long dollars = Math.abs(cents / CENTS_PER_DOLLAR);
+        int fraction = (int) Math.abs(cents % CENTS_PER_DOLLAR);
+        out.append(dollars).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Reads a cents field from a serialized object, falling back to the
+     * {@code double} dollar field it replaced when reading older data.
+     */
+    static long readCents(ObjectInputStream.GetField fields, String centsField, String legacyDoubleField)
+            throws IOException {
+        ObjectStreamClass streamClass = fields.getObjectStreamClass();
+        if (streamClass.getField(centsField) == null && streamClass.getField(legacyDoubleField) != null) {
+            return fromDouble(fields.get(legacyDoubleField, 0.0));
+        }
+        return fields.get(centsField, 0L);
+    }
+}
+
+/**
+ * Compares the cost of accumulating and parsing amounts with {@code double},
+ * {@link BigDecimal} and {@link Money} cents, and shows the drift that
+ * {@code double} accumulates.
+ *
+ * Usage: java MoneyBenchmark [operations]
+ */
+class MoneyBenchmark {
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] inputs = new String[1024];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = (i * 37 % 10_000) + "." + String.format("%02d", i * 13 % 100);
+        }
+
+        System.out.println("Money benchmark (" + operations + " operations per run)");
+        for (int round = 0; round < 3; round++) {
+            System.out.println("\nRound " + (round + 1));
+            long start = System.nanoTime();
+            double doubleTotal = 0;
+            for (int i = 0; i < operations; i++) {
+                doubleTotal += Double.parseDouble(inputs[i & 1023]);
+            }
+            report("double", start, operations, String.format("%.2f", doubleTotal));
+
+            start = System.nanoTime();
+            BigDecimal decimalTotal = BigDecimal.ZERO;
+            for (int i = 0; i < operations; i++) {
+                decimalTotal = decimalTotal.add(new BigDecimal(inputs[i & 1023]));
+            }
+            report("BigDecimal", start, operations, decimalTotal.toPlainString());
+
+            start = System.nanoTime();
+            long centsTotal = 0;
+            for (int i = 0; i < operations; i++) {
+                centsTotal = Money.add(centsTotal, Money.parse(inputs[i & 1023]));
+            }
+            report("Money", start, operations, Money.format(centsTotal));
+        }
+
+        double drifting = 0;
+        long exact = 0;
+        for (int i = 0; i < operations; i++) {
+            drifting += 0.10;
+            exact = Money.add(exact, 10);
+        }
+        System.out.printf("%nAfter %d deposits of $0.10: double %.6f, Money %s%n", operations, drifting,
+                Money.format(exact));
+    }
+
+    private static void report(String name, long start, int operations, String total) {
+        double nanosPerOp = (System.nanoTime() - start) / (double) operations;
+        System.out.printf("%-11s %8.1f ns/op  total %s%n", name, nanosPerOp, total);
+    }
+}
+
+/**
+ * Process-wide dictionary from external account numbers to dense int ids.
+ * Ids are assigned the first time a number is seen and live only as long as
+ * the process: files and the replication wire keep account numbers, which
+ * are translated once at the boundary. Lookups never lock; assigning a new
+ * id does.
+ */
+final class AccountIds {
+    static final int NONE = -1;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] numbers = new String[1024];
+    private static volatile int size;
+
+    private AccountIds() {
+    }
+
+    /**
+     * Returns the id of {@code accountNumber}, assigning one if it is new.
+     */
+    static int intern(String accountNumber) {
+        Integer id = IDS.get(accountNumber);
+        return id != null ? id : assign(accountNumber);
+    }
+
+    private static synchronized int assign(String accountNumber) {
+        Integer existing = IDS.get(accountNumber);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = numbers;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = accountNumber;
+        numbers = current;
+        IDS.put(accountNumber, size);
+        return size++;
+    }
+
+    /**
+     * Returns the id of {@code accountNumber}, or {@link #NONE} if it was never
+     * interned, so lookups of mistyped numbers do not grow the dictionary.
+     */
+    static int find(String accountNumber) {
+        Integer id = IDS.get(accountNumber);
+        return id == null ? NONE : id;
+    }
+
+    static String numberOf(int id) {
+        return id == NONE ? null : numbers[id];
+    }
+
+    static int size() {
+        return size;
+    }
+}
 
 class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
+    // The serialized form keeps account numbers; ids are only meaningful in this process.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("type", Type.class),
+            new ObjectStreamField("amountCents", long.class),
+            new ObjectStreamField("sourceAccountNumber", String.class),
+            new ObjectStreamField("targetAccountNumber", String.class),
+            new ObjectStreamField("timestamp", Date.class)
+    };
 
     public enum Type {
         DEPOSIT, WITHDRAWAL, TRANSFER
     }
 
     private Type type;
-    private double amount;
-    private String sourceAccountNumber;
-    private String targetAccountNumber; 
+    private long amountCents;
+    private int sourceId;
+    private int targetId;
     private Date timestamp;
 
-    public Transaction(Type type, double amount, String sourceAccountNumber) {
+    public Transaction(Type type, long amountCents, String sourceAccountNumber) {
+        this(type, amountCents, sourceAccountNumber, null);
+    }
+
+    public Transaction(Type type, long amountCents, String sourceAccountNumber, String targetAccountNumber) {
+        this(type, amountCents, AccountIds.intern(sourceAccountNumber),
+                targetAccountNumber == null ? AccountIds.NONE : AccountIds.intern(targetAccountNumber), new Date());
+    }
+
+    /**
+     * Rebuilds a transaction that was committed elsewhere, keeping its original time.
+     */
+    Transaction(Type type, long amountCents, String sourceAccountNumber, String targetAccountNumber, Date timestamp) {
+        this(type, amountCents, AccountIds.intern(sourceAccountNumber),
+                targetAccountNumber == null ? AccountIds.NONE : AccountIds.intern(targetAccountNumber), timestamp);
+    }
+
+    /**
+     * @param targetId counterparty id, or {@link AccountIds#NONE}
+     */
+    Transaction(Type type, long amountCents, int sourceId, int targetId, Date timestamp) {
         this.type = type;
-        this.amount = amount;
-        this.sourceAccountNumber = sourceAccountNumber;
-        this.timestamp = new Date();
+        this.amountCents = amountCents;
+        this.sourceId = sourceId;
+        this.targetId = targetId;
+        this.timestamp = timestamp;
     }
 
-    public Transaction(Type type, double amount, String sourceAccountNumber, String targetAccountNumber) {
-        this(type, amount, sourceAccountNumber);
-        this.targetAccountNumber = targetAccountNumber;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        type = (Type) fields.get("type", null);
+        amountCents = Money.readCents(fields, "amountCents", "amount");
+        sourceId = AccountIds.intern((String) fields.get("sourceAccountNumber", null));
+        String targetAccountNumber = (String) fields.get("targetAccountNumber", null);
+        targetId = targetAccountNumber == null ? AccountIds.NONE : AccountIds.intern(targetAccountNumber);
+        timestamp = (Date) fields.get("timestamp", null);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("type", type);
+        fields.put("amountCents", amountCents);
+        fields.put("sourceAccountNumber", getSourceAccountNumber());
+        fields.put("targetAccountNumber", getTargetAccountNumber());
+        fields.put("timestamp", timestamp);
+        out.writeFields();
+    }
+
+    /**
+     * Compact binary form shared by the account store and the replication log.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeLong(amountCents);
+        out.writeUTF(getSourceAccountNumber());
+        out.writeUTF(targetId == AccountIds.NONE ? "" : getTargetAccountNumber());
+        out.writeLong(timestamp.getTime());
+    }
+
+    static Transaction readFrom(DataInputStream in) throws IOException {
+        Type type = Type.values()[in.readByte()];
+        long amountCents = in.readLong();
+        int sourceId = AccountIds.intern(in.readUTF());
+        String target = in.readUTF();
+        int targetId = target.isEmpty() ? AccountIds.NONE : AccountIds.intern(target);
+        return new Transaction(type, amountCents, sourceId, targetId, new Date(in.readLong()));
     }
 
     public Type getType() {
         return type;
     }
 
-    public double getAmount() {
-        return amount;
+    public long getAmount() {
+        return amountCents;
     }
 
     public String getSourceAccountNumber() {
-        return sourceAccountNumber;
+        return AccountIds.numberOf(sourceId);
     }
 
     public String getTargetAccountNumber() {
-        return targetAccountNumber;
+        return AccountIds.numberOf(targetId);
+    }
+
+    int getSourceId() {
+        return sourceId;
+    }
+
+    int getTargetId() {
+        return targetId;
     }
 
     public Date getTimestamp() {
@@ -68,227 +456,4418 @@ class Transaction implements Serializable {
 
         switch (type) {
             case DEPOSIT:
-                return String.format("[%s] DEPOSIT: $%.2f", formattedDate, amount);
+                return String.format("[%s] DEPOSIT: $%s", formattedDate, Money.format(amountCents));
             case WITHDRAWAL:
-                return String.format("[%s] WITHDRAWAL: $%.2f", formattedDate, amount);
+                return String.format("[%s] WITHDRAWAL: $%s", formattedDate, Money.format(amountCents));
             case TRANSFER:
-                return String.format("[%s] TRANSFER: $%.2f to account %s", formattedDate, amount, targetAccountNumber);
+                return String.format("[%s] TRANSFER: $%s to account %s", formattedDate, Money.format(amountCents),
+                        getTargetAccountNumber());
             default:
                 return "Unknown transaction";
         }
     }
 }
 
-class BankAccount implements Serializable {
+/**
+ * One month of compacted history: how many transactions of each type there
+ * were, what they added up to, and the balance either side of them.
+ */
+class HistorySummary implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private String accountNumber;
-    private String hashedPin;
-    private double balance;
-    private String userName;
-    private List<Transaction> transactionHistory;
-    private int failedPinAttempts;
-    private boolean locked;
-    private Date lastActivity;
+    private final YearMonth month;
+    private final int[] counts = new int[Transaction.Type.values().length];
+    private final long[] sums = new long[Transaction.Type.values().length];
+    private final long openingBalance;
+    private long closingBalance;
+
+    HistorySummary(YearMonth month, long openingBalance) {
+        this.month = month;
+        this.openingBalance = openingBalance;
+        this.closingBalance = openingBalance;
+    }
+
+    /**
+     * Summaries handed out to readers are never changed; a month that gets
+     * more history in a later compaction is replaced by an extended copy.
+     */
+    HistorySummary copy() {
+        HistorySummary copy = new HistorySummary(month, openingBalance);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        System.arraycopy(sums, 0, copy.sums, 0, sums.length);
+        copy.closingBalance = closingBalance;
+        return copy;
+    }
+
+    void add(Transaction transaction, long balanceAfter) {
+        int type = transaction.getType().ordinal();
+        counts[type]++;
+        sums[type] = Money.add(sums[type], transaction.getAmount());
+        closingBalance = balanceAfter;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(month.toString());
+        out.writeLong(openingBalance);
+        out.writeLong(closingBalance);
+        for (int i = 0; i < counts.length; i++) {
+            out.writeInt(counts[i]);
+            out.writeLong(sums[i]);
+        }
+    }
+
+    static HistorySummary readFrom(DataInputStream in) throws IOException {
+        HistorySummary summary = new HistorySummary(YearMonth.parse(in.readUTF()), in.readLong());
+        summary.closingBalance = in.readLong();
+        for (int i = 0; i < summary.counts.length; i++) {
+            summary.counts[i] = in.readInt();
+            summary.sums[i] = in.readLong();
+        }
+        return summary;
+    }
+
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public int getCount(Transaction.Type type) {
+        return counts[type.ordinal()];
+    }
+
+    public long getSum(Transaction.Type type) {
+        return sums[type.ordinal()];
+    }
+
+    public long getOpeningBalance() {
+        return openingBalance;
+    }
+
+    public long getClosingBalance() {
+        return closingBalance;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder().append('[').append(month).append("] ");
+        for (Transaction.Type type : Transaction.Type.values()) {
+            result.append(counts[type.ordinal()]).append(' ').append(type).append(": $");
+            Money.appendTo(result, sums[type.ordinal()]);
+            result.append(", ");
+        }
+        result.append("opening $");
+        Money.appendTo(result, openingBalance);
+        result.append(", closing $");
+        Money.appendTo(result, closingBalance);
+        return result.toString();
+    }
+}
 
-    public BankAccount(String accountNumber, String userName, String pin, double initialBalance) {
+/**
+ * Immutable view of an account as of its last committed mutation. Readers get
+ * one through a single volatile read and never contend with writers.
+ */
+final class AccountSnapshot {
+    private final String accountNumber;
+    private final String userName;
+    private final long balance;
+    private final boolean locked;
+    private final List<Transaction> recentTransactions;
+    private final long version;
+
+    AccountSnapshot(String accountNumber, String userName, long balance, boolean locked,
+                    List<Transaction> recentTransactions, long version) {
         this.accountNumber = accountNumber;
         this.userName = userName;
-        this.hashedPin = hashPin(pin);
-        this.balance = initialBalance;
-        this.transactionHistory = new ArrayList<>();
-        this.failedPinAttempts = 0;
-        this.locked = false;
-        this.lastActivity = new Date();
+        this.balance = balance;
+        this.locked = locked;
+        this.recentTransactions = Collections.unmodifiableList(recentTransactions);
+        this.version = version;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * @return the balance in cents
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Transaction> getRecentTransactions(int count) {
+        int size = recentTransactions.size();
+        if (size <= count) {
+            return recentTransactions;
+        }
+
+        return recentTransactions.subList(size - count, size);
+    }
+}
+
+/**
+ * Receives every committed account mutation. Both callbacks run with the
+ * account's monitor held, so each account's changes arrive in commit order.
+ */
+interface AccountListener {
+    void transactionCommitted(BankAccount account, Transaction transaction);
+
+    /**
+     * Called after changes that do not produce a transaction, such as a new
+     * PIN, lock state or standing orders.
+     */
+    default void accountChanged(BankAccount account) {
+    }
+}
+
+/**
+ * A recurring transfer. Due times are always computed from the anchor and the
+ * number of occurrences already handled, so schedules never drift and each
+ * occurrence is handled exactly once.
+ */
+class StandingOrder implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Frequency {
+        DAILY, WEEKLY, MONTHLY
+    }
+
+    private String id;
+    private String sourceAccountNumber;
+    private String targetAccountNumber;
+    private long amountCents;
+    private Frequency frequency;
+    private LocalDateTime anchor;
+    private int occurrencesHandled;
+    private int occurrencesSkipped;
+    private long nextDueMillis;
+    private boolean active;
+
+    public StandingOrder(String sourceAccountNumber, String targetAccountNumber, long amountCents,
+                         Frequency frequency, LocalDateTime firstDue) {
+        this.id = UUID.randomUUID().toString().substring(0, 8);
+        this.sourceAccountNumber = sourceAccountNumber;
+        this.targetAccountNumber = targetAccountNumber;
+        this.amountCents = amountCents;
+        this.frequency = frequency;
+        this.anchor = firstDue;
+        this.occurrencesHandled = 0;
+        this.occurrencesSkipped = 0;
+        this.active = true;
+        this.nextDueMillis = toMillis(dueAt(0));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = (String) fields.get("id", null);
+        sourceAccountNumber = (String) fields.get("sourceAccountNumber", null);
+        targetAccountNumber = (String) fields.get("targetAccountNumber", null);
+        amountCents = Money.readCents(fields, "amountCents", "amount");
+        frequency = (Frequency) fields.get("frequency", null);
+        anchor = (LocalDateTime) fields.get("anchor", null);
+        occurrencesHandled = fields.get("occurrencesHandled", 0);
+        occurrencesSkipped = fields.get("occurrencesSkipped", 0);
+        nextDueMillis = fields.get("nextDueMillis", 0L);
+        active = fields.get("active", false);
+    }
+
+    private StandingOrder() {
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(id);
+        out.writeUTF(sourceAccountNumber);
+        out.writeUTF(targetAccountNumber);
+        out.writeLong(amountCents);
+        out.writeByte(frequency.ordinal());
+        out.writeUTF(anchor.toString());
+        out.writeInt(occurrencesHandled);
+        out.writeInt(occurrencesSkipped);
+        out.writeLong(nextDueMillis);
+        out.writeBoolean(active);
+    }
+
+    static StandingOrder readFrom(DataInputStream in) throws IOException {
+        StandingOrder order = new StandingOrder();
+        order.id = in.readUTF();
+        order.sourceAccountNumber = in.readUTF();
+        order.targetAccountNumber = in.readUTF();
+        order.amountCents = in.readLong();
+        order.frequency = Frequency.values()[in.readByte()];
+        order.anchor = LocalDateTime.parse(in.readUTF());
+        order.occurrencesHandled = in.readInt();
+        order.occurrencesSkipped = in.readInt();
+        order.nextDueMillis = in.readLong();
+        order.active = in.readBoolean();
+        return order;
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private LocalDateTime dueAt(int occurrence) {
+        switch (frequency) {
+            case DAILY:
+                return anchor.plusDays(occurrence);
+            case WEEKLY:
+                return anchor.plusWeeks(occurrence);
+            default:
+                return anchor.plusMonths(occurrence);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceAccountNumber() {
+        return sourceAccountNumber;
+    }
+
+    public String getTargetAccountNumber() {
+        return targetAccountNumber;
+    }
+
+    public long getAmount() {
+        return amountCents;
+    }
+
+    public long getNextDueMillis() {
+        return nextDueMillis;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Only called by the source account with its monitor held.
+     */
+    void markHandled(boolean executed) {
+        if (!executed) {
+            occurrencesSkipped++;
+        }
+        occurrencesHandled++;
+        nextDueMillis = toMillis(dueAt(occurrencesHandled));
+    }
+
+    void cancel() {
+        active = false;
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        return String.format("%s: $%s %s to account %s, next on %s (%d done, %d skipped)",
+                id, Money.format(amountCents), frequency, targetAccountNumber, dateFormat.format(new Date(nextDueMillis)),
+                occurrencesHandled - occurrencesSkipped, occurrencesSkipped);
+    }
+}
+
+/**
+ * Hashes and verifies PINs on the login hot path. Each thread reuses its own
+ * SHA-256 digest and scratch buffer, hashes are kept as raw bytes and
+ * compared in constant time.
+ *
+ * Stored format: one version byte followed by the version's payload.
+ *   0 (legacy)  32-byte unsalted SHA-256 of the PIN
+ *   1 (salted)  16-byte salt, then 32-byte SHA-256 of salt + PIN
+ */
+final class CredentialVerifier {
+    static final byte VERSION_LEGACY_SHA256 = 0;
+    static final byte VERSION_SALTED_SHA256 = 1;
+    static final byte CURRENT_VERSION = VERSION_SALTED_SHA256;
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[HASH_LENGTH]);
+
+    private CredentialVerifier() {
+    }
+
+    public static byte[] hash(String pin) {
+        byte[] stored = new byte[1 + SALT_LENGTH + HASH_LENGTH];
+        stored[0] = VERSION_SALTED_SHA256;
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        System.arraycopy(salt, 0, stored, 1, SALT_LENGTH);
+
+        MessageDigest digest = DIGEST.get();
+        digest.update(salt);
+        updateWithPin(digest, pin);
+        finish(digest, stored, 1 + SALT_LENGTH);
+        return stored;
+    }
+
+    public static boolean verify(String pin, byte[] stored) {
+        if (stored == null || stored.length == 0) {
+            return false;
+        }
+
+        MessageDigest digest = DIGEST.get();
+        int hashOffset;
+        switch (stored[0]) {
+            case VERSION_LEGACY_SHA256:
+                hashOffset = 1;
+                break;
+            case VERSION_SALTED_SHA256:
+                hashOffset = 1 + SALT_LENGTH;
+                break;
+            default:
+                return false;
+        }
+        // Checked before reading the salt, so a truncated record is a mismatch.
+        if (stored.length != hashOffset + HASH_LENGTH) {
+            return false;
+        }
+        if (hashOffset > 1) {
+            digest.update(stored, 1, SALT_LENGTH);
+        }
+
+        updateWithPin(digest, pin);
+        byte[] computed = SCRATCH.get();
+        finish(digest, computed, 0);
+
+        int difference = 0;
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            difference |= computed[i] ^ stored[hashOffset + i];
+        }
+        return difference == 0;
+    }
+
+    public static boolean needsRehash(byte[] stored) {
+        return stored == null || stored.length == 0 || stored[0] != CURRENT_VERSION;
+    }
+
+    /**
+     * Converts a hex hash from the original String-based format.
+     */
+    public static byte[] fromLegacyHex(String hex) {
+        byte[] stored = new byte[1 + HASH_LENGTH];
+        stored[0] = VERSION_LEGACY_SHA256;
+        for (int i = 0; i < HASH_LENGTH && 2 * i + 1 < hex.length(); i++) {
+            stored[1 + i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return stored;
+    }
+
+    /**
+     * Feeds ASCII PINs to the digest without allocating; anything else goes
+     * through the platform charset like the original hashing did.
+     */
+    private static void updateWithPin(MessageDigest digest, String pin) {
+        for (int i = 0; i < pin.length(); i++) {
+            if (pin.charAt(i) >= 0x80) {
+                digest.update(pin.getBytes());
+                return;
+            }
+        }
+        for (int i = 0; i < pin.length(); i++) {
+            digest.update((byte) pin.charAt(i));
+        }
+    }
+
+    private static void finish(MessageDigest digest, byte[] output, int offset) {
+        try {
+            digest.digest(output, offset, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
+
+/**
+ * Measures PIN verification throughput for the legacy String-based hashing
+ * and for {@link CredentialVerifier}, across increasing thread counts.
+ *
+ * Usage: java PinVerificationBenchmark [secondsPerRun]
+ */
+class PinVerificationBenchmark {
+    private static final int ACCOUNTS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        String[] pins = new String[ACCOUNTS];
+        String[] legacyHashes = new String[ACCOUNTS];
+        byte[][] storedHashes = new byte[ACCOUNTS][];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            pins[i] = String.format("%04d", i);
+            legacyHashes[i] = legacyHash(pins[i]);
+            storedHashes[i] = CredentialVerifier.hash(pins[i]);
+        }
+
+        System.out.println("PIN verification benchmark (" + cores + " cores, " + seconds + "s per run)");
+        System.out.printf("%-10s %8s %16s %16s%n", "impl", "threads", "logins/s", "logins/s/thread");
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            report("legacy", threads, run(threads, seconds, i -> legacyHash(pins[i]).equals(legacyHashes[i])));
+            report("verifier", threads, run(threads, seconds, i -> CredentialVerifier.verify(pins[i], storedHashes[i])));
+        }
+    }
+
+    private static void report(String name, int threads, double opsPerSecond) {
+        System.out.printf("%-10s %8d %16.0f %16.0f%n", name, threads, opsPerSecond, opsPerSecond / threads);
+    }
+
+    private static double run(int threads, int seconds, IntPredicate login) throws Exception {
+        // Warm up so the JIT has compiled the path being measured.
+        for (int i = 0; i < 200_000; i++) {
+            login.test(i % ACCOUNTS);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Long>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                long count = 0;
+                int failures = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 256; i++) {
+                        if (!login.test((int) (count + i) % ACCOUNTS)) {
+                            failures++;
+                        }
+                    }
+                    count += 256;
+                }
+                if (failures > 0) {
+                    throw new IllegalStateException(failures + " verifications failed");
+                }
+                return count;
+            }));
+        }
+
+        long total = 0;
+        for (Future<Long> result : results) {
+            total += result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return total * 1e9 / elapsed;
+    }
+
+    private static String legacyHash(String pin) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(pin.getBytes());
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) hexString.append('0');
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
+
+class BankAccount implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int SNAPSHOT_RECENT_TRANSACTIONS = 10;
+
+    private String accountNumber;
+    // Hex hash from the original format; only read to migrate old accounts.
+    private String hashedPin;
+    private byte[] pinHash;
+    private long balanceCents;
+    private String userName;
+    private List<Transaction> transactionHistory;
+    private int failedPinAttempts;
+    private boolean locked;
+    private Date lastActivity;
+    // End-of-day checkpoints: closing balance and history size for each day
+    // with activity. Entry 0 is the opening balance, dated the day before the
+    // account's first activity. Compacted months keep only their last one.
+    private long[] checkpointDays;
+    private long[] checkpointBalances;
+    private int[] checkpointHistorySizes;
+    private int checkpointCount;
+    private long openDay;
+    private List<StandingOrder> standingOrders;
+    // Monthly roll-ups of transactions that compaction removed from the history.
+    private List<HistorySummary> historySummaries;
+    // Set when the account came from an AccountStore and its stored history
+    // has not been decoded yet; transactionHistory then only holds what was
+    // committed since.
+    private transient HistoryRef historyRef;
+    private transient int id;
+    private transient volatile AccountSnapshot snapshot;
+    private transient long version;
+    private transient AccountListener accountListener;
+
+    public BankAccount(String accountNumber, String userName, String pin, long initialBalanceCents) {
+        this.accountNumber = accountNumber;
+        this.id = AccountIds.intern(accountNumber);
+        this.userName = userName;
+        this.pinHash = CredentialVerifier.hash(pin);
+        this.balanceCents = initialBalanceCents;
+        this.transactionHistory = new ArrayList<>();
+        this.failedPinAttempts = 0;
+        this.locked = false;
+        this.lastActivity = new Date();
+        this.standingOrders = new ArrayList<>();
+        this.historySummaries = new ArrayList<>();
+        initCheckpoints(epochDay(lastActivity), initialBalanceCents);
+        publishSnapshot();
+    }
+
+    private BankAccount() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        accountNumber = (String) fields.get("accountNumber", null);
+        id = AccountIds.intern(accountNumber);
+        hashedPin = (String) fields.get("hashedPin", null);
+        pinHash = (byte[]) fields.get("pinHash", null);
+        balanceCents = Money.readCents(fields, "balanceCents", "balance");
+        userName = (String) fields.get("userName", null);
+        transactionHistory = (List<Transaction>) fields.get("transactionHistory", null);
+        failedPinAttempts = fields.get("failedPinAttempts", 0);
+        locked = fields.get("locked", false);
+        lastActivity = (Date) fields.get("lastActivity", null);
+        standingOrders = (List<StandingOrder>) fields.get("standingOrders", null);
+        historySummaries = (List<HistorySummary>) fields.get("historySummaries", null);
+        // Checkpoints saved with double balances are simply rebuilt from the history.
+        ObjectStreamField checkpointField = fields.getObjectStreamClass().getField("checkpointBalances");
+        if (checkpointField != null && checkpointField.getType() == long[].class) {
+            checkpointDays = (long[]) fields.get("checkpointDays", null);
+            checkpointBalances = (long[]) fields.get("checkpointBalances", null);
+            checkpointHistorySizes = (int[]) fields.get("checkpointHistorySizes", null);
+            checkpointCount = fields.get("checkpointCount", 0);
+            openDay = fields.get("openDay", 0L);
+        }
+
+        if (pinHash == null && hashedPin != null) {
+            pinHash = CredentialVerifier.fromLegacyHex(hashedPin);
+            hashedPin = null;
+        }
+        if (checkpointDays == null) {
+            rebuildCheckpoints();
+        }
+        if (standingOrders == null) {
+            standingOrders = new ArrayList<>();
+        }
+        if (historySummaries == null) {
+            historySummaries = new ArrayList<>();
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Java serialization (replication base images) always carries the full history.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        synchronized (this) {
+            history();
+            out.defaultWriteObject();
+        }
+    }
+
+    /**
+     * Writes everything except the history blob, which the store writes
+     * separately and describes with {@code history}.
+     */
+    synchronized void writeHeader(DataOutputStream out, HistoryRef history) throws IOException {
+        writeState(out);
+        history.writeTo(out);
+    }
+
+    /**
+     * Everything but the history, for replication of changes that do not
+     * produce a transaction. Transactions are shipped on their own, so only
+     * the history's length goes along, to let replicas drop what compaction
+     * removed. Called from the change listener with this account's monitor
+     * held.
+     */
+    byte[] encodeState() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeState(out);
+        out.writeInt(historySize());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies a state shipped by {@link #encodeState} on a replica. An
+     * account the replica does not know yet is new on the primary and has
+     * no history before its first shipped transaction.
+     */
+    static void replicateState(byte[] payload, AccountBook accounts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.mark(payload.length);
+        BankAccount account = accounts.get(in.readUTF());
+        in.reset();
+        if (account == null) {
+            account = new BankAccount();
+            account.readState(in, AccountStore.FORMAT_VERSION);
+            account.transactionHistory = new ArrayList<>();
+            account.publishSnapshot();
+            accounts.put(account);
+            return;
+        }
+
+        synchronized (account) {
+            account.readState(in, AccountStore.FORMAT_VERSION);
+            List<Transaction> history = account.history();
+            int compacted = history.size() - in.readInt();
+            if (compacted > 0) {
+                account.transactionHistory = new ArrayList<>(history.subList(compacted, history.size()));
+            }
+            account.publishSnapshot();
+        }
+    }
+
+    private void writeState(DataOutputStream out) throws IOException {
+        out.writeUTF(accountNumber);
+        out.writeUTF(userName);
+        out.writeInt(pinHash.length);
+        out.write(pinHash);
+        out.writeLong(balanceCents);
+        out.writeInt(failedPinAttempts);
+        out.writeBoolean(locked);
+        out.writeLong(lastActivity.getTime());
+        out.writeLong(openDay);
+        out.writeInt(checkpointCount);
+        for (int i = 0; i < checkpointCount; i++) {
+            out.writeLong(checkpointDays[i]);
+            out.writeLong(checkpointBalances[i]);
+            out.writeInt(checkpointHistorySizes[i]);
+        }
+        out.writeInt(standingOrders.size());
+        for (StandingOrder order : standingOrders) {
+            order.writeTo(out);
+        }
+        out.writeInt(historySummaries.size());
+        for (HistorySummary summary : historySummaries) {
+            summary.writeTo(out);
+        }
+    }
+
+    /**
+     * @param legacyHistory the history file of a store written before
+     *        version 4, whose blobs are moved into {@code log}; null otherwise
+     */
+    static BankAccount readHeader(DataInputStream in, HistoryLog log, BlockFileReader legacyHistory,
+                                  int formatVersion) throws IOException {
+        BankAccount account = new BankAccount();
+        account.readState(in, formatVersion);
+        account.historyRef = formatVersion >= 4
+                ? HistoryRef.readFrom(in, log)
+                : HistoryRef.readLegacy(in, legacyHistory, log);
+        account.transactionHistory = new ArrayList<>();
+        account.publishSnapshot();
+        return account;
+    }
+
+    private void readState(DataInputStream in, int formatVersion) throws IOException {
+        accountNumber = in.readUTF();
+        id = AccountIds.intern(accountNumber);
+        userName = in.readUTF();
+        pinHash = new byte[in.readInt()];
+        in.readFully(pinHash);
+        balanceCents = in.readLong();
+        failedPinAttempts = in.readInt();
+        locked = in.readBoolean();
+        lastActivity = new Date(in.readLong());
+        openDay = in.readLong();
+        checkpointCount = in.readInt();
+        int capacity = Math.max(8, checkpointCount);
+        checkpointDays = new long[capacity];
+        checkpointBalances = new long[capacity];
+        checkpointHistorySizes = new int[capacity];
+        for (int i = 0; i < checkpointCount; i++) {
+            checkpointDays[i] = in.readLong();
+            checkpointBalances[i] = in.readLong();
+            checkpointHistorySizes[i] = in.readInt();
+        }
+        int orders = in.readInt();
+        standingOrders = new ArrayList<>(orders);
+        for (int i = 0; i < orders; i++) {
+            standingOrders.add(StandingOrder.readFrom(in));
+        }
+        int summaries = formatVersion >= 2 ? in.readInt() : 0;
+        historySummaries = new ArrayList<>(summaries);
+        for (int i = 0; i < summaries; i++) {
+            historySummaries.add(HistorySummary.readFrom(in));
+        }
+    }
+
+    /**
+     * Appends what this account committed since the last save to {@code log}
+     * and returns where its whole history now is. A history that was decoded,
+     * or that has grown to MAX_SEGMENTS segments, goes in whole as one new
+     * segment. Called with the book write lock held, so the history cannot
+     * grow meanwhile.
+     */
+    synchronized HistoryRef saveHistory(HistoryLog log) throws IOException {
+        HistoryRef stored = historyRef;
+        if (stored != null && stored.log != log) {
+            stored = stored.moveTo(log);
+        }
+        if (stored != null && transactionHistory.isEmpty()) {
+            return stored;
+        }
+        if (stored != null && stored.segments.size() >= HistoryRef.MAX_SEGMENTS) {
+            history();
+            stored = null;
+        }
+
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        DataOutputStream encoder = new DataOutputStream(appended);
+        for (Transaction transaction : transactionHistory) {
+            transaction.writeTo(encoder);
+        }
+        List<HistoryLog.Segment> segments = new ArrayList<>();
+        if (stored != null) {
+            segments.addAll(stored.segments);
+        }
+        if (!transactionHistory.isEmpty()) {
+            segments.add(log.append(appended.toByteArray(), transactionHistory.size()));
+        }
+        return new HistoryRef(log, segments, recentTransactions());
+    }
+
+    /**
+     * Points the account at its freshly saved history and drops the decoded
+     * copy, so memory stays proportional to what is touched between saves.
+     */
+    synchronized void historySaved(HistoryRef saved) {
+        int alreadyStored = historyRef == null ? 0 : historyRef.count;
+        List<Transaction> unsaved = transactionHistory.subList(saved.count - alreadyStored, transactionHistory.size());
+        transactionHistory = new ArrayList<>(unsaved);
+        historyRef = saved;
+    }
+
+    /**
+     * The transactions compactHistoryBefore would remove for
+     * {@code cutoffDay}, leaving the account unchanged: those on days before
+     * it that are already sealed by an end-of-day checkpoint. The stored
+     * history is decoded only if there is something to compact.
+     */
+    synchronized List<Transaction> compactableHistoryBefore(long cutoffDay) {
+        int index = lastCheckpointBefore(cutoffDay);
+        int removable = index < 0 ? 0 : checkpointHistorySizes[index];
+        return removable == 0 ? Collections.emptyList() : new ArrayList<>(history().subList(0, removable));
+    }
+
+    /**
+     * Rolls the {@code count} transactions compactableHistoryBefore returned
+     * into monthly summaries and drops them from the history. Their
+     * checkpoints are cut down to one per month, so balances before the
+     * horizon are kept to the month (see getBalanceOn). Returns false and
+     * changes nothing if the compactable records are no longer those.
+     */
+    synchronized boolean compactHistoryBefore(long cutoffDay, int count) {
+        int index = lastCheckpointBefore(cutoffDay);
+        int removable = index < 0 ? 0 : checkpointHistorySizes[index];
+        if (removable == 0 || removable != count) {
+            return false;
+        }
+
+        List<Transaction> history = history();
+        long running = balanceCents;
+        for (Transaction transaction : history) {
+            running = Money.subtract(running, signedAmount(transaction));
+        }
+
+        List<Transaction> compacted = new ArrayList<>(history.subList(0, removable));
+        int previousSummaries = historySummaries.size();
+        if (previousSummaries > 0) {
+            historySummaries.set(previousSummaries - 1, historySummaries.get(previousSummaries - 1).copy());
+        }
+        for (Transaction transaction : compacted) {
+            YearMonth month = YearMonth.from(transaction.getTimestamp().toInstant().atZone(ZoneId.systemDefault()));
+            HistorySummary summary = historySummaries.isEmpty() ? null : historySummaries.get(historySummaries.size() - 1);
+            if (summary == null || !summary.getMonth().equals(month)) {
+                summary = new HistorySummary(month, running);
+                historySummaries.add(summary);
+            }
+            running = Money.add(running, signedAmount(transaction));
+            summary.add(transaction, running);
+        }
+
+        transactionHistory = new ArrayList<>(history.subList(removable, history.size()));
+        for (int i = 0; i < checkpointCount; i++) {
+            checkpointHistorySizes[i] = Math.max(0, checkpointHistorySizes[i] - removable);
+        }
+        pruneCheckpointsThrough(index);
+        publishSnapshot();
+        notifyChanged();
+        return true;
+    }
+
+    /** Index of the last checkpoint sealing a day before cutoffDay, or -1 if there is none. */
+    private int lastCheckpointBefore(long cutoffDay) {
+        int index = Arrays.binarySearch(checkpointDays, 0, checkpointCount, Math.min(cutoffDay, openDay) - 1);
+        return index < 0 ? -index - 2 : index;
+    }
+
+    public synchronized List<HistorySummary> getHistorySummaries() {
+        return new ArrayList<>(historySummaries);
+    }
+
+    /**
+     * Where the undecoded history starts in the history log, so saves that
+     * rewrite the log read it in file order; decoded histories sort last.
+     */
+    synchronized long storedHistoryOffset() {
+        return historyRef == null || historyRef.segments.isEmpty() ? Long.MAX_VALUE
+                : historyRef.segments.get(0).position;
+    }
+
+    /**
+     * Bytes of the history log still in use by this account.
+     */
+    synchronized long storedHistoryBytes() {
+        return historyRef == null ? 0 : historyRef.storedBytes();
+    }
+
+    private int historySize() {
+        return historyRef == null ? transactionHistory.size() : historyRef.count + transactionHistory.size();
+    }
+
+    /**
+     * The full history, decoding the stored blob on first use. Must be called
+     * with this account's monitor held.
+     */
+    private List<Transaction> history() {
+        if (historyRef != null) {
+            List<Transaction> stored;
+            try {
+                stored = historyRef.load();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read history of account " + accountNumber, e);
+            }
+            stored.addAll(transactionHistory);
+            transactionHistory = stored;
+            historyRef = null;
+        }
+        return transactionHistory;
+    }
+
+    /**
+     * The last few transactions without decoding the stored history.
+     */
+    private List<Transaction> recentTransactions() {
+        List<Transaction> recent = new ArrayList<>(SNAPSHOT_RECENT_TRANSACTIONS);
+        if (historyRef != null) {
+            List<Transaction> tail = historyRef.tail;
+            int fromTail = Math.max(0, SNAPSHOT_RECENT_TRANSACTIONS - transactionHistory.size());
+            recent.addAll(tail.subList(Math.max(0, tail.size() - fromTail), tail.size()));
+        }
+        int size = transactionHistory.size();
+        recent.addAll(transactionHistory.subList(Math.max(0, size - SNAPSHOT_RECENT_TRANSACTIONS), size));
+        return recent;
+    }
+
+    private static long epochDay(Date date) {
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    private static long signedAmount(Transaction transaction) {
+        return transaction.getType() == Transaction.Type.DEPOSIT ? transaction.getAmount() : -transaction.getAmount();
+    }
+
+    private void initCheckpoints(long firstDay, long openingBalance) {
+        checkpointDays = new long[8];
+        checkpointBalances = new long[8];
+        checkpointHistorySizes = new int[8];
+        checkpointCount = 0;
+        appendCheckpoint(firstDay - 1, openingBalance, 0);
+        openDay = firstDay;
+    }
+
+    /**
+     * Accounts saved before checkpoints existed get them derived once from
+     * their full history, working back from the current balance.
+     */
+    private void rebuildCheckpoints() {
+        long openingBalance = balanceCents;
+        for (Transaction transaction : transactionHistory) {
+            openingBalance = Money.subtract(openingBalance, signedAmount(transaction));
+        }
+
+        long firstDay = transactionHistory.isEmpty()
+                ? epochDay(lastActivity)
+                : epochDay(transactionHistory.get(0).getTimestamp());
+        initCheckpoints(firstDay, openingBalance);
+
+        long running = openingBalance;
+        for (int i = 0; i < transactionHistory.size(); i++) {
+            Transaction transaction = transactionHistory.get(i);
+            closeDaysBefore(epochDay(transaction.getTimestamp()), running, i);
+            running = Money.add(running, signedAmount(transaction));
+        }
+    }
+
+    private void appendCheckpoint(long day, long closingBalance, int historySize) {
+        if (checkpointCount == checkpointDays.length) {
+            int capacity = checkpointCount * 2;
+            checkpointDays = Arrays.copyOf(checkpointDays, capacity);
+            checkpointBalances = Arrays.copyOf(checkpointBalances, capacity);
+            checkpointHistorySizes = Arrays.copyOf(checkpointHistorySizes, capacity);
+        }
+        checkpointDays[checkpointCount] = day;
+        checkpointBalances[checkpointCount] = closingBalance;
+        checkpointHistorySizes[checkpointCount] = historySize;
+        checkpointCount++;
+    }
+
+    /**
+     * Drops the checkpoints up to {@code last} that are not the opening entry
+     * or the final one of their month. Their days are compacted, so there is
+     * no history left to replay from them.
+     */
+    private void pruneCheckpointsThrough(int last) {
+        int kept = 1;
+        for (int i = 1; i < checkpointCount; i++) {
+            if (i < last && YearMonth.from(LocalDate.ofEpochDay(checkpointDays[i]))
+                    .equals(YearMonth.from(LocalDate.ofEpochDay(checkpointDays[i + 1])))) {
+                continue;
+            }
+            checkpointDays[kept] = checkpointDays[i];
+            checkpointBalances[kept] = checkpointBalances[i];
+            checkpointHistorySizes[kept] = checkpointHistorySizes[i];
+            kept++;
+        }
+        checkpointCount = kept;
+        int capacity = Math.max(8, Integer.highestOneBit(kept) * 2);
+        if (capacity < checkpointDays.length) {
+            checkpointDays = Arrays.copyOf(checkpointDays, capacity);
+            checkpointBalances = Arrays.copyOf(checkpointBalances, capacity);
+            checkpointHistorySizes = Arrays.copyOf(checkpointHistorySizes, capacity);
+        }
+    }
+
+    /**
+     * Seals the open day once activity arrives on a later day.
+     */
+    private void closeDaysBefore(long day, long closingBalance, int historySize) {
+        if (day > openDay) {
+            appendCheckpoint(openDay, closingBalance, historySize);
+            openDay = day;
+        }
+    }
+
+    /**
+     * Single entry point for balance-changing history records, so checkpoints
+     * always see the balance as it stood before the new day's first entry.
+     */
+    private void applyTransaction(Transaction transaction) {
+        closeDaysBefore(epochDay(transaction.getTimestamp()), balanceCents, historySize());
+        balanceCents = Money.add(balanceCents, signedAmount(transaction));
+        transactionHistory.add(transaction);
+    }
+
+    /**
+     * Returns the closing balance in cents on the given date, or null if the
+     * account did not exist yet. Finds the nearest checkpoint by binary search and
+     * replays at most the one open day after it. For a day in a compacted month
+     * this is the balance the month opened with, or closed with once past its
+     * last day of activity.
+     */
+    public synchronized Long getBalanceOn(LocalDate date) {
+        long day = date.toEpochDay();
+        if (day <= checkpointDays[0]) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(checkpointDays, 0, checkpointCount, day);
+        if (index < 0) {
+            index = -index - 2;
+        }
+
+        long result = checkpointBalances[index];
+        List<Transaction> history = history();
+        for (int i = checkpointHistorySizes[index]; i < history.size(); i++) {
+            Transaction transaction = history.get(i);
+            if (epochDay(transaction.getTimestamp()) > day) {
+                break;
+            }
+            result = Money.add(result, signedAmount(transaction));
+        }
+        return result;
+    }
+
+    /**
+     * Must be called with this account's monitor held, after every committed mutation.
+     */
+    private void publishSnapshot() {
+        snapshot = new AccountSnapshot(accountNumber, userName, balanceCents, locked, recentTransactions(), ++version);
+    }
+
+    /**
+     * Lock-free read of the last committed state, for balance inquiries and mini-statements.
+     */
+    public AccountSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setAccountListener(AccountListener accountListener) {
+        this.accountListener = accountListener;
+    }
+
+    /**
+     * Called with the monitor still held so listeners see each account's
+     * transactions in commit order.
+     */
+    private void notifyCommitted(Transaction transaction) {
+        if (accountListener != null) {
+            accountListener.transactionCommitted(this, transaction);
+        }
+    }
+
+    private void notifyChanged() {
+        if (accountListener != null) {
+            accountListener.accountChanged(this);
+        }
+    }
+
+    /**
+     * Applies a transaction shipped from a primary. Replicas have no
+     * listener, so nothing is re-published.
+     */
+    public synchronized void replicateTransaction(Transaction transaction) {
+        applyTransaction(transaction);
+        updateLastActivity();
+        publishSnapshot();
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public synchronized boolean validatePin(String inputPin) {
+        if (locked) {
+            return false;
+        }
+
+        boolean isValid = matchesPin(inputPin);
+        int previousFailedAttempts = failedPinAttempts;
+
+        if (!isValid) {
+            failedPinAttempts++;
+            if (failedPinAttempts >= 3) {
+                locked = true;
+                publishSnapshot();
+            }
+        } else {
+            failedPinAttempts = 0;
+        }
+
+        // Upgrade older hash formats now that the plain PIN is known to be right.
+        boolean rehashed = isValid && CredentialVerifier.needsRehash(pinHash);
+        if (rehashed) {
+            pinHash = CredentialVerifier.hash(inputPin);
+        }
+
+        updateLastActivity();
+        if (rehashed || failedPinAttempts != previousFailedAttempts) {
+            notifyChanged();
+        }
+        return isValid;
+    }
+
+    /**
+     * Checks a PIN without counting failed attempts, for read-only replicas.
+     */
+    public synchronized boolean matchesPin(String inputPin) {
+        return CredentialVerifier.verify(inputPin, pinHash);
+    }
+
+    public boolean isLocked() {
+        return snapshot.isLocked();
+    }
+
+    public synchronized void unlockAccount() {
+        locked = false;
+        failedPinAttempts = 0;
+        publishSnapshot();
+        notifyChanged();
+    }
+
+    public synchronized boolean changePin(String oldPin, String newPin) {
+        if (validatePin(oldPin)) {
+            pinHash = CredentialVerifier.hash(newPin);
+            notifyChanged();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the balance in cents
+     */
+    public synchronized long getBalance() {
+        updateLastActivity();
+        return balanceCents;
+    }
+
+    public synchronized boolean deposit(long amount) {
+        if (amount <= 0) {
+            return false;
+        }
+
+        Transaction transaction = new Transaction(Transaction.Type.DEPOSIT, amount, id, AccountIds.NONE, new Date());
+        applyTransaction(transaction);
+        updateLastActivity();
+        publishSnapshot();
+        notifyCommitted(transaction);
+        return true;
+    }
+
+    public synchronized boolean withdraw(long amount) {
+        if (amount <= 0) {
+            return false;
+        }
+
+        if (amount > balanceCents) {
+            return false;
+        }
+
+        Transaction transaction = new Transaction(Transaction.Type.WITHDRAWAL, amount, id, AccountIds.NONE,
+                new Date());
+        applyTransaction(transaction);
+        updateLastActivity();
+        publishSnapshot();
+        notifyCommitted(transaction);
+        return true;
+    }
+
+    public boolean transfer(BankAccount targetAccount, long amount) {
+        if (targetAccount == null) {
+            return false;
+        }
+
+        return withBothLocked(this, targetAccount, () -> transferLocked(targetAccount, amount));
+    }
+
+    private static <T> T withBothLocked(BankAccount a, BankAccount b, Supplier<T> action) {
+        // Always lock the lower account id first so opposing transfers cannot deadlock.
+        boolean aFirst = a.id <= b.id;
+        BankAccount first = aFirst ? a : b;
+        BankAccount second = aFirst ? b : a;
+
+        synchronized (first) {
+            synchronized (second) {
+                return action.get();
+            }
+        }
+    }
+
+    public synchronized void addStandingOrder(StandingOrder order) {
+        standingOrders.add(order);
+        notifyChanged();
+    }
+
+    public synchronized List<StandingOrder> getStandingOrders() {
+        return new ArrayList<>(standingOrders);
+    }
+
+    public synchronized boolean cancelStandingOrder(String orderId) {
+        for (StandingOrder order : standingOrders) {
+            if (order.getId().equals(orderId)) {
+                order.cancel();
+                standingOrders.remove(order);
+                notifyChanged();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs one due occurrence of an order held by this account. The transfer
+     * and the order's advance happen under the same locks, and the order is
+     * saved with this account, so a restart neither repeats nor loses it.
+     * A missing target or insufficient funds skips the occurrence.
+     */
+    public boolean executeStandingOrder(StandingOrder order, BankAccount targetAccount, long now) {
+        if (targetAccount == null) {
+            synchronized (this) {
+                if (!order.isActive() || order.getNextDueMillis() > now) {
+                    return false;
+                }
+                order.markHandled(false);
+                notifyChanged();
+                return false;
+            }
+        }
+
+        return withBothLocked(this, targetAccount, () -> {
+            if (!order.isActive() || order.getNextDueMillis() > now) {
+                return false;
+            }
+            boolean executed = targetAccount != this && transferLocked(targetAccount, order.getAmount());
+            order.markHandled(executed);
+            notifyChanged();
+            return executed;
+        });
+    }
+
+    private boolean transferLocked(BankAccount targetAccount, long amount) {
+        if (amount <= 0 || amount > balanceCents) {
+            return false;
+        }
+
+        Date now = new Date();
+        Transaction debit = new Transaction(Transaction.Type.TRANSFER, amount, id, targetAccount.id, now);
+        Transaction credit = new Transaction(Transaction.Type.DEPOSIT, amount, targetAccount.id, id, now);
+        applyTransaction(debit);
+        targetAccount.applyTransaction(credit);
+
+        updateLastActivity();
+        targetAccount.updateLastActivity();
+        publishSnapshot();
+        targetAccount.publishSnapshot();
+        notifyCommitted(debit);
+        targetAccount.notifyCommitted(credit);
+        return true;
+    }
+
+    /**
+     * Posts this account's share of a netted settlement batch: every entry is
+     * kept in the history, but the balance moves once by the net amount.
+     * The entries share the batch timestamp.
+     */
+    synchronized void postSettlement(List<Transaction> entries, long netCents) {
+        closeDaysBefore(epochDay(entries.get(0).getTimestamp()), balanceCents, historySize());
+        balanceCents = Money.add(balanceCents, netCents);
+        transactionHistory.addAll(entries);
+        updateLastActivity();
+        publishSnapshot();
+        for (Transaction entry : entries) {
+            notifyCommitted(entry);
+        }
+    }
+
+    public synchronized List<Transaction> getTransactionHistory() {
+        updateLastActivity();
+        return new ArrayList<>(history());
+    }
+
+    public synchronized List<Transaction> getRecentTransactions(int count) {
+        updateLastActivity();
+        List<Transaction> history = history();
+        int size = history.size();
+        if (size <= count) {
+            return new ArrayList<>(history);
+        }
+
+        return new ArrayList<>(history.subList(size - count, size));
+    }
+
+    public Date getLastActivity() {
+        return lastActivity;
+    }
+
+    private void updateLastActivity() {
+        lastActivity = new Date();
+    }
+}
+
+/**
+ * Where an account's undecoded history sits in the history log: its
+ * segments in order, plus the last few transactions so snapshots need not
+ * decode anything.
+ */
+final class HistoryRef {
+    // Past this many segments the next save appends the history whole as one.
+    static final int MAX_SEGMENTS = 16;
+
+    final HistoryLog log;
+    final List<HistoryLog.Segment> segments;
+    final int count;
+    final List<Transaction> tail;
+
+    HistoryRef(HistoryLog log, List<HistoryLog.Segment> segments, List<Transaction> tail) {
+        this.log = log;
+        this.segments = segments;
+        int count = 0;
+        for (HistoryLog.Segment segment : segments) {
+            count += segment.count;
+        }
+        this.count = count;
+        this.tail = tail;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(segments.size());
+        for (HistoryLog.Segment segment : segments) {
+            segment.writeTo(out);
+        }
+        writeTail(out, tail);
+    }
+
+    static HistoryRef readFrom(DataInputStream in, HistoryLog log) throws IOException {
+        int segmentCount = in.readInt();
+        List<HistoryLog.Segment> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(HistoryLog.Segment.readFrom(in));
+        }
+        return new HistoryRef(log, segments, readTail(in));
+    }
+
+    /**
+     * Reads a reference from a store before version 4, where each history
+     * was one blob in a block file, and appends the blob to {@code log}.
+     */
+    static HistoryRef readLegacy(DataInputStream in, BlockFileReader file, HistoryLog log) throws IOException {
+        long offset = in.readLong();
+        int length = in.readInt();
+        int count = in.readInt();
+        List<Transaction> tail = readTail(in);
+        List<HistoryLog.Segment> segments = new ArrayList<>(1);
+        if (count > 0) {
+            segments.add(log.append(file.read(offset, length), count));
+        }
+        return new HistoryRef(log, segments, tail);
+    }
+
+    private static void writeTail(DataOutputStream out, List<Transaction> tail) throws IOException {
+        out.writeInt(tail.size());
+        for (Transaction transaction : tail) {
+            transaction.writeTo(out);
+        }
+    }
+
+    private static List<Transaction> readTail(DataInputStream in) throws IOException {
+        int tailSize = in.readInt();
+        List<Transaction> tail = new ArrayList<>(tailSize);
+        for (int i = 0; i < tailSize; i++) {
+            tail.add(Transaction.readFrom(in));
+        }
+        return tail;
+    }
+
+    long storedBytes() {
+        long bytes = 0;
+        for (HistoryLog.Segment segment : segments) {
+            bytes += segment.storedLength;
+        }
+        return bytes;
+    }
+
+    /**
+     * The same history in another log, for saves that rewrite the log. The
+     * segments are copied as they are stored, without recompressing them.
+     */
+    HistoryRef moveTo(HistoryLog target) throws IOException {
+        List<HistoryLog.Segment> moved = new ArrayList<>(segments.size());
+        for (HistoryLog.Segment segment : segments) {
+            moved.add(target.copy(log, segment));
+        }
+        return new HistoryRef(target, moved, tail);
+    }
+
+    List<Transaction> load() throws IOException {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (HistoryLog.Segment segment : segments) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(log.read(segment)));
+            for (int i = 0; i < segment.count; i++) {
+                transactions.add(Transaction.readFrom(in));
+            }
+        }
+        return transactions;
+    }
+}
+
+/**
+ * The account histories on disk: an append-only log of segments, each the
+ * transactions one account committed between two saves, as a run of frames
+ * in the {@link BlockOutputStream} format. Segments already in the log are
+ * never rewritten, so a save writes only what changed. Reads and appends
+ * share one channel, which is forced to disk before the header that points
+ * into it is swapped in.
+ *
+ * The header records how long the log was at the last save; anything past
+ * that is left from a save that did not finish and is cut off on open.
+ */
+final class HistoryLog implements AutoCloseable {
+    /**
+     * Where one segment sits in the log.
+     */
+    static final class Segment {
+        final long position;
+        final int storedLength;
+        final int rawLength;
+        final int count;
+
+        Segment(long position, int storedLength, int rawLength, int count) {
+            this.position = position;
+            this.storedLength = storedLength;
+            this.rawLength = rawLength;
+            this.count = count;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(position);
+            out.writeInt(storedLength);
+            out.writeInt(rawLength);
+            out.writeInt(count);
+        }
+
+        static Segment readFrom(DataInputStream in) throws IOException {
+            return new Segment(in.readLong(), in.readInt(), in.readInt(), in.readInt());
+        }
+    }
+
+    private final File path;
+    private final FileChannel channel;
+    private final byte[] compressed = new byte[LzCompressor.maxCompressedLength(BlockOutputStream.BLOCK_SIZE)];
+    private final CRC32C checksum = new CRC32C();
+    private long length;
+
+    /**
+     * @param committedLength the log's length as of the last completed save
+     */
+    HistoryLog(File path, long committedLength) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < committedLength) {
+                throw new IOException(path + " is shorter than its header says");
+            }
+            channel.truncate(committedLength);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.length = committedLength;
+    }
+
+    File getPath() {
+        return path;
+    }
+
+    synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Compresses {@code raw} into frames at the end of the log.
+     */
+    synchronized Segment append(byte[] raw, int count) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(raw.length / 2 + BlockOutputStream.FRAME_HEADER_BYTES);
+        DataOutputStream out = new DataOutputStream(frames);
+        for (int offset = 0; offset < raw.length; offset += BlockOutputStream.BLOCK_SIZE) {
+            byte[] block = offset == 0 && raw.length <= BlockOutputStream.BLOCK_SIZE
+                    ? raw
+                    : Arrays.copyOfRange(raw, offset, Math.min(raw.length, offset + BlockOutputStream.BLOCK_SIZE));
+            BlockOutputStream.writeFrame(out, block, block.length, compressed, checksum);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(frames.toByteArray());
+        long position = length;
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+        length += bytes.limit();
+        return new Segment(position, bytes.limit(), raw.length, count);
+    }
+
+    /**
+     * Copies a segment of another log to the end of this one byte for byte.
+     */
+    synchronized Segment copy(HistoryLog source, Segment segment) throws IOException {
+        long position = length;
+        channel.position(position);
+        long copied = 0;
+        while (copied < segment.storedLength) {
+            long transferred = source.channel.transferTo(segment.position + copied, segment.storedLength - copied,
+                    channel);
+            if (transferred <= 0) {
+                throw new IOException(source.path + " ends inside a segment");
+            }
+            copied += transferred;
+        }
+        length += segment.storedLength;
+        return new Segment(position, segment.storedLength, segment.rawLength, segment.count);
+    }
+
+    /**
+     * Reads and decompresses one segment.
+     */
+    byte[] read(Segment segment) throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate(segment.storedLength);
+        while (stored.hasRemaining()) {
+            if (channel.read(stored, segment.position + stored.position()) < 0) {
+                throw new IOException(path + " ends inside a segment");
+            }
+        }
+        byte[] frames = stored.array();
+        byte[] raw = new byte[segment.rawLength];
+        int copied = 0;
+        for (int offset = 0; offset < frames.length; ) {
+            byte[] block = BlockFileReader.decode(frames, offset);
+            if (copied + block.length > raw.length) {
+                throw new IOException(path + " has a damaged segment at " + segment.position);
+            }
+            System.arraycopy(block, 0, raw, copied, block.length);
+            copied += block.length;
+            offset += BlockOutputStream.FRAME_HEADER_BYTES + ByteBuffer.wrap(frames, offset + 4, 4).getInt();
+        }
+        if (copied != raw.length) {
+            throw new IOException(path + " has a damaged segment at " + segment.position);
+        }
+        return raw;
+    }
+
+    /**
+     * Flushes everything appended so far to the disk.
+     */
+    void force() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+/**
+ * The account book on disk: a small header file that is read eagerly at
+ * startup, and a {@link HistoryLog} holding each account's transactions in
+ * segments that are only decoded when the account first needs them. Startup
+ * cost therefore grows with the number of accounts, not the number of
+ * transactions.
+ *
+ * Both files are compressed in blocks (see {@link BlockOutputStream}); the
+ * header is decompressed in parallel at startup. Stores written before
+ * version 4 kept one history blob per account in a block file, and before
+ * version 3 plain files; both still load and move to a log on the next save.
+ *
+ * A save appends new history to the log and forces it to disk, then writes
+ * the header to a temporary file, forces that and atomically moves it into
+ * place, so a crash mid-save leaves the last complete book. Once dead
+ * segments make up most of the log, the save writes a new log generation
+ * instead and deletes the old one after the header has moved.
+ */
+final class AccountStore {
+    private static final int MAGIC = 0x41544D42;
+    // 2 added monthly history summaries to the account header, 3 block
+    // compression of both files, 4 the append-only history log.
+    static final int FORMAT_VERSION = 4;
+    // The log is rewritten once it is past this size and mostly dead segments.
+    private static final long MIN_REWRITE_BYTES = 1 << 20;
+
+    private final File headerFile;
+    private long generation;
+    private HistoryLog log;
+    // A history file no longer in use, deleted once a header without it is saved.
+    private File obsoleteHistory;
+
+    AccountStore(String path) {
+        this.headerFile = new File(path);
+    }
+
+    private File historyFile(long generation) {
+        return new File(headerFile.getPath() + ".history." + generation);
+    }
+
+    /**
+     * Returns the saved accounts, or null if nothing has been saved at this path yet.
+     */
+    AccountBook load() throws IOException {
+        if (!headerFile.exists()) {
+            return null;
+        }
+
+        try (BlockFileReader reader = new BlockFileReader(headerFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(reader.readAll()))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(headerFile + " is not an account store");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Unsupported account store version " + version);
+            }
+            generation = in.readLong();
+            if (version >= 4) {
+                log = new HistoryLog(historyFile(generation), in.readLong());
+                return readAccounts(in, null, version);
+            }
+            try (BlockFileReader legacyHistory = new BlockFileReader(historyFile(generation))) {
+                obsoleteHistory = historyFile(generation);
+                generation++;
+                log = new HistoryLog(historyFile(generation), 0);
+                return readAccounts(in, legacyHistory, version);
+            }
+        }
+    }
+
+    private AccountBook readAccounts(DataInputStream in, BlockFileReader legacyHistory, int version)
+            throws IOException {
+        int count = in.readInt();
+        AccountBook accounts = new AccountBook();
+        for (int i = 0; i < count; i++) {
+            accounts.put(BankAccount.readHeader(in, log, legacyHistory, version));
+        }
+        return accounts;
+    }
+
+    /**
+     * Must be called with the book write lock held.
+     */
+    void save(Collection<BankAccount> accounts) throws IOException {
+        List<BankAccount> saved = new ArrayList<>(accounts);
+        // A rewrite then reads the old log in file order.
+        saved.sort(Comparator.comparingLong(BankAccount::storedHistoryOffset));
+
+        HistoryLog target = log;
+        if (log == null || needsRewrite(saved)) {
+            target = new HistoryLog(historyFile(generation + 1), 0);
+        }
+        List<HistoryRef> histories = new ArrayList<>(saved.size());
+        try {
+            for (BankAccount account : saved) {
+                histories.add(account.saveHistory(target));
+            }
+            target.force();
+            writeHeader(saved, histories, target == log ? generation : generation + 1, target.length());
+        } catch (IOException | RuntimeException e) {
+            if (target != log) {
+                target.close();
+                Files.deleteIfExists(target.getPath().toPath());
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < saved.size(); i++) {
+            saved.get(i).historySaved(histories.get(i));
+        }
+        if (target != log) {
+            if (log != null) {
+                log.close();
+                Files.deleteIfExists(log.getPath().toPath());
+            }
+            log = target;
+            generation++;
+        }
+        if (obsoleteHistory != null) {
+            Files.deleteIfExists(obsoleteHistory.toPath());
+            obsoleteHistory = null;
+        }
+    }
+
+    private boolean needsRewrite(List<BankAccount> accounts) {
+        long length = log.length();
+        if (length < MIN_REWRITE_BYTES) {
+            return false;
+        }
+        long live = 0;
+        for (BankAccount account : accounts) {
+            live += account.storedHistoryBytes();
+        }
+        return live < length / 2;
+    }
+
+    private void writeHeader(List<BankAccount> saved, List<HistoryRef> histories, long headerGeneration,
+                             long logLength) throws IOException {
+        File tempHeader = new File(headerFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempHeader)) {
+            BlockOutputStream blocks = new BlockOutputStream(new BufferedOutputStream(file));
+            DataOutputStream out = new DataOutputStream(blocks);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(headerGeneration);
+            out.writeLong(logLength);
+            out.writeInt(saved.size());
+            for (int i = 0; i < saved.size(); i++) {
+                saved.get(i).writeHeader(out, histories.get(i));
+            }
+            blocks.finish();
+            file.getChannel().force(true);
+        }
+        Files.move(tempHeader.toPath(), headerFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+/**
+ * Byte-oriented LZ77 compressor in the style of LZ4: greedy matching through
+ * a hash of the next four bytes and no entropy stage, trading some ratio for
+ * speed. Used on independent blocks of at most 64 KiB.
+ *
+ * A compressed block is a run of sequences. Each starts with a token whose
+ * high nibble is the literal count and low nibble the match length minus 4,
+ * where 15 means extra length bytes follow, each adding up to 255. Then come
+ * the literals, a 2-byte little-endian match offset and the extra match
+ * length bytes. The last sequence carries literals only.
+ */
+final class LzCompressor {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // Matches stop this far from the end so the block always ends in literals.
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_LOG = 14;
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private LzCompressor() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[0, length)} into {@code dst}, which must hold
+     * {@link #maxCompressedLength(int)} bytes, and returns the compressed size.
+     */
+    static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+        int matchLimit = length - LAST_LITERALS;
+        int lastMatchStart = matchLimit - MIN_MATCH;
+        int anchor = 0;
+        int s = 0;
+        int d = 0;
+
+        while (s <= lastMatchStart) {
+            int sequence = (int) INTS.get(src, s);
+            int slot = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int candidate = table[slot];
+            table[slot] = s;
+            if (candidate < 0 || s - candidate > MAX_OFFSET || (int) INTS.get(src, candidate) != sequence) {
+                // Step faster through data that keeps failing to match.
+                s += 1 + ((s - anchor) >>> 6);
+                continue;
+            }
+
+            while (s > anchor && candidate > 0 && src[s - 1] == src[candidate - 1]) {
+                s--;
+                candidate--;
+            }
+            int matchLength = matchLength(src, candidate + MIN_MATCH, s + MIN_MATCH, matchLimit) + MIN_MATCH;
+
+            d = writeSequence(src, anchor, s - anchor, s - candidate, matchLength, dst, d);
+            s += matchLength;
+            anchor = s;
+        }
+
+        int literalLength = length - anchor;
+        dst[d++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15) {
+            d = writeLength(literalLength - 15, dst, d);
+        }
+        System.arraycopy(src, anchor, dst, d, literalLength);
+        return d + literalLength;
+    }
+
+    /**
+     * Decompresses {@code src[offset, offset + length)} into exactly
+     * {@code rawLength} bytes of {@code dst}.
+     */
+    static void decompress(byte[] src, int offset, int length, byte[] dst, int rawLength) throws IOException {
+        int end = offset + length;
+        int s = offset;
+        int d = 0;
+        try {
+            while (s < end) {
+                int token = src[s++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int extra;
+                    do {
+                        extra = src[s++] & 0xff;
+                        literalLength += extra;
+                    } while (extra == 255);
+                }
+                System.arraycopy(src, s, dst, d, literalLength);
+                s += literalLength;
+                d += literalLength;
+                if (s >= end) {
+                    break;
+                }
+
+                int matchOffset = (src[s++] & 0xff) | (src[s++] & 0xff) << 8;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int extra;
+                    do {
+                        extra = src[s++] & 0xff;
+                        matchLength += extra;
+                    } while (extra == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int from = d - matchOffset;
+                if (matchOffset == 0 || from < 0 || d + matchLength > rawLength) {
+                    throw new IOException("Corrupt compressed block");
+                }
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(dst, from, dst, d, matchLength);
+                } else {
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[d + i] = dst[from + i];
+                    }
+                }
+                d += matchLength;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed block", e);
+        }
+        if (d != rawLength) {
+            throw new IOException("Compressed block decoded to " + d + " bytes, expected " + rawLength);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                                     byte[] dst, int d) {
+        int matchCode = matchLength - MIN_MATCH;
+        dst[d++] = (byte) (Math.min(literalLength, 15) << 4 | Math.min(matchCode, 15));
+        if (literalLength >= 15) {
+            d = writeLength(literalLength - 15, dst, d);
+        }
+        System.arraycopy(src, literalStart, dst, d, literalLength);
+        d += literalLength;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        if (matchCode >= 15) {
+            d = writeLength(matchCode - 15, dst, d);
+        }
+        return d;
+    }
+
+    private static int writeLength(int remaining, byte[] dst, int d) {
+        while (remaining >= 255) {
+            dst[d++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[d++] = (byte) remaining;
+        return d;
+    }
+
+    /**
+     * Counts equal bytes from {@code earlier} and {@code current} onwards,
+     * eight at a time while a whole word fits before {@code limit}.
+     */
+    private static int matchLength(byte[] bytes, int earlier, int current, int limit) {
+        int start = current;
+        while (current + 8 <= limit) {
+            long difference = (long) LONGS.get(bytes, earlier) ^ (long) LONGS.get(bytes, current);
+            if (difference != 0) {
+                return current - start + (Long.numberOfTrailingZeros(difference) >>> 3);
+            }
+            earlier += 8;
+            current += 8;
+        }
+        while (current < limit && bytes[earlier] == bytes[current]) {
+            earlier++;
+            current++;
+        }
+        return current - start;
+    }
+}
+
+/**
+ * Writes the block-framed format used for the account store files. The data
+ * is cut into blocks of {@link #BLOCK_SIZE} bytes that are compressed and
+ * checksummed independently, so a reader can decompress them in parallel or
+ * decode just the one holding a given offset.
+ *
+ * Layout, all integers big-endian:
+ *   magic
+ *   per block: raw length, stored length, CRC32C of the raw bytes, stored bytes
+ *              (stored length equal to the raw length means stored uncompressed)
+ *   index: per block, file offset of its frame and logical offset of its first byte
+ *   trailer: logical length, index position, block count, magic
+ */
+final class BlockOutputStream extends OutputStream {
+    static final int MAGIC = 0x41544D5A;
+    static final int BLOCK_SIZE = 1 << 16;
+    static final int FRAME_HEADER_BYTES = 12;
+    static final int TRAILER_BYTES = 24;
+
+    private final DataOutputStream out;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] compressed = new byte[LzCompressor.maxCompressedLength(BLOCK_SIZE)];
+    private final CRC32C checksum = new CRC32C();
+    private int fill;
+    private long filePosition;
+    private long logicalPosition;
+    private long[] frameOffsets = new long[16];
+    private long[] logicalOffsets = new long[16];
+    private int blockCount;
+
+    BlockOutputStream(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        filePosition = 4;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (fill == BLOCK_SIZE) {
+            writeBlock();
+        }
+        block[fill++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (fill == BLOCK_SIZE) {
+                writeBlock();
+            }
+            int chunk = Math.min(length, BLOCK_SIZE - fill);
+            System.arraycopy(bytes, offset, block, fill, chunk);
+            fill += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockCount == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, blockCount * 2);
+            logicalOffsets = Arrays.copyOf(logicalOffsets, blockCount * 2);
+        }
+        frameOffsets[blockCount] = filePosition;
+        logicalOffsets[blockCount] = logicalPosition;
+        blockCount++;
+
+        filePosition += writeFrame(out, block, fill, compressed, checksum);
+        logicalPosition += fill;
+        fill = 0;
+    }
+
+    /**
+     * Writes one frame holding the first {@code length} bytes of {@code block},
+     * compressed unless that would not save space, and returns its size.
+     */
+    static int writeFrame(DataOutputStream out, byte[] block, int length, byte[] compressed, CRC32C checksum)
+            throws IOException {
+        checksum.reset();
+        checksum.update(block, 0, length);
+        int compressedLength = LzCompressor.compress(block, length, compressed);
+        boolean stored = compressedLength >= length;
+        int storedLength = stored ? length : compressedLength;
+
+        out.writeInt(length);
+        out.writeInt(storedLength);
+        out.writeInt((int) checksum.getValue());
+        out.write(stored ? block : compressed, 0, storedLength);
+        return FRAME_HEADER_BYTES + storedLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    /**
+     * Writes the last block and the index and flushes, leaving the
+     * underlying stream open, e.g. to force it to disk before closing.
+     */
+    void finish() throws IOException {
+        if (fill > 0) {
+            writeBlock();
+        }
+        long indexPosition = filePosition;
+        for (int i = 0; i < blockCount; i++) {
+            out.writeLong(frameOffsets[i]);
+            out.writeLong(logicalOffsets[i]);
+        }
+        out.writeLong(logicalPosition);
+        out.writeLong(indexPosition);
+        out.writeInt(blockCount);
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+}
+
+/**
+ * Random and bulk access to a file written by {@link BlockOutputStream}.
+ * Range reads decompress only the blocks they touch, keeping the last one
+ * for the next caller, and {@link #readAll()} decompresses every block in
+ * parallel. Files without the block magic, written before compression, are
+ * read as plain bytes. The file is opened on first use.
+ */
+final class BlockFileReader implements AutoCloseable {
+    private final File path;
+    private RandomAccessFile file;
+    // Null for plain files.
+    private long[] frameOffsets;
+    private long[] logicalOffsets;
+    private long logicalLength;
+    private int cachedBlock = -1;
+    private byte[] cachedBytes;
+
+    BlockFileReader(File path) {
+        this.path = path;
+    }
+
+    private void open() throws IOException {
+        if (file != null) {
+            return;
+        }
+        RandomAccessFile opened = new RandomAccessFile(path, "r");
+        try {
+            long fileLength = opened.length();
+            if (fileLength >= 4 + BlockOutputStream.TRAILER_BYTES && opened.readInt() == BlockOutputStream.MAGIC) {
+                opened.seek(fileLength - BlockOutputStream.TRAILER_BYTES);
+                long length = opened.readLong();
+                long indexPosition = opened.readLong();
+                int blockCount = opened.readInt();
+                if (opened.readInt() != BlockOutputStream.MAGIC) {
+                    throw new IOException(path + " has a damaged block index");
+                }
+                long[] frames = new long[blockCount];
+                long[] logical = new long[blockCount];
+                opened.seek(indexPosition);
+                for (int i = 0; i < blockCount; i++) {
+                    frames[i] = opened.readLong();
+                    logical[i] = opened.readLong();
+                }
+                frameOffsets = frames;
+                logicalOffsets = logical;
+                logicalLength = length;
+            } else {
+                logicalLength = fileLength;
+            }
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        file = opened;
+    }
+
+    /**
+     * Length of the uncompressed data.
+     */
+    synchronized long length() throws IOException {
+        open();
+        return logicalLength;
+    }
+
+    synchronized byte[] read(long offset, int length) throws IOException {
+        open();
+        if (offset < 0 || offset + length > logicalLength) {
+            throw new IOException("Range " + offset + "+" + length + " is outside " + path);
+        }
+        byte[] result = new byte[length];
+        if (frameOffsets == null) {
+            file.seek(offset);
+            file.readFully(result);
+            return result;
+        }
+
+        int index = Arrays.binarySearch(logicalOffsets, offset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        int copied = 0;
+        while (copied < length) {
+            byte[] raw = block(index);
+            int from = (int) (offset + copied - logicalOffsets[index]);
+            int chunk = Math.min(raw.length - from, length - copied);
+            System.arraycopy(raw, from, result, copied, chunk);
+            copied += chunk;
+            index++;
+        }
+        return result;
+    }
+
+    private byte[] block(int index) throws IOException {
+        if (index != cachedBlock) {
+            cachedBytes = decode(readFrame(index), 0);
+            cachedBlock = index;
+        }
+        return cachedBytes;
+    }
+
+    private byte[] readFrame(int index) throws IOException {
+        file.seek(frameOffsets[index]);
+        int rawLength = file.readInt();
+        int storedLength = file.readInt();
+        if (rawLength < 0 || rawLength > BlockOutputStream.BLOCK_SIZE || storedLength < 0 || storedLength > rawLength) {
+            throw new IOException(path + " has a damaged frame at block " + index);
+        }
+        byte[] frame = new byte[BlockOutputStream.FRAME_HEADER_BYTES + storedLength];
+        file.seek(frameOffsets[index]);
+        file.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Decompresses the frame starting at {@code offset} and checks its checksum.
+     */
+    static byte[] decode(byte[] frames, int offset) throws IOException {
+        if (frames.length - offset < BlockOutputStream.FRAME_HEADER_BYTES) {
+            throw new IOException("Truncated frame header");
+        }
+        ByteBuffer header = ByteBuffer.wrap(frames, offset, BlockOutputStream.FRAME_HEADER_BYTES);
+        int rawLength = header.getInt();
+        int storedLength = header.getInt();
+        int expectedChecksum = header.getInt();
+        int data = offset + BlockOutputStream.FRAME_HEADER_BYTES;
+        if (rawLength < 0 || rawLength > BlockOutputStream.BLOCK_SIZE || storedLength < 0 || storedLength > rawLength
+                || storedLength > frames.length - data) {
+            throw new IOException("Damaged frame header");
+        }
+
+        byte[] raw;
+        if (storedLength == rawLength) {
+            raw = Arrays.copyOfRange(frames, data, data + storedLength);
+        } else {
+            raw = new byte[rawLength];
+            LzCompressor.decompress(frames, data, storedLength, raw, rawLength);
+        }
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(raw, 0, raw.length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new IOException("Checksum mismatch in compressed block");
+        }
+        return raw;
+    }
+
+    /**
+     * Reads the compressed frames in order and decompresses them all at once
+     * on the common pool.
+     */
+    InputStream readAll() throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        synchronized (this) {
+            open();
+            if (frameOffsets == null) {
+                byte[] bytes = new byte[(int) logicalLength];
+                file.seek(0);
+                file.readFully(bytes);
+                return new ByteArrayInputStream(bytes);
+            }
+            for (int i = 0; i < frameOffsets.length; i++) {
+                frames.add(readFrame(i));
+            }
+        }
+
+        List<Callable<byte[]>> tasks = new ArrayList<>(frames.size());
+        for (byte[] frame : frames) {
+            tasks.add(() -> decode(frame, 0));
+        }
+        List<InputStream> blocks = new ArrayList<>(frames.size());
+        try {
+            for (Future<byte[]> block : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                blocks.add(new ByteArrayInputStream(block.get()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing " + path);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return new SequenceInputStream(Collections.enumeration(blocks));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            cachedBlock = -1;
+            cachedBytes = null;
+        }
+    }
+}
+
+/**
+ * Measures the compressed account store on a synthetic book: file sizes and
+ * compression ratio, full and incremental save times, load times, random access to single account
+ * histories, and the block compressor's throughput next to {@link Deflater}
+ * on the same 64 KiB blocks.
+ *
+ * Usage: java StoreCompressionBenchmark [accounts] [transactionsPerAccount]
+ */
+class StoreCompressionBenchmark {
+    private static final long[] WITHDRAWAL_CENTS = {2000, 4000, 6000, 10000, 20000};
+
+    public static void main(String[] args) throws IOException {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int perAccount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path directory = Files.createTempDirectory("atm-store-benchmark");
+        String path = directory.resolve("accounts.dat").toString();
+        Random random = new Random(42);
+
+        try {
+            System.out.println("Synthetic book: " + accountCount + " accounts x " + perAccount + " transactions");
+            List<BankAccount> book = buildBook(accountCount, perAccount, random);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            DataOutputStream encoder = new DataOutputStream(encoded);
+            for (BankAccount account : book) {
+                for (Transaction transaction : account.getTransactionHistory()) {
+                    transaction.writeTo(encoder);
+                }
+            }
+            byte[] rawHistory = encoded.toByteArray();
+
+            AccountStore store = new AccountStore(path);
+            long start = System.nanoTime();
+            store.save(book);
+            System.out.printf("First save         %8.1f ms%n", millisSince(start));
+            int changed = Math.min(100, book.size());
+            for (int round = 1; round <= 3; round++) {
+                for (int i = 0; i < changed; i++) {
+                    BankAccount account = book.get(random.nextInt(book.size()));
+                    Transaction deposit = new Transaction(Transaction.Type.DEPOSIT, 2500,
+                            account.getAccountNumber(), null, new Date());
+                    account.replicateTransaction(deposit);
+                    deposit.writeTo(encoder);
+                }
+                start = System.nanoTime();
+                store.save(book);
+                System.out.printf("Save %d             %8.1f ms  (%d accounts changed)%n",
+                        round, millisSince(start), changed);
+            }
+
+            File headerFile = new File(path);
+            File historyFile = null;
+            for (File file : directory.toFile().listFiles()) {
+                if (file.getName().startsWith("accounts.dat.history.")) {
+                    historyFile = file;
+                }
+            }
+            try (BlockFileReader header = new BlockFileReader(headerFile)) {
+                reportSize("Header file", header.length(), headerFile.length());
+            }
+            reportSize("History log", encoded.size(), historyFile.length());
+
+            AccountBook loaded = null;
+            for (int round = 1; round <= 3; round++) {
+                start = System.nanoTime();
+                loaded = new AccountStore(path).load();
+                System.out.printf("Load %d             %8.1f ms  (%d accounts, histories not decoded)%n",
+                        round, millisSince(start), loaded.size());
+            }
+
+            List<BankAccount> accounts = new ArrayList<>(loaded.values());
+            int lookups = Math.min(1000, accounts.size());
+            start = System.nanoTime();
+            int transactions = 0;
+            for (int i = 0; i < lookups; i++) {
+                transactions += accounts.get(random.nextInt(accounts.size())).getTransactionHistory().size();
+            }
+            System.out.printf("Random history     %8.1f us/account  (%d transactions decoded)%n",
+                    (System.nanoTime() - start) / 1000.0 / lookups, transactions);
+
+            System.out.println("\nBlock compressors on " + rawHistory.length + " bytes of history:");
+            for (int round = 0; round < 3; round++) {
+                compareLz(rawHistory);
+                compareDeflater("Deflater fastest", rawHistory, Deflater.BEST_SPEED);
+                compareDeflater("Deflater default", rawHistory, Deflater.DEFAULT_COMPRESSION);
+            }
+        } finally {
+            for (File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            directory.toFile().delete();
+        }
+    }
+
+    /**
+     * Accounts with a monthly salary, cash withdrawals in round amounts and
+     * transfers to a few regular payees, spread over two years.
+     */
+    private static List<BankAccount> buildBook(int accountCount, int perAccount, Random random) {
+        List<BankAccount> book = new ArrayList<>(accountCount);
+        long end = System.currentTimeMillis();
+        long span = TimeUnit.DAYS.toMillis(730);
+        for (int i = 0; i < accountCount; i++) {
+            String accountNumber = String.valueOf(100_000 + i);
+            BankAccount account = new BankAccount(accountNumber, "Customer " + i, "1234", Money.ofDollars(1000));
+            long salary = Money.ofDollars(2000 + random.nextInt(40) * 100);
+            String[] payees = new String[3];
+            for (int p = 0; p < payees.length; p++) {
+                payees[p] = String.valueOf(100_000 + random.nextInt(accountCount));
+            }
+
+            long time = end - span;
+            long meanGap = span / Math.max(1, perAccount);
+            for (int t = 0; t < perAccount; t++) {
+                time += (long) (random.nextDouble() * 2 * meanGap);
+                int kind = random.nextInt(100);
+                Transaction transaction;
+                if (kind < 20) {
+                    transaction = new Transaction(Transaction.Type.DEPOSIT, salary, accountNumber, null, new Date(time));
+                } else if (kind < 65) {
+                    long amount = WITHDRAWAL_CENTS[random.nextInt(WITHDRAWAL_CENTS.length)];
+                    transaction = new Transaction(Transaction.Type.WITHDRAWAL, amount, accountNumber, null,
+                            new Date(time));
+                } else {
+                    long amount = 500 + random.nextInt(50_000);
+                    transaction = new Transaction(Transaction.Type.TRANSFER, amount, accountNumber,
+                            payees[random.nextInt(payees.length)], new Date(time));
+                }
+                account.replicateTransaction(transaction);
+            }
+            book.add(account);
+        }
+        return book;
+    }
+
+    private static void compareLz(byte[] raw) throws IOException {
+        byte[] buffer = new byte[LzCompressor.maxCompressedLength(BlockOutputStream.BLOCK_SIZE)];
+        List<byte[]> blocks = new ArrayList<>();
+        long start = System.nanoTime();
+        long compressedBytes = 0;
+        for (int offset = 0; offset < raw.length; offset += BlockOutputStream.BLOCK_SIZE) {
+            int length = Math.min(BlockOutputStream.BLOCK_SIZE, raw.length - offset);
+            byte[] block = Arrays.copyOfRange(raw, offset, offset + length);
+            int compressed = LzCompressor.compress(block, length, buffer);
+            blocks.add(Arrays.copyOf(buffer, compressed));
+            compressedBytes += compressed;
+        }
+        long compressNanos = System.nanoTime() - start;
+
+        byte[] output = new byte[BlockOutputStream.BLOCK_SIZE];
+        start = System.nanoTime();
+        for (int i = 0; i < blocks.size(); i++) {
+            int length = Math.min(BlockOutputStream.BLOCK_SIZE, raw.length - i * BlockOutputStream.BLOCK_SIZE);
+            LzCompressor.decompress(blocks.get(i), 0, blocks.get(i).length, output, length);
+        }
+        report("LzCompressor", raw.length, compressedBytes, compressNanos, System.nanoTime() - start);
+    }
+
+    private static void compareDeflater(String name, byte[] raw, int level) throws IOException {
+        Deflater deflater = new Deflater(level);
+        Inflater inflater = new Inflater();
+        byte[] buffer = new byte[2 * BlockOutputStream.BLOCK_SIZE];
+        List<byte[]> blocks = new ArrayList<>();
+        long start = System.nanoTime();
+        long compressedBytes = 0;
+        for (int offset = 0; offset < raw.length; offset += BlockOutputStream.BLOCK_SIZE) {
+            deflater.reset();
+            deflater.setInput(raw, offset, Math.min(BlockOutputStream.BLOCK_SIZE, raw.length - offset));
+            deflater.finish();
+            int compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer, compressed, buffer.length - compressed);
+            }
+            blocks.add(Arrays.copyOf(buffer, compressed));
+            compressedBytes += compressed;
+        }
+        long compressNanos = System.nanoTime() - start;
+
+        byte[] output = new byte[BlockOutputStream.BLOCK_SIZE];
+        start = System.nanoTime();
+        try {
+            for (byte[] block : blocks) {
+                inflater.reset();
+                inflater.setInput(block);
+                while (!inflater.finished()) {
+                    inflater.inflate(output);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        report(name, raw.length, compressedBytes, compressNanos, System.nanoTime() - start);
+        deflater.end();
+        inflater.end();
+    }
+
+    private static void report(String name, long rawBytes, long compressedBytes, long compressNanos,
+                               long decompressNanos) {
+        System.out.printf("%-18s ratio %5.2fx  compress %7.1f MB/s  decompress %7.1f MB/s%n", name,
+                rawBytes / (double) compressedBytes, rawBytes * 1000.0 / compressNanos,
+                rawBytes * 1000.0 / decompressNanos);
+    }
+
+    private static void reportSize(String name, long rawBytes, long fileBytes) {
+        System.out.printf("%-18s %,12d bytes raw  %,12d on disk  (%.2fx)%n", name, rawBytes, fileBytes,
+                rawBytes / (double) fileBytes);
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+}
+
+/**
+ * One committed transaction as seen by feed consumers. Offsets are dense and
+ * increase in commit order across all accounts.
+ */
+final class TransactionEvent {
+    private final long offset;
+    private final String accountNumber;
+    private final Transaction transaction;
+    private final long balanceAfter;
+
+    TransactionEvent(long offset, String accountNumber, Transaction transaction, long balanceAfter) {
+        this.offset = offset;
+        this.accountNumber = accountNumber;
+        this.transaction = transaction;
+        this.balanceAfter = balanceAfter;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public long getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    /**
+     * Tab separated feed line: offset, epoch millis, account, type, amount,
+     * counterparty (or "-") and balance after the transaction.
+     */
+    public String toFeedLine() {
+        String counterparty = transaction.getTargetAccountNumber();
+        return offset + "\t" + transaction.getTimestamp().getTime() + "\t" + accountNumber + "\t"
+                + transaction.getType() + "\t" + Money.format(transaction.getAmount()) + "\t"
+                + (counterparty == null ? "-" : counterparty) + "\t" + Money.format(balanceAfter);
+    }
+}
+
+/**
+ * In-process change-data-capture stream of committed transactions. Each
+ * subscriber gets its own bounded buffer; once a subscriber falls a full
+ * buffer behind, committing threads block until it catches up.
+ */
+class TransactionEventBus implements AccountListener, AutoCloseable {
+    static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+    private final ExecutorService executor;
+    private final SubmissionPublisher<TransactionEvent> publisher;
+    private long nextOffset;
+
+    public TransactionEventBus(long firstOffset) {
+        this(firstOffset, DEFAULT_BUFFER_CAPACITY);
+    }
+
+    public TransactionEventBus(long firstOffset, int bufferCapacity) {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.nextOffset = firstOffset;
+    }
+
+    public void subscribe(Flow.Subscriber<? super TransactionEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Synchronized so offsets are handed out and submitted in one step,
+     * keeping every subscriber's view in offset order.
+     */
+    @Override
+    public synchronized void transactionCommitted(BankAccount account, Transaction transaction) {
+        TransactionEvent event = new TransactionEvent(nextOffset++, account.getAccountNumber(), transaction,
+                account.getSnapshot().getBalance());
+        publisher.submit(event);
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+        executor.shutdown();
+    }
+}
+
+/**
+ * Durable subscriber that appends every event to a local feed file, one
+ * line per event. Events at or below the last offset already in the file
+ * are skipped, so restarts never duplicate lines. A last line without its
+ * newline is left from a crash mid-write; readers ignore it and the writer
+ * cuts it off before appending.
+ *
+ * A failed write stops the writer rather than skipping the event: it cancels
+ * its subscription and cuts the file back to the last complete line, so the
+ * feed never has a gap. The next start numbers events on from there.
+ */
+class TransactionFeedWriter implements Flow.Subscriber<TransactionEvent> {
+    private static final int REQUEST_BATCH = 64;
+
+    private final String feedFile;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private BufferedWriter writer;
+    private Flow.Subscription subscription;
+    private long lastWrittenOffset;
+    private int outstanding;
+
+    public TransactionFeedWriter(String feedFile) {
+        this.feedFile = feedFile;
+        this.lastWrittenOffset = lastOffset(feedFile);
+    }
+
+    /**
+     * Returns the offset of the last complete line in the feed file, or -1
+     * when the feed is empty. Only the tail of the file is read.
+     */
+    public static long lastOffset(String feedFile) {
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "r")) {
+            long length = completeLength(file);
+            long start = Math.max(0, length - 4096);
+            byte[] tail = new byte[(int) (length - start)];
+            file.seek(start);
+            file.readFully(tail);
+
+            String[] lines = new String(tail, StandardCharsets.UTF_8).split("\n");
+            // A tail that starts mid-file starts mid-line too.
+            for (int i = lines.length - 1; i >= (start > 0 ? 1 : 0); i--) {
+                Long offset = parseOffset(lines[i]);
+                if (offset != null) {
+                    return offset;
+                }
+            }
+        } catch (IOException e) {
+            // Missing or unreadable feed: start from the beginning.
+        }
+        return -1;
+    }
+
+    /**
+     * Replays feed lines with an offset greater than {@code afterOffset} and
+     * returns the offset of the last line delivered, so a consumer can
+     * resume from there next time. Stops at the first line whose offset does
+     * not parse, and never reads a last line that is still missing its
+     * newline.
+     */
+    public static long readFrom(String feedFile, long afterOffset, Consumer<String> consumer) throws IOException {
+        long last = afterOffset;
+        long length;
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "r")) {
+            length = completeLength(file);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(feedFile))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (long position = 0; position < length; position++) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                if (b != '\n') {
+                    bytes.write(b);
+                    continue;
+                }
+                String line = bytes.toString(StandardCharsets.UTF_8);
+                bytes.reset();
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                if (line.indexOf('\t') <= 0) {
+                    continue;
+                }
+                Long offset = parseOffset(line);
+                if (offset == null) {
+                    break;
+                }
+                if (offset > afterOffset) {
+                    consumer.accept(line);
+                    last = offset;
+                }
+            }
+        }
+        return last;
+    }
+
+    private static Long parseOffset(String line) {
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+            return null;
+        }
+        try {
+            return Long.parseLong(line.substring(0, tab));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Length of the file up to and including its last newline.
+     */
+    private static long completeLength(RandomAccessFile file) throws IOException {
+        byte[] chunk = new byte[4096];
+        long end = file.length();
+        while (end > 0) {
+            int size = (int) Math.min(chunk.length, end);
+            file.seek(end - size);
+            file.readFully(chunk, 0, size);
+            for (int i = size - 1; i >= 0; i--) {
+                if (chunk[i] == '\n') {
+                    return end - size + i + 1;
+                }
+            }
+            end -= size;
+        }
+        return 0;
+    }
+
+    public long getLastWrittenOffset() {
+        return lastWrittenOffset;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        try {
+            trimPartialLine();
+            writer = new BufferedWriter(new FileWriter(feedFile, StandardCharsets.UTF_8, true));
+        } catch (IOException e) {
+            System.err.println("Error opening transaction feed: " + e.getMessage());
+            subscription.cancel();
+            closed.countDown();
+            return;
+        }
+        this.subscription = subscription;
+        outstanding = REQUEST_BATCH;
+        subscription.request(REQUEST_BATCH);
+    }
+
+    @Override
+    public void onNext(TransactionEvent event) {
+        if (writer == null) {
+            // Stopped by a failed write; events already in flight go no further.
+            return;
+        }
+        try {
+            if (event.getOffset() > lastWrittenOffset) {
+                writer.write(event.toFeedLine());
+                writer.newLine();
+                writer.flush();
+                lastWrittenOffset = event.getOffset();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing transaction feed, stopping after offset " + lastWrittenOffset + ": "
+                    + e.getMessage());
+            stopAfterFailedWrite();
+            return;
+        }
+
+        if (--outstanding == REQUEST_BATCH / 2) {
+            outstanding += REQUEST_BATCH / 2;
+            subscription.request(REQUEST_BATCH / 2);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Transaction feed failed: " + throwable.getMessage());
+        closeWriter();
+    }
+
+    @Override
+    public void onComplete() {
+        closeWriter();
+    }
+
+    /**
+     * Waits for buffered events to reach the file after the bus is closed.
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    private void stopAfterFailedWrite() {
+        subscription.cancel();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // Whatever part of the line got out is cut off below.
+        }
+        writer = null;
+        try {
+            trimPartialLine();
+        } catch (IOException e) {
+            System.err.println("Error trimming transaction feed: " + e.getMessage());
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    /** Cuts off a last line that is missing its newline. */
+    private void trimPartialLine() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(feedFile, "rw")) {
+            file.setLength(completeLength(file));
+        }
+    }
+
+    private void closeWriter() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing transaction feed: " + e.getMessage());
+        } finally {
+            closed.countDown();
+        }
+    }
+}
+
+/**
+ * Runs standing orders when they fall due. Orders are indexed by next due
+ * time in a heap; each tick drains the due ones in batches, runs each batch
+ * on a worker pool and, once nothing is due, calls {@code afterRun} so the
+ * whole run is saved at once. A crash before that save loses the run's
+ * transfers and the orders' advances together, so the next start runs them
+ * again rather than twice.
+ *
+ * Occurrences missed while the ATM was down are caught up straight away:
+ * an order that is still due after running goes back on the heap and runs
+ * again in the same tick, once per missed occurrence, oldest first.
+ */
+class StandingOrderEngine implements AutoCloseable {
+    private static final int BATCH_SIZE = 1024;
+    private static final long TICK_MILLIS = 1000;
+
+    private final Function<String, BankAccount> accountLookup;
+    private final ReadWriteLock bookLock;
+    private final Runnable afterRun;
+    private final PriorityQueue<StandingOrder> dueQueue =
+            new PriorityQueue<>(Comparator.comparingLong(StandingOrder::getNextDueMillis));
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final int workerCount;
+
+    public StandingOrderEngine(Function<String, BankAccount> accountLookup, ReadWriteLock bookLock,
+                               Runnable afterRun) {
+        this.accountLookup = accountLookup;
+        this.bookLock = bookLock;
+        this.afterRun = afterRun;
+        this.workerCount = Runtime.getRuntime().availableProcessors();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "standing-orders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "standing-order-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void schedule(StandingOrder order) {
+        if (order.isActive()) {
+            dueQueue.add(order);
+        }
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runDueOrders, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized List<StandingOrder> pollDue(long now) {
+        List<StandingOrder> batch = new ArrayList<>();
+        while (batch.size() < BATCH_SIZE && !dueQueue.isEmpty() && dueQueue.peek().getNextDueMillis() <= now) {
+            StandingOrder order = dueQueue.poll();
+            if (order.isActive()) {
+                batch.add(order);
+            }
+        }
+        return batch;
+    }
+
+    void runDueOrders() {
+        boolean ran = false;
+        try {
+            List<StandingOrder> batch;
+            while (!(batch = pollDue(System.currentTimeMillis())).isEmpty()) {
+                ran = true;
+                try {
+                    runBatch(batch);
+                } finally {
+                    for (StandingOrder order : batch) {
+                        schedule(order);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | ExecutionException e) {
+            System.err.println("Standing order batch failed: " + e.getMessage());
+        } finally {
+            if (ran) {
+                afterRun.run();
+            }
+        }
+    }
+
+    /**
+     * Splits the batch by source account so orders on the same account run
+     * on the same worker and do not contend for its lock.
+     */
+    private void runBatch(List<StandingOrder> batch) throws InterruptedException, ExecutionException {
+        List<List<StandingOrder>> partitions = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (StandingOrder order : batch) {
+            int partition = Math.floorMod(order.getSourceAccountNumber().hashCode(), workerCount);
+            partitions.get(partition).add(order);
+        }
+
+        long now = System.currentTimeMillis();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<StandingOrder> partition : partitions) {
+            if (!partition.isEmpty()) {
+                tasks.add(() -> {
+                    for (StandingOrder order : partition) {
+                        execute(order, now);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        for (Future<Void> future : workers.invokeAll(tasks)) {
+            future.get();
+        }
+    }
+
+    private void execute(StandingOrder order, long now) {
+        BankAccount source = accountLookup.apply(order.getSourceAccountNumber());
+        if (source == null) {
+            order.cancel();
+            return;
+        }
+
+        bookLock.readLock().lock();
+        try {
+            source.executeStandingOrder(order, accountLookup.apply(order.getTargetAccountNumber()), now);
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+}
+
+/**
+ * Keeps live histories bounded. Once a day, transactions from whole months
+ * older than the horizon are rolled into per-month summaries on each
+ * account, the detailed records are appended to the archive file if one is
+ * configured, and the book is saved.
+ *
+ * Archive lines are tab separated: account, epoch millis, type, amount and
+ * counterparty (or "-"). An account's records are appended and forced to
+ * disk before the account drops them, so no save can lose them: a crash
+ * before the compacted book is saved archives them twice at worst. If the
+ * archive cannot be written, the run stops and that account and the ones
+ * after it stay uncompacted until the next run.
+ */
+class HistoryCompactor implements AutoCloseable {
+    private static final long INTERVAL_HOURS = 24;
+
+    private final Supplier<Collection<BankAccount>> accounts;
+    private final ReadWriteLock bookLock;
+    private final int horizonMonths;
+    private final String archiveFile;
+    private final Runnable afterCompaction;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param archiveFile file to append compacted records to, or null to discard them
+     */
+    public HistoryCompactor(Supplier<Collection<BankAccount>> accounts, ReadWriteLock bookLock, int horizonMonths,
+                            String archiveFile, Runnable afterCompaction) {
+        this.accounts = accounts;
+        this.bookLock = bookLock;
+        this.horizonMonths = horizonMonths;
+        this.archiveFile = archiveFile;
+        this.afterCompaction = afterCompaction;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::compact, 0, INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    void compact() {
+        long cutoffDay = YearMonth.now().minusMonths(horizonMonths).atDay(1).toEpochDay();
+        int compactedCount = 0;
+        try (FileOutputStream file = archiveFile == null ? null : new FileOutputStream(archiveFile, true)) {
+            BufferedWriter archive = file == null ? null
+                    : new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8));
+            for (BankAccount account : accounts.get()) {
+                List<Transaction> compactable;
+                bookLock.readLock().lock();
+                try {
+                    compactable = account.compactableHistoryBefore(cutoffDay);
+                } finally {
+                    bookLock.readLock().unlock();
+                }
+                if (compactable.isEmpty()) {
+                    continue;
+                }
+
+                if (archive != null && !archive(file, archive, account.getAccountNumber(), compactable)) {
+                    break;
+                }
+                bookLock.readLock().lock();
+                try {
+                    if (account.compactHistoryBefore(cutoffDay, compactable.size())) {
+                        compactedCount += compactable.size();
+                    }
+                } finally {
+                    bookLock.readLock().unlock();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("History compaction failed: " + e.getMessage());
+        }
+
+        if (compactedCount > 0) {
+            afterCompaction.run();
+        }
+    }
+
+    /**
+     * Appends the records and forces them to disk. On failure, cuts the file
+     * back to where it was so no partial line is left, and returns false.
+     */
+    private static boolean archive(FileOutputStream file, BufferedWriter archive, String accountNumber,
+                                   List<Transaction> records) throws IOException {
+        long start = file.getChannel().size();
+        try {
+            for (Transaction transaction : records) {
+                archive.write(archiveLine(accountNumber, transaction));
+                archive.newLine();
+            }
+            archive.flush();
+            file.getChannel().force(false);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Cannot archive history of account " + accountNumber + ", compaction stopped: "
+                    + e.getMessage());
+            file.getChannel().truncate(start);
+            return false;
+        }
+    }
+
+    private static String archiveLine(String accountNumber, Transaction transaction) {
+        String counterparty = transaction.getTargetAccountNumber();
+        StringBuilder line = new StringBuilder(64)
+                .append(accountNumber).append('\t')
+                .append(transaction.getTimestamp().getTime()).append('\t')
+                .append(transaction.getType()).append('\t');
+        Money.appendTo(line, transaction.getAmount()).append('\t')
+                .append(counterparty == null ? "-" : counterparty);
+        return line.toString();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/**
+ * Settles a batch of transfers by netting. Net positions are computed in
+ * parallel over chunks of the batch, a payer whose net position would
+ * overdraw it has its latest transfers rejected until it is covered, and
+ * every touched account is then locked once to post its entries and move
+ * its balance by the net amount. Each transfer still leaves its usual
+ * debit and credit entries in the histories and the feed, but the batch
+ * costs one lock acquisition per account instead of two per transfer, and
+ * one save instead of one per transfer.
+ *
+ * The whole settlement runs under the book write lock, so balances cannot
+ * move between the funds check and the posting. Feed events of a settled
+ * batch all carry the account's balance after the batch.
+ */
+class NettingSettlement {
+    private static final int MIN_CHUNK = 4096;
+
+    static final class Instruction {
+        final String sourceAccountNumber;
+        final String targetAccountNumber;
+        final long amountCents;
+
+        Instruction(String sourceAccountNumber, String targetAccountNumber, long amountCents) {
+            this.sourceAccountNumber = sourceAccountNumber;
+            this.targetAccountNumber = targetAccountNumber;
+            this.amountCents = amountCents;
+        }
+
+        @Override
+        public String toString() {
+            return sourceAccountNumber + " -> " + targetAccountNumber + " $" + Money.format(amountCents);
+        }
+    }
+
+    static final class Result {
+        final int settled;
+        final int accountsPosted;
+        final Map<Instruction, String> rejected;
+
+        Result(int settled, int accountsPosted, Map<Instruction, String> rejected) {
+            this.settled = settled;
+            this.accountsPosted = accountsPosted;
+            this.rejected = rejected;
+        }
+    }
+
+    private final Function<String, BankAccount> accountLookup;
+    private final ReadWriteLock bookLock;
+
+    NettingSettlement(Function<String, BankAccount> accountLookup, ReadWriteLock bookLock) {
+        this.accountLookup = accountLookup;
+        this.bookLock = bookLock;
+    }
+
+    Result settle(List<Instruction> batch) throws InterruptedException {
+        Map<Instruction, String> rejected = new LinkedHashMap<>();
+        List<Instruction> accepted = new ArrayList<>(batch.size());
+        int[] sources = new int[batch.size()];
+        int[] targets = new int[batch.size()];
+        long[] amounts = new long[batch.size()];
+        BankAccount[] accounts = new BankAccount[16];
+        for (Instruction instruction : batch) {
+            String problem = validate(instruction);
+            BankAccount source = accountLookup.apply(instruction.sourceAccountNumber);
+            BankAccount target = accountLookup.apply(instruction.targetAccountNumber);
+            if (problem == null && source == null) {
+                problem = "unknown source account";
+            } else if (problem == null && target == null) {
+                problem = "unknown target account";
+            }
+            if (problem != null) {
+                rejected.put(instruction, problem);
+                continue;
+            }
+            int highest = Math.max(source.getId(), target.getId());
+            if (highest >= accounts.length) {
+                accounts = Arrays.copyOf(accounts, Math.max(highest + 1, accounts.length * 2));
+            }
+            accounts[source.getId()] = source;
+            accounts[target.getId()] = target;
+            sources[accepted.size()] = source.getId();
+            targets[accepted.size()] = target.getId();
+            amounts[accepted.size()] = instruction.amountCents;
+            accepted.add(instruction);
+        }
+
+        bookLock.writeLock().lock();
+        try {
+            long[] positions;
+            while (true) {
+                positions = netPositions(accepted.size(), sources, targets, amounts, accounts.length);
+                long[] shortfalls = new long[accounts.length];
+                boolean overdrawn = false;
+                for (int id = 0; id < accounts.length; id++) {
+                    if (accounts[id] != null) {
+                        long after = Money.add(accounts[id].getSnapshot().getBalance(), positions[id]);
+                        if (after < 0) {
+                            shortfalls[id] = -after;
+                            overdrawn = true;
+                        }
+                    }
+                }
+                if (!overdrawn) {
+                    break;
+                }
+                // Reject each overdrawn payer's latest transfers until the
+                // shortfall is covered. That can take credits away from
+                // others, so check again until every position is covered.
+                boolean[] dropped = new boolean[accepted.size()];
+                for (int i = accepted.size() - 1; i >= 0; i--) {
+                    if (shortfalls[sources[i]] > 0) {
+                        shortfalls[sources[i]] -= amounts[i];
+                        dropped[i] = true;
+                        rejected.put(accepted.get(i), "insufficient funds after netting");
+                    }
+                }
+                List<Instruction> remaining = new ArrayList<>(accepted.size());
+                for (int i = 0; i < accepted.size(); i++) {
+                    if (!dropped[i]) {
+                        sources[remaining.size()] = sources[i];
+                        targets[remaining.size()] = targets[i];
+                        amounts[remaining.size()] = amounts[i];
+                        remaining.add(accepted.get(i));
+                    }
+                }
+                accepted = remaining;
+            }
+
+            int accountsPosted = post(accepted.size(), sources, targets, amounts, accounts, positions);
+            return new Result(accepted.size(), accountsPosted, rejected);
+        } finally {
+            bookLock.writeLock().unlock();
+        }
+    }
+
+    private static String validate(Instruction instruction) {
+        if (instruction.amountCents <= 0) {
+            return "amount must be positive";
+        }
+        if (instruction.sourceAccountNumber.equals(instruction.targetAccountNumber)) {
+            return "source and target are the same account";
+        }
+        return null;
+    }
+
+    /**
+     * Net change in cents per account id. Each chunk of the batch is summed
+     * into its own array on its own worker and the arrays are added up
+     * afterwards.
+     */
+    private static long[] netPositions(int count, int[] sources, int[] targets, long[] amounts, int idLimit)
+            throws InterruptedException {
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), count / MIN_CHUNK));
+        int chunkSize = Math.max(1, (count + chunks - 1) / chunks);
+        List<Callable<long[]>> tasks = new ArrayList<>(chunks);
+        for (int start = 0; start < count; start += chunkSize) {
+            int from = start;
+            int to = Math.min(count, start + chunkSize);
+            tasks.add(() -> {
+                long[] partial = new long[idLimit];
+                for (int i = from; i < to; i++) {
+                    partial[sources[i]] = Money.subtract(partial[sources[i]], amounts[i]);
+                    partial[targets[i]] = Money.add(partial[targets[i]], amounts[i]);
+                }
+                return partial;
+            });
+        }
+
+        long[] positions = new long[idLimit];
+        for (long[] partial : invokeAll(tasks)) {
+            for (int id = 0; id < idLimit; id++) {
+                if (partial[id] != 0) {
+                    positions[id] = Money.add(positions[id], partial[id]);
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Builds each account's entries in batch order and posts the accounts in
+     * parallel, one monitor acquisition each. Returns the number of accounts
+     * posted.
+     */
+    private static int post(int count, int[] sources, int[] targets, long[] amounts, BankAccount[] accounts,
+                            long[] positions) throws InterruptedException {
+        Date settledAt = new Date();
+        List<List<Transaction>> entries = new ArrayList<>(Collections.nCopies(accounts.length, null));
+        for (int i = 0; i < count; i++) {
+            entriesOf(entries, sources[i]).add(new Transaction(
+                    Transaction.Type.TRANSFER, amounts[i], sources[i], targets[i], settledAt));
+            entriesOf(entries, targets[i]).add(new Transaction(
+                    Transaction.Type.DEPOSIT, amounts[i], targets[i], sources[i], settledAt));
+        }
+
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        int posted = 0;
+        for (List<Transaction> list : entries) {
+            if (list != null) {
+                posted++;
+            }
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            int first = worker;
+            tasks.add(() -> {
+                for (int id = first; id < accounts.length; id += workers) {
+                    if (entries.get(id) != null) {
+                        accounts[id].postSettlement(entries.get(id), positions[id]);
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        return posted;
+    }
+
+    private static List<Transaction> entriesOf(List<List<Transaction>> entries, int id) {
+        List<Transaction> list = entries.get(id);
+        if (list == null) {
+            list = new ArrayList<>();
+            entries.set(id, list);
+        }
+        return list;
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws InterruptedException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+}
+
+/**
+ * Compares posting a dense batch of transfers one by one, the way the ATM
+ * menu does, with settling it through {@link NettingSettlement}. Both sides
+ * save the book to a real {@link AccountStore}: the menu after every
+ * transfer, the settlement once.
+ *
+ * Usage: java SettlementBenchmark [accounts] [transfers]
+ */
+class SettlementBenchmark {
+    // Saving after every transfer of a large batch takes too long to run in
+    // full, so that side is timed over this many saves and projected.
+    private static final int SAMPLED_SAVES = 500;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int transferCount = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        Random random = new Random(7);
+        List<NettingSettlement.Instruction> batch = new ArrayList<>(transferCount);
+        for (int i = 0; i < transferCount; i++) {
+            int source = random.nextInt(accountCount);
+            int target = (source + 1 + random.nextInt(accountCount - 1)) % accountCount;
+            batch.add(new NettingSettlement.Instruction(String.valueOf(100_000 + source),
+                    String.valueOf(100_000 + target), 100 + random.nextInt(100_000)));
+        }
+        System.out.println("Settlement benchmark: " + transferCount + " transfers between " + accountCount
+                + " accounts");
+        Path directory = Files.createTempDirectory("atm-settlement-benchmark");
+
+        try {
+            for (int round = 1; round <= 3; round++) {
+                System.out.println("\nRound " + round);
+                Map<String, BankAccount> book = buildBook(accountCount);
+                AccountStore store = new AccountStore(directory.resolve("one-by-one-" + round + ".dat").toString());
+                ReadWriteLock bookLock = new ReentrantReadWriteLock();
+                long start = System.nanoTime();
+                long saveNanos = 0;
+                int saves = 0;
+                int settled = 0;
+                for (NettingSettlement.Instruction instruction : batch) {
+                    bookLock.readLock().lock();
+                    try {
+                        if (book.get(instruction.sourceAccountNumber)
+                                .transfer(book.get(instruction.targetAccountNumber), instruction.amountCents)) {
+                            settled++;
+                        }
+                    } finally {
+                        bookLock.readLock().unlock();
+                    }
+                    if (saves < SAMPLED_SAVES) {
+                        long saveStart = System.nanoTime();
+                        store.save(book.values());
+                        saveNanos += System.nanoTime() - saveStart;
+                        saves++;
+                    }
+                }
+                long transferNanos = System.nanoTime() - start - saveNanos;
+                double projectedSaveMillis = saveNanos / 1e6 / Math.max(1, saves) * transferCount;
+                System.out.printf("One by one  %8.1f ms  %d settled, %d account locks%n",
+                        transferNanos / 1e6, settled, 2L * transferCount);
+                System.out.printf("  + saves   %8.1f ms  projected for %d saves from %d measured%n",
+                        projectedSaveMillis, transferCount, saves);
+
+                book = buildBook(accountCount);
+                store = new AccountStore(directory.resolve("netted-" + round + ".dat").toString());
+                start = System.nanoTime();
+                NettingSettlement.Result result = new NettingSettlement(book::get, bookLock).settle(batch);
+                store.save(book.values());
+                System.out.printf("Netted      %8.1f ms  %d settled, %d account locks, 1 save included%n",
+                        (System.nanoTime() - start) / 1e6, result.settled, result.accountsPosted);
+            }
+        } finally {
+            for (File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            directory.toFile().delete();
+        }
+    }
+
+    private static Map<String, BankAccount> buildBook(int accountCount) {
+        Map<String, BankAccount> book = new HashMap<>();
+        for (int i = 0; i < accountCount; i++) {
+            String accountNumber = String.valueOf(100_000 + i);
+            book.put(accountNumber, new BankAccount(accountNumber, "Customer " + i, "1234", Money.ofDollars(50_000)));
+        }
+        return book;
+    }
+}
+
+/**
+ * One entry of the replication log. Payloads are encoded when the record is
+ * created, while the committing account is still locked.
+ */
+final class ReplicationRecord {
+    static final byte BASE = 0;
+    static final byte TRANSACTION = 1;
+    // An account's state without its history; see BankAccount.encodeState.
+    static final byte ACCOUNT = 2;
+    static final byte HEARTBEAT = 3;
+
+    final long sequence;
+    final long commitMillis;
+    final byte type;
+    final byte[] payload;
+
+    ReplicationRecord(long sequence, long commitMillis, byte type, byte[] payload) {
+        this.sequence = sequence;
+        this.commitMillis = commitMillis;
+        this.type = type;
+        this.payload = payload;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type);
+        out.writeLong(sequence);
+        out.writeLong(commitMillis);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    static ReplicationRecord readFrom(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long sequence = in.readLong();
+        long commitMillis = in.readLong();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new ReplicationRecord(sequence, commitMillis, type, payload);
+    }
+
+    static byte[] encodeTransaction(String accountNumber, Transaction transaction) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(accountNumber);
+        transaction.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a shipped transaction and applies it to its account on the replica.
+     */
+    static void applyTransaction(byte[] payload, AccountBook accounts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String accountNumber = in.readUTF();
+        Transaction transaction = Transaction.readFrom(in);
+
+        BankAccount account = accounts.get(accountNumber);
+        if (account != null) {
+            account.replicateTransaction(transaction);
+        }
+    }
+
+    static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            in.setObjectInputFilter(ReplicationAuth.BOOK_FILTER);
+            return in.readObject();
+        }
+    }
+}
+
+/**
+ * Mutual authentication of a primary and a standby with a shared secret,
+ * taken from the ATM_REPLICATION_SECRET environment variable on both sides.
+ * Each side sends a random challenge and answers the other's with an HMAC
+ * over both challenges and its role, so neither a stranger nor a replayed
+ * answer gets the book or can feed a standby.
+ */
+final class ReplicationAuth {
+    static final String SECRET_VARIABLE = "ATM_REPLICATION_SECRET";
+    static final int CHALLENGE_BYTES = 32;
+    private static final int MIN_SECRET_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The only classes a standby accepts in a base image.
+     */
+    static final ObjectInputFilter BOOK_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;java.util.HashMap;java.util.Map$Entry;java.util.ArrayList;java.util.Date;java.lang.Object;"
+                    + "java.lang.Enum;java.time.Ser;java.time.LocalDateTime;java.time.YearMonth;BankAccount;"
+                    + "Transaction;Transaction$Type;StandingOrder;StandingOrder$Frequency;HistorySummary;!*");
+
+    private ReplicationAuth() {
+    }
+
+    static byte[] secretFromEnvironment() throws IOException {
+        String secret = System.getenv(SECRET_VARIABLE);
+        if (secret == null || secret.length() < MIN_SECRET_LENGTH) {
+            throw new IOException(SECRET_VARIABLE + " must be set to at least " + MIN_SECRET_LENGTH + " characters");
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] challenge() {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    static byte[] answer(byte[] secret, String role, byte[] primaryChallenge, byte[] standbyChallenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(role.getBytes(StandardCharsets.UTF_8));
+            mac.update(primaryChallenge);
+            mac.update(standbyChallenge);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    static byte[] readAnswer(DataInputStream in) throws IOException {
+        byte[] answer = new byte[32];
+        in.readFully(answer);
+        return answer;
+    }
+}
+
+/**
+ * Primary side of log shipping. Every committed mutation is appended to a
+ * bounded in-memory log and streamed to connected standbys. A standby that
+ * is new, or too far behind for the log, first receives a full base copy
+ * of the book taken under the book write lock.
+ *
+ * The port is bound to one address, loopback unless configured otherwise,
+ * and nothing is sent before the standby has passed {@link ReplicationAuth}.
+ */
+class ReplicationPrimary implements AccountListener, AutoCloseable {
+    private static final int MAX_LOG_RECORDS = 100_000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    private final byte[] secret;
+    private final AccountListener next;
+    private final ReadWriteLock bookLock;
+    private final Supplier<AccountBook> accounts;
+    private final ServerSocket serverSocket;
+    private final long epoch = System.currentTimeMillis();
+    private final ArrayDeque<ReplicationRecord> log = new ArrayDeque<>();
+    private long lastSequence;
+    private volatile boolean running = true;
+
+    public ReplicationPrimary(InetAddress bindAddress, int port, byte[] secret, AccountListener next,
+                              ReadWriteLock bookLock, Supplier<AccountBook> accounts) throws IOException {
+        this.secret = secret;
+        this.next = next;
+        this.bookLock = bookLock;
+        this.accounts = accounts;
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+
+        Thread acceptor = new Thread(this::acceptStandbys, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void transactionCommitted(BankAccount account, Transaction transaction) {
+        try {
+            append(ReplicationRecord.TRANSACTION,
+                    ReplicationRecord.encodeTransaction(account.getAccountNumber(), transaction));
+        } catch (IOException e) {
+            System.err.println("Error encoding replication record: " + e.getMessage());
+        }
+        next.transactionCommitted(account, transaction);
+    }
+
+    @Override
+    public void accountChanged(BankAccount account) {
+        try {
+            append(ReplicationRecord.ACCOUNT, account.encodeState());
+        } catch (IOException e) {
+            System.err.println("Error encoding replication record: " + e.getMessage());
+        }
+        next.accountChanged(account);
+    }
+
+    private synchronized void append(byte type, byte[] payload) {
+        log.addLast(new ReplicationRecord(++lastSequence, System.currentTimeMillis(), type, payload));
+        if (log.size() > MAX_LOG_RECORDS) {
+            log.removeFirst();
+        }
+        notifyAll();
+    }
+
+    private void acceptStandbys() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sender = new Thread(() -> serve(socket), "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private ReplicationRecord baseRecord() throws IOException {
+        bookLock.writeLock().lock();
+        try {
+            byte[] payload = ReplicationRecord.serialize(accounts.get().toMap());
+            synchronized (this) {
+                return new ReplicationRecord(lastSequence, System.currentTimeMillis(), ReplicationRecord.BASE,
+                        payload);
+            }
+        } finally {
+            bookLock.writeLock().unlock();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            byte[] challenge = ReplicationAuth.challenge();
+            out.write(challenge);
+            out.flush();
+            byte[] standbyChallenge = new byte[ReplicationAuth.CHALLENGE_BYTES];
+            in.readFully(standbyChallenge);
+            if (!MessageDigest.isEqual(ReplicationAuth.readAnswer(in),
+                    ReplicationAuth.answer(secret, "standby", challenge, standbyChallenge))) {
+                System.err.println("Rejected standby " + connection.getRemoteSocketAddress()
+                        + ": authentication failed");
+                return;
+            }
+            out.write(ReplicationAuth.answer(secret, "primary", challenge, standbyChallenge));
+            out.writeLong(epoch);
+            out.flush();
+            long standbyEpoch = in.readLong();
+            long standbyApplied = in.readLong();
+            long nextSequence = standbyEpoch == epoch ? standbyApplied + 1 : -1;
+            connection.setSoTimeout(0);
+
+            while (running) {
+                List<ReplicationRecord> pending = new ArrayList<>();
+                boolean needsBase;
+                long head;
+                synchronized (this) {
+                    long firstSequence = log.isEmpty() ? lastSequence + 1 : log.peekFirst().sequence;
+                    needsBase = nextSequence < 0 || nextSequence < firstSequence;
+                    if (!needsBase && nextSequence > lastSequence) {
+                        wait(HEARTBEAT_MILLIS);
+                    }
+                    if (!needsBase) {
+                        Iterator<ReplicationRecord> newestFirst = log.descendingIterator();
+                        while (newestFirst.hasNext()) {
+                            ReplicationRecord record = newestFirst.next();
+                            if (record.sequence < nextSequence) {
+                                break;
+                            }
+                            pending.add(record);
+                        }
+                        Collections.reverse(pending);
+                    }
+                    head = lastSequence;
+                }
+
+                if (needsBase) {
+                    ReplicationRecord base = baseRecord();
+                    base.writeTo(out);
+                    nextSequence = base.sequence + 1;
+                } else if (pending.isEmpty()) {
+                    new ReplicationRecord(head, System.currentTimeMillis(), ReplicationRecord.HEARTBEAT,
+                            new byte[0]).writeTo(out);
+                } else {
+                    for (ReplicationRecord record : pending) {
+                        record.writeTo(out);
+                    }
+                    nextSequence = pending.get(pending.size() - 1).sequence + 1;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Standby disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing replication socket: " + e.getMessage());
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
+
+/**
+ * Hot standby fed by a {@link ReplicationPrimary}. It applies shipped
+ * records continuously, serves read-only balance inquiries and can be
+ * promoted to a full ATM once the primary is gone.
+ */
+class StandbyATM {
+    private static final long RECONNECT_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final byte[] secret;
+    private final String dataFile;
+    private final Scanner scanner = new Scanner(System.in);
+    private volatile AccountBook accounts = new AccountBook();
+    private volatile boolean promoted;
+    private volatile boolean connected;
+    private volatile Socket socket;
+    private long primaryEpoch;
+    private volatile long appliedSequence = -1;
+    private volatile long primarySequence = -1;
+    private volatile long lastApplyDelayMillis;
+    private volatile long lastContactMillis;
+    private volatile long recordsApplied;
+    private volatile String lastError;
+
+    public StandbyATM(String host, int port, byte[] secret, String dataFile) {
+        this.host = host;
+        this.port = port;
+        this.secret = secret;
+        this.dataFile = dataFile;
+    }
+
+    public void start() {
+        Thread replication = new Thread(this::replicate, "replication-receiver");
+        replication.setDaemon(true);
+        replication.start();
+
+        System.out.println("=== Standby ATM (read-only) ===");
+        while (true) {
+            System.out.println("\n1. Balance Inquiry");
+            System.out.println("2. Replication Status");
+            System.out.println("3. Promote to Primary");
+            System.out.println("4. Exit");
+            System.out.print("\nEnter your choice (1-4): ");
+
+            String choice = scanner.nextLine().trim();
+            switch (choice) {
+                case "1" -> balanceInquiry();
+                case "2" -> printStatus();
+                case "3" -> {
+                    promote();
+                    return;
+                }
+                case "4" -> {
+                    System.out.println("\nStandby stopped.");
+                    return;
+                }
+                default -> System.out.println("\nInvalid option. Please try again.");
+            }
+        }
+    }
+
+    private void replicate() {
+        while (!promoted) {
+            try (Socket connection = new Socket(host, port);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+                socket = connection;
+                byte[] primaryChallenge = new byte[ReplicationAuth.CHALLENGE_BYTES];
+                in.readFully(primaryChallenge);
+                byte[] challenge = ReplicationAuth.challenge();
+                out.write(challenge);
+                out.write(ReplicationAuth.answer(secret, "standby", primaryChallenge, challenge));
+                out.flush();
+                if (!MessageDigest.isEqual(ReplicationAuth.readAnswer(in),
+                        ReplicationAuth.answer(secret, "primary", primaryChallenge, challenge))) {
+                    throw new IOException("Primary failed authentication");
+                }
+                long epoch = in.readLong();
+                out.writeLong(primaryEpoch);
+                out.writeLong(epoch == primaryEpoch ? appliedSequence : -1);
+                out.flush();
+                primaryEpoch = epoch;
+                connected = true;
+
+                while (!promoted) {
+                    apply(ReplicationRecord.readFrom(in));
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                // Primary unreachable or rejected; keep serving reads and retry.
+                lastError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                connected = false;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(ReplicationRecord record) throws IOException, ClassNotFoundException {
+        long now = System.currentTimeMillis();
+        lastContactMillis = now;
+        primarySequence = Math.max(primarySequence, record.sequence);
+
+        switch (record.type) {
+            case ReplicationRecord.BASE ->
+                accounts = AccountBook.of(
+                        ((Map<String, BankAccount>) ReplicationRecord.deserialize(record.payload)).values());
+            case ReplicationRecord.TRANSACTION -> ReplicationRecord.applyTransaction(record.payload, accounts);
+            case ReplicationRecord.ACCOUNT -> BankAccount.replicateState(record.payload, accounts);
+            default -> {
+                return;
+            }
+        }
+
+        appliedSequence = record.sequence;
+        lastApplyDelayMillis = now - record.commitMillis;
+        recordsApplied++;
+    }
+
+    private void balanceInquiry() {
+        System.out.print("Enter Account Number: ");
+        BankAccount account = accounts.get(scanner.nextLine().trim());
+        System.out.print("Enter PIN: ");
+        String pin = scanner.nextLine().trim();
+
+        if (account == null || !account.matchesPin(pin)) {
+            System.out.println("Invalid account number or PIN.");
+            return;
+        }
+
+        AccountSnapshot snapshot = account.getSnapshot();
+        System.out.println("\n=== Balance Inquiry (standby) ===");
+        System.out.printf("Current Balance: $%s\n", Money.format(snapshot.getBalance()));
+        printStatus();
     }
 
-    private String hashPin(String pin) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(pin.getBytes());
-            StringBuilder hexString = new StringBuilder();
+    private void printStatus() {
+        long behind = Math.max(0, primarySequence - appliedSequence);
+        System.out.println("\n=== Replication Status ===");
+        System.out.println("Connected to primary: " + (connected ? "yes" : "no") + " (" + host + ":" + port + ")");
+        System.out.println("Applied sequence: " + appliedSequence + " of " + primarySequence);
+        System.out.println("Records behind: " + behind);
+        System.out.println("Last apply delay: " + lastApplyDelayMillis + " ms");
+        System.out.println("Last contact: " + (lastContactMillis == 0 ? "never"
+                : (System.currentTimeMillis() - lastContactMillis) + " ms ago"));
+        System.out.println("Records applied: " + recordsApplied);
+        if (!connected && lastError != null) {
+            System.out.println("Last error: " + lastError);
+        }
+    }
 
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+    /**
+     * Stops replication, saves the replicated book to this standby's data
+     * file and starts serving as a normal ATM from it.
+     */
+    private void promote() {
+        promoted = true;
+        try {
+            if (socket != null) {
+                socket.close();
             }
+        } catch (IOException e) {
+            // Already closed.
+        }
 
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-
-            System.err.println("Warning: Using plain text PIN due to hashing failure");
-            return pin;
+        try {
+            new AccountStore(dataFile).save(accounts.values());
+        } catch (IOException e) {
+            System.err.println("Error saving replicated accounts: " + e.getMessage());
+            return;
         }
+
+        System.out.println("\nPromoted to primary at sequence " + appliedSequence + ".");
+        new ATM(dataFile, dataFile + ".feed", 0, scanner).start();
     }
+}
 
-    public String getAccountNumber() {
-        return accountNumber;
+/**
+ * The accounts of one book in an array indexed by interned account id.
+ * Lookups by id are a plain array read and lookups by account number cost
+ * one dictionary probe. Writers are serialized; readers never lock and see
+ * the array as of the last write.
+ */
+final class AccountBook {
+    private volatile BankAccount[] accounts = new BankAccount[Math.max(16, AccountIds.size())];
+    private volatile int size;
+
+    static AccountBook of(Collection<BankAccount> accounts) {
+        AccountBook book = new AccountBook();
+        for (BankAccount account : accounts) {
+            book.put(account);
+        }
+        return book;
     }
 
-    public String getUserName() {
-        return userName;
+    BankAccount get(int id) {
+        BankAccount[] current = accounts;
+        return id >= 0 && id < current.length ? current[id] : null;
     }
 
-    public boolean validatePin(String inputPin) {
-        if (locked) {
-            return false;
-        }
+    BankAccount get(String accountNumber) {
+        return get(AccountIds.find(accountNumber));
+    }
 
-        boolean isValid = hashPin(inputPin).equals(hashedPin);
+    boolean containsKey(String accountNumber) {
+        return get(accountNumber) != null;
+    }
 
-        if (!isValid) {
-            failedPinAttempts++;
-            if (failedPinAttempts >= 3) {
-                locked = true;
-            }
-        } else {
-            failedPinAttempts = 0;
+    synchronized void put(BankAccount account) {
+        BankAccount[] current = accounts;
+        int id = account.getId();
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+        }
+        if (current[id] == null) {
+            size++;
         }
+        current[id] = account;
+        // Volatile write publishes the new element even when the array is reused.
+        accounts = current;
+    }
 
-        updateLastActivity();
-        return isValid;
+    int size() {
+        return size;
     }
 
-    public boolean isLocked() {
-        return locked;
+    boolean isEmpty() {
+        return size == 0;
     }
 
-    public void unlockAccount() {
-        locked = false;
-        failedPinAttempts = 0;
+    List<BankAccount> values() {
+        BankAccount[] current = accounts;
+        List<BankAccount> values = new ArrayList<>(size);
+        for (BankAccount account : current) {
+            if (account != null) {
+                values.add(account);
+            }
+        }
+        return values;
     }
 
-    public boolean changePin(String oldPin, String newPin) {
-        if (validatePin(oldPin)) {
-            hashedPin = hashPin(newPin);
-            return true;
+    /**
+     * Keyed by account number, for Java serialization of the whole book.
+     */
+    Map<String, BankAccount> toMap() {
+        Map<String, BankAccount> map = new HashMap<>();
+        for (BankAccount account : values()) {
+            map.put(account.getAccountNumber(), account);
         }
-        return false;
+        return map;
     }
+}
 
-    public double getBalance() {
-        updateLastActivity();
-        return balance;
+/**
+ * Secondary index from customer names to accounts. Names are normalized
+ * (accents stripped, lower case, split on anything but letters and digits)
+ * and every token is indexed, so a query matches when each of its tokens is
+ * a prefix of a different token of the name: "jo sm" finds "John Smith".
+ *
+ * Tokens live in a sorted array with a parallel array of posting lists that
+ * share the account number strings of the book. New accounts go to a small
+ * sorted delta first, which is merged into the arrays once it grows past a
+ * fraction of them, so adding stays cheap and lookups stay two binary
+ * searches plus a scan of the matching range.
+ */
+final class AccountNameIndex {
+    private static final int MIN_MERGE_THRESHOLD = 1024;
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final Function<String, BankAccount> accountLookup;
+    private String[] tokens = NO_STRINGS;
+    private String[][] postings = new String[0][];
+    // postingsBefore[i] is the number of postings of tokens[0, i).
+    private long[] postingsBefore = new long[1];
+    private final TreeMap<String, List<String>> pending = new TreeMap<>();
+    private int pendingEntries;
+
+    AccountNameIndex(Function<String, BankAccount> accountLookup) {
+        this.accountLookup = accountLookup;
     }
 
-    public boolean deposit(double amount) {
-        if (amount <= 0) {
-            return false;
+    static List<String> tokenize(String name) {
+        String stripped = isAscii(name) ? name : Normalizer.normalize(name, Normalizer.Form.NFD);
+        List<String> result = new ArrayList<>(4);
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= stripped.length(); i++) {
+            char c = i < stripped.length() ? stripped.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                result.add(token.toString());
+                token.setLength(0);
+            }
         }
+        return result;
+    }
 
-        balance += amount;
-        transactionHistory.add(new Transaction(Transaction.Type.DEPOSIT, amount, accountNumber));
-        updateLastActivity();
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
         return true;
     }
 
-    public boolean withdraw(double amount) {
-        if (amount <= 0) {
-            return false;
+    public synchronized void add(BankAccount account) {
+        addPending(account);
+        if (pendingEntries > Math.max(MIN_MERGE_THRESHOLD, tokens.length / 8)) {
+            merge();
         }
+    }
 
-        if (amount > balance) {
-            return false;
+    /**
+     * Bulk load at startup: one sort and merge for the whole book.
+     */
+    public synchronized void addAll(Collection<BankAccount> accounts) {
+        for (BankAccount account : accounts) {
+            addPending(account);
         }
-
-        balance -= amount;
-        transactionHistory.add(new Transaction(Transaction.Type.WITHDRAWAL, amount, accountNumber));
-        updateLastActivity();
-        return true;
+        merge();
     }
 
-    public boolean transfer(BankAccount targetAccount, double amount) {
-        if (targetAccount == null || amount <= 0 || amount > balance) {
-            return false;
+    private void addPending(BankAccount account) {
+        for (String token : new LinkedHashSet<>(tokenize(account.getUserName()))) {
+            pending.computeIfAbsent(token, key -> new ArrayList<>(1)).add(account.getAccountNumber());
+            pendingEntries++;
         }
+    }
 
-        balance -= amount;
-        targetAccount.balance += amount;
+    private void merge() {
+        String[] mergedTokens = new String[tokens.length + pending.size()];
+        String[][] mergedPostings = new String[mergedTokens.length][];
+        Iterator<Map.Entry<String, List<String>>> added = pending.entrySet().iterator();
+        Map.Entry<String, List<String>> next = added.hasNext() ? added.next() : null;
+        int existing = 0;
+        int count = 0;
+        while (existing < tokens.length || next != null) {
+            int order = next == null ? -1 : existing == tokens.length ? 1 : tokens[existing].compareTo(next.getKey());
+            if (order < 0) {
+                mergedTokens[count] = tokens[existing];
+                mergedPostings[count++] = postings[existing++];
+                continue;
+            }
 
-        transactionHistory.add(new Transaction(Transaction.Type.TRANSFER, amount, 
-                                              accountNumber, targetAccount.accountNumber));
-        targetAccount.transactionHistory.add(new Transaction(Transaction.Type.DEPOSIT, amount, 
-                                                           targetAccount.accountNumber, accountNumber));
+            String[] current = order == 0 ? postings[existing++] : NO_STRINGS;
+            List<String> accountNumbers = next.getValue();
+            String[] combined = Arrays.copyOf(current, current.length + accountNumbers.size());
+            for (int i = 0; i < accountNumbers.size(); i++) {
+                combined[current.length + i] = accountNumbers.get(i);
+            }
+            mergedTokens[count] = next.getKey();
+            mergedPostings[count++] = combined;
+            next = added.hasNext() ? added.next() : null;
+        }
+        mergedTokens = Arrays.copyOf(mergedTokens, count);
+        mergedPostings = Arrays.copyOf(mergedPostings, count);
 
-        updateLastActivity();
-        targetAccount.updateLastActivity();
-        return true;
+        long[] mergedBefore = new long[mergedTokens.length + 1];
+        for (int i = 0; i < mergedTokens.length; i++) {
+            mergedBefore[i + 1] = mergedBefore[i] + mergedPostings[i].length;
+        }
+        tokens = mergedTokens;
+        postings = mergedPostings;
+        postingsBefore = mergedBefore;
+        pending.clear();
+        pendingEntries = 0;
     }
 
-    public List<Transaction> getTransactionHistory() {
-        updateLastActivity();
-        return new ArrayList<>(transactionHistory);
+    /**
+     * Returns up to {@code limit} accounts whose name matches every token of
+     * {@code query} by prefix. Candidates come from the query token with the
+     * fewest postings and are checked against the rest.
+     */
+    public synchronized List<BankAccount> search(String query, int limit) {
+        List<String> queryTokens = tokenize(query);
+        List<BankAccount> results = new ArrayList<>();
+        if (queryTokens.isEmpty()) {
+            return results;
+        }
+
+        String driver = queryTokens.get(0);
+        long fewest = Long.MAX_VALUE;
+        for (String token : queryTokens) {
+            long count = postingCount(token);
+            if (count < fewest) {
+                fewest = count;
+                driver = token;
+            }
+        }
+
+        Set<String> seen = new HashSet<>();
+        int from = lowerBound(driver);
+        for (int i = from; i < tokens.length && tokens[i].startsWith(driver); i++) {
+            if (collect(postings[i], queryTokens, seen, results, limit)) {
+                return results;
+            }
+        }
+        for (List<String> added : pending.subMap(driver, driver + Character.MAX_VALUE).values()) {
+            if (collect(added.toArray(NO_STRINGS), queryTokens, seen, results, limit)) {
+                return results;
+            }
+        }
+        return results;
     }
 
-    public List<Transaction> getRecentTransactions(int count) {
-        updateLastActivity();
-        int size = transactionHistory.size();
-        if (size <= count) {
-            return new ArrayList<>(transactionHistory);
+    private boolean collect(String[] accountNumbers, List<String> queryTokens, Set<String> seen,
+                            List<BankAccount> results, int limit) {
+        for (String accountNumber : accountNumbers) {
+            if (!seen.add(accountNumber)) {
+                continue;
+            }
+            BankAccount account = accountLookup.apply(accountNumber);
+            if (account != null && (queryTokens.size() == 1 || matches(tokenize(account.getUserName()), queryTokens))) {
+                results.add(account);
+                if (results.size() >= limit) {
+                    return true;
+                }
+            }
         }
+        return false;
+    }
 
-        return new ArrayList<>(transactionHistory.subList(size - count, size));
+    /**
+     * Each query token must be a prefix of a different name token.
+     */
+    private static boolean matches(List<String> nameTokens, List<String> queryTokens) {
+        // Longest first, so a short query token cannot claim the only name token a longer one fits.
+        List<String> byLength = new ArrayList<>(queryTokens);
+        byLength.sort(Comparator.comparingInt(String::length).reversed());
+        boolean[] used = new boolean[nameTokens.size()];
+        for (String query : byLength) {
+            boolean found = false;
+            for (int i = 0; i < nameTokens.size() && !found; i++) {
+                if (!used[i] && nameTokens.get(i).startsWith(query)) {
+                    used[i] = true;
+                    found = true;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public Date getLastActivity() {
-        return lastActivity;
+    private long postingCount(String prefix) {
+        long count = postingsBefore[lowerBound(prefix + Character.MAX_VALUE)] - postingsBefore[lowerBound(prefix)];
+        for (List<String> added : pending.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            count += added.size();
+        }
+        return count;
     }
 
-    private void updateLastActivity() {
-        lastActivity = new Date();
+    private int lowerBound(String prefix) {
+        int index = Arrays.binarySearch(tokens, prefix);
+        return index < 0 ? -index - 1 : index;
     }
 }
 
 class ATM {
-    private static final String DATA_FILE = "atm_data.ser";
+    static final String DATA_FILE = "atm_accounts.dat";
+    // Single serialized map written by earlier versions; read once and
+    // migrated to the account store on the next save.
+    static final String LEGACY_DATA_FILE = "atm_data.ser";
+    static final String FEED_FILE = "atm_feed.log";
     private static final int SESSION_TIMEOUT_SECONDS = 60;
+    private static final int SEARCH_RESULT_LIMIT = 20;
 
-    private Map<String, BankAccount> accounts;
+    private final AccountStore store;
+
+    private AccountBook accounts;
     private BankAccount currentAccount;
     private Scanner scanner;
     private boolean isSessionActive;
     private Timer sessionTimer;
+    private TransactionEventBus eventBus;
+    private TransactionFeedWriter feedWriter;
+    private ReplicationPrimary replicationPrimary;
+    private AccountListener accountListener;
+    // Mutations share the read side; saves take the write side so the
+    // file always holds a consistent cut across accounts.
+    private final ReadWriteLock bookLock = new ReentrantReadWriteLock();
+    private StandingOrderEngine standingOrderEngine;
+    private HistoryCompactor historyCompactor;
+    private AccountNameIndex nameIndex;
 
     public ATM() {
-        this.scanner = new Scanner(System.in);
+        this(DATA_FILE, FEED_FILE, 0, new Scanner(System.in));
+    }
+
+    public ATM(String dataFile, String feedFile, int replicationPort, Scanner scanner) {
+        this(dataFile, feedFile, InetAddress.getLoopbackAddress(), replicationPort, scanner);
+    }
+
+    /**
+     * @param replicationAddress address the replication port is bound to
+     * @param replicationPort port standbys connect to, or 0 to run without replication
+     */
+    public ATM(String dataFile, String feedFile, InetAddress replicationAddress, int replicationPort,
+               Scanner scanner) {
+        this.store = new AccountStore(dataFile);
+        this.scanner = scanner;
         this.isSessionActive = false;
+        this.feedWriter = new TransactionFeedWriter(feedFile);
+        this.eventBus = new TransactionEventBus(feedWriter.getLastWrittenOffset() + 1);
+        eventBus.subscribe(feedWriter);
+        this.accountListener = eventBus;
+
+        if (replicationPort > 0) {
+            try {
+                replicationPrimary = new ReplicationPrimary(replicationAddress, replicationPort,
+                        ReplicationAuth.secretFromEnvironment(), eventBus, bookLock, () -> accounts);
+                accountListener = replicationPrimary;
+                System.out.println("Replication enabled on " + replicationAddress.getHostAddress() + ":"
+                        + replicationPort + ".");
+            } catch (IOException e) {
+                System.err.println("Could not start replication: " + e.getMessage());
+            }
+        }
+
         loadAccounts();
+        nameIndex = new AccountNameIndex(accounts::get);
+        nameIndex.addAll(accounts.values());
 
         if (accounts.isEmpty()) {
             initializeSampleAccounts();
         }
+
+        standingOrderEngine = new StandingOrderEngine(accounts::get, bookLock, this::writeAccounts);
+        for (BankAccount account : accounts.values()) {
+            for (StandingOrder order : account.getStandingOrders()) {
+                standingOrderEngine.schedule(order);
+            }
+        }
+        standingOrderEngine.start();
+    }
+
+    /**
+     * Starts the background job that rolls transactions older than
+     * {@code horizonMonths} into monthly summaries.
+     *
+     * @param archiveFile file that receives the compacted records, or null to discard them
+     */
+    public void enableHistoryCompaction(int horizonMonths, String archiveFile) {
+        historyCompactor = new HistoryCompactor(accounts::values, bookLock, horizonMonths, archiveFile,
+                this::writeAccounts);
+        historyCompactor.start();
+    }
+
+    /**
+     * Settles a file of transfers, one "source,target,amount" per line, as a
+     * single netted batch, saves once and shuts down.
+     */
+    public void runSettlement(String batchFile) {
+        List<NettingSettlement.Instruction> batch = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(batchFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    System.err.println("Skipping line " + lineNumber + ": expected source,target,amount");
+                    continue;
+                }
+                try {
+                    batch.add(new NettingSettlement.Instruction(fields[0].trim(), fields[1].trim(),
+                            Money.parse(fields[2].trim())));
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping line " + lineNumber + ": invalid amount " + fields[2].trim());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading settlement batch: " + e.getMessage());
+            shutdown();
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            NettingSettlement.Result result = new NettingSettlement(accounts::get, bookLock).settle(batch);
+            System.out.printf("Settled %d of %d transfers across %d accounts in %.1f ms.%n", result.settled,
+                    batch.size(), result.accountsPosted, (System.nanoTime() - start) / 1e6);
+            for (Map.Entry<NettingSettlement.Instruction, String> rejection : result.rejected.entrySet()) {
+                System.out.println("Rejected " + rejection.getKey() + ": " + rejection.getValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdown();
     }
 
     private void initializeSampleAccounts() {
         System.out.println("Initializing sample accounts...");
-        addAccount(new BankAccount("123456", "John Doe", "1234", 5000.0));
-        addAccount(new BankAccount("789012", "Jane Smith", "5678", 7500.0));
+        addAccount(new BankAccount("123456", "John Doe", "1234", Money.ofDollars(5000)));
+        addAccount(new BankAccount("789012", "Jane Smith", "5678", Money.ofDollars(7500)));
         saveAccounts();
     }
 
-    @SuppressWarnings("unchecked")
     private void loadAccounts() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            accounts = (Map<String, BankAccount>) ois.readObject();
+        try {
+            AccountBook loaded = store.load();
+            if (loaded == null) {
+                loaded = AccountBook.of(loadLegacyAccounts().values());
+            }
+            accounts = loaded;
+            for (BankAccount account : accounts.values()) {
+                account.setAccountListener(accountListener);
+            }
             System.out.println("Accounts loaded successfully.");
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("No existing accounts found. Creating new accounts database.");
-            accounts = new HashMap<>();
+            accounts = new AccountBook();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, BankAccount> loadLegacyAccounts() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(LEGACY_DATA_FILE))) {
+            return (Map<String, BankAccount>) ois.readObject();
         }
     }
 
     private void saveAccounts() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(accounts);
+        if (writeAccounts()) {
             System.out.println("Accounts saved successfully.");
+        }
+    }
+
+    private boolean writeAccounts() {
+        bookLock.writeLock().lock();
+        try {
+            store.save(accounts.values());
+            return true;
         } catch (IOException e) {
             System.err.println("Error saving accounts: " + e.getMessage());
+            return false;
+        } finally {
+            bookLock.writeLock().unlock();
+        }
+    }
+
+    private <T> T underBookLock(Supplier<T> mutation) {
+        bookLock.readLock().lock();
+        try {
+            return mutation.get();
+        } finally {
+            bookLock.readLock().unlock();
         }
     }
 
     public void addAccount(BankAccount account) {
-        accounts.put(account.getAccountNumber(), account);
+        account.setAccountListener(accountListener);
+        underBookLock(() -> {
+            accounts.put(account);
+            nameIndex.add(account);
+            synchronized (account) {
+                accountListener.accountChanged(account);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Lets downstream consumers (fraud, notifications, reporting) follow
+     * committed transactions as they happen.
+     */
+    public void subscribe(Flow.Subscriber<? super TransactionEvent> subscriber) {
+        eventBus.subscribe(subscriber);
+    }
+
+    private void shutdown() {
+        if (sessionTimer != null) {
+            sessionTimer.cancel();
+        }
+
+        if (historyCompactor != null) {
+            historyCompactor.close();
+        }
+        standingOrderEngine.close();
+        saveAccounts();
+        if (replicationPrimary != null) {
+            replicationPrimary.close();
+        }
+        eventBus.close();
+        try {
+            feedWriter.awaitClose(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void createNewAccount() {
@@ -312,12 +4891,12 @@ class ATM {
         }
 
         System.out.print("Enter initial deposit amount: $");
-        double initialDeposit = getDoubleInput();
+        long initialDeposit = getAmountInput();
 
-        while (initialDeposit < 100) {
+        while (initialDeposit < Money.ofDollars(100)) {
             System.out.println("Initial deposit must be at least $100.");
             System.out.print("Enter initial deposit amount: $");
-            initialDeposit = getDoubleInput();
+            initialDeposit = getAmountInput();
         }
 
         BankAccount newAccount = new BankAccount(accountNumber, userName, pin, initialDeposit);
@@ -328,6 +4907,36 @@ class ATM {
         System.out.println("Please remember your account number and PIN for future logins.");
     }
 
+    /**
+     * Branch staff only: lists customer names with their account numbers.
+     */
+    private void findAccountByName() {
+        System.out.println("\n=== Find Account by Name (staff) ===");
+        if (!adminAuthenticated()) {
+            System.out.println("Invalid admin password.");
+            return;
+        }
+        System.out.print("Enter name or the start of it: ");
+        String query = scanner.nextLine().trim();
+
+        List<BankAccount> matches = nameIndex.search(query, SEARCH_RESULT_LIMIT);
+        if (matches.isEmpty()) {
+            System.out.println("No matching accounts found.");
+            return;
+        }
+        for (BankAccount account : matches) {
+            System.out.println(account.getAccountNumber() + "  " + account.getUserName());
+        }
+        if (matches.size() == SEARCH_RESULT_LIMIT) {
+            System.out.println("Showing the first " + SEARCH_RESULT_LIMIT + " matches; refine the name to narrow them.");
+        }
+    }
+
+    private boolean adminAuthenticated() {
+        System.out.print("Enter admin password: ");
+        return scanner.nextLine().trim().equals("admin123");
+    }
+
     private String generateAccountNumber() {
 
         return String.format("%06d", (int)(Math.random() * 900000) + 100000);
@@ -343,8 +4952,9 @@ class ATM {
                     System.out.println("\nAccounts in system: " + accounts.size());
                     System.out.println("\n1. Login");
                     System.out.println("2. Create New Account");
-                    System.out.println("3. Exit");
-                    System.out.print("\nEnter your choice (1-3): ");
+                    System.out.println("3. Find Account by Name (staff)");
+                    System.out.println("4. Exit");
+                    System.out.print("\nEnter your choice (1-4): ");
                     int choice = getIntInput();
                     switch (choice) {
                         case 1 -> authenticateUser();
@@ -352,8 +4962,10 @@ class ATM {
                             createNewAccount();
                             saveAccounts();
                         }
-                        case 3 -> {
+                        case 3 -> findAccountByName();
+                        case 4 -> {
                             System.out.println("\nThank you for using our ATM. Goodbye!");
+                            shutdown();
                             scanner.close();
                             System.exit(1);
                         }
@@ -369,11 +4981,13 @@ class ATM {
                         case 3 -> withdraw();
                         case 4 -> transfer();
                         case 5 -> showTransactionHistory();
-                        case 6 -> changePin();
-                        case 7 -> logout();
-                        case 8 -> {
+                        case 6 -> showBalanceOnDate();
+                        case 7 -> manageStandingOrders();
+                        case 8 -> changePin();
+                        case 9 -> logout();
+                        case 10 -> {
                             System.out.println("\nThank you for using our ATM. Goodbye!");
-                            saveAccounts();
+                            shutdown();
                             scanner.close();
                             return;
                         }
@@ -417,10 +5031,11 @@ class ATM {
             System.out.println("This account is locked due to too many failed attempts.");
             System.out.print("Would you like to unlock it? (admin function)2 (y/n): ");
             if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
-                System.out.print("Enter admin password: ");
-                String adminPassword = scanner.nextLine().trim();
-                if (adminPassword.equals("admin123")) {  
-                    account.unlockAccount();
+                if (adminAuthenticated()) {
+                    underBookLock(() -> {
+                        account.unlockAccount();
+                        return null;
+                    });
                     System.out.println("Account unlocked successfully.");
                 } else {
                     System.out.println("Invalid admin password. Account remains locked.");
@@ -435,7 +5050,7 @@ class ATM {
             System.out.print("Enter PIN: ");
             String pin = scanner.nextLine().trim();
 
-            if (account.validatePin(pin)) {
+            if (underBookLock(() -> account.validatePin(pin))) {
                 currentAccount = account;
                 isSessionActive = true;
                 System.out.println("\nWelcome, " + account.getUserName() + "!");
@@ -484,10 +5099,12 @@ class ATM {
         System.out.println("3. Withdraw");
         System.out.println("4. Transfer Money");
         System.out.println("5. Transaction History");
-        System.out.println("6. Change PIN");
-        System.out.println("7. Logout");
-        System.out.println("8. Exit");
-        System.out.print("\nEnter your choice (1-8): ");
+        System.out.println("6. Balance on a Past Date");
+        System.out.println("7. Standing Orders");
+        System.out.println("8. Change PIN");
+        System.out.println("9. Logout");
+        System.out.println("10. Exit");
+        System.out.print("\nEnter your choice (1-10): ");
     }
 
     private int getIntInput() {
@@ -498,9 +5115,12 @@ class ATM {
         }
     }
 
-    private double getDoubleInput() {
+    /**
+     * Reads an amount in dollars and returns it in cents, or -1 if it is not a valid amount.
+     */
+    private long getAmountInput() {
         try {
-            return Double.parseDouble(scanner.nextLine().trim());
+            return Money.parse(scanner.nextLine());
         } catch (NumberFormatException e) {
             return -1; 
         }
@@ -509,7 +5129,7 @@ class ATM {
     private void checkBalance() {
         resetSessionTimer();
         System.out.println("\n=== Balance Inquiry ===");
-        System.out.printf("Current Balance: $%.2f\n", currentAccount.getBalance());
+        System.out.printf("Current Balance: $%s\n", Money.format(currentAccount.getSnapshot().getBalance()));
         printReceipt("BALANCE INQUIRY", null);
     }
 
@@ -518,16 +5138,16 @@ class ATM {
         System.out.println("\n=== Deposit ===");
         System.out.print("Enter amount to deposit: $");
 
-        double amount = getDoubleInput();
+        long amount = getAmountInput();
 
         if (amount <= 0) {
             System.out.println("Invalid amount. Please enter a positive value.");
             return;
         }
 
-        if (currentAccount.deposit(amount)) {
-            System.out.printf("Successfully deposited: $%.2f\n", amount);
-            System.out.printf("New Balance: $%.2f\n", currentAccount.getBalance());
+        if (underBookLock(() -> currentAccount.deposit(amount))) {
+            System.out.printf("Successfully deposited: $%s\n", Money.format(amount));
+            System.out.printf("New Balance: $%s\n", Money.format(currentAccount.getBalance()));
             printReceipt("DEPOSIT", amount);
         } else {
             System.out.println("Deposit failed. Please try again.");
@@ -537,10 +5157,10 @@ class ATM {
     private void withdraw() {
         resetSessionTimer();
         System.out.println("\n=== Withdrawal ===");
-        System.out.printf("Available Balance: $%.2f\n", currentAccount.getBalance());
+        System.out.printf("Available Balance: $%s\n", Money.format(currentAccount.getBalance()));
         System.out.print("Enter amount to withdraw: $");
 
-        double amount = getDoubleInput();
+        long amount = getAmountInput();
 
         if (amount <= 0) {
             System.out.println("Invalid amount. Please enter a positive value.");
@@ -552,9 +5172,9 @@ class ATM {
             return;
         }
 
-        if (currentAccount.withdraw(amount)) {
-            System.out.printf("Successfully withdrawn: $%.2f\n", amount);
-            System.out.printf("Remaining Balance: $%.2f\n", currentAccount.getBalance());
+        if (underBookLock(() -> currentAccount.withdraw(amount))) {
+            System.out.printf("Successfully withdrawn: $%s\n", Money.format(amount));
+            System.out.printf("Remaining Balance: $%s\n", Money.format(currentAccount.getBalance()));
             printReceipt("WITHDRAWAL", amount);
         } else {
             System.out.println("Withdrawal failed. Please try again.");
@@ -564,7 +5184,7 @@ class ATM {
     private void transfer() {
         resetSessionTimer();
         System.out.println("\n=== Transfer Money ===");
-        System.out.printf("Available Balance: $%.2f\n", currentAccount.getBalance());
+        System.out.printf("Available Balance: $%s\n", Money.format(currentAccount.getBalance()));
 
         System.out.print("Enter recipient's account number: ");
         String targetAccountNumber = scanner.nextLine().trim();
@@ -581,7 +5201,7 @@ class ATM {
         }
 
         System.out.print("Enter amount to transfer: $");
-        double amount = getDoubleInput();
+        long amount = getAmountInput();
 
         if (amount <= 0) {
             System.out.println("Invalid amount. Please enter a positive value.");
@@ -593,10 +5213,10 @@ class ATM {
             return;
         }
 
-        if (currentAccount.transfer(targetAccount, amount)) {
-            System.out.printf("Successfully transferred $%.2f to %s\n", 
-                             amount, targetAccount.getUserName());
-            System.out.printf("Remaining Balance: $%.2f\n", currentAccount.getBalance());
+        if (underBookLock(() -> currentAccount.transfer(targetAccount, amount))) {
+            System.out.printf("Successfully transferred $%s to %s\n", 
+                             Money.format(amount), targetAccount.getUserName());
+            System.out.printf("Remaining Balance: $%s\n", Money.format(currentAccount.getBalance()));
             printReceipt("TRANSFER", amount);
         } else {
             System.out.println("Transfer failed. Please try again.");
@@ -613,7 +5233,7 @@ class ATM {
         int choice = getIntInput();
 
         if (choice == 1) {
-            List<Transaction> recentTransactions = currentAccount.getRecentTransactions(5);
+            List<Transaction> recentTransactions = currentAccount.getSnapshot().getRecentTransactions(5);
             if (recentTransactions.isEmpty()) {
                 System.out.println("No recent transactions found.");
             } else {
@@ -624,6 +5244,14 @@ class ATM {
                 }
             }
         } else if (choice == 2) {
+            List<HistorySummary> summaries = currentAccount.getHistorySummaries();
+            if (!summaries.isEmpty()) {
+                System.out.println("\nMonthly Summaries:");
+                for (HistorySummary summary : summaries) {
+                    System.out.println(summary);
+                }
+            }
+
             List<Transaction> allTransactions = currentAccount.getTransactionHistory();
             if (allTransactions.isEmpty()) {
                 System.out.println("No transactions found.");
@@ -639,13 +5267,125 @@ class ATM {
         }
     }
 
+    private void showBalanceOnDate() {
+        resetSessionTimer();
+        System.out.println("\n=== Balance on a Past Date ===");
+        System.out.print("Enter date (yyyy-MM-dd): ");
+
+        LocalDate date;
+        try {
+            date = LocalDate.parse(scanner.nextLine().trim());
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date. Please use the format yyyy-MM-dd.");
+            return;
+        }
+
+        Long balance = currentAccount.getBalanceOn(date);
+        if (balance == null) {
+            System.out.println("The account did not exist on " + date + ".");
+        } else {
+            System.out.printf("Closing Balance on %s: $%s\n", date, Money.format(balance));
+        }
+    }
+
+    private void manageStandingOrders() {
+        resetSessionTimer();
+        System.out.println("\n=== Standing Orders ===");
+        System.out.println("1. View Standing Orders");
+        System.out.println("2. Create Standing Order");
+        System.out.println("3. Cancel Standing Order");
+        System.out.print("\nEnter your choice (1-3): ");
+
+        int choice = getIntInput();
+
+        if (choice == 1) {
+            List<StandingOrder> orders = currentAccount.getStandingOrders();
+            if (orders.isEmpty()) {
+                System.out.println("No standing orders found.");
+            } else {
+                System.out.println("\nStanding Orders:");
+                int i = 1;
+                for (StandingOrder order : orders) {
+                    System.out.println(i++ + ". " + order);
+                }
+            }
+        } else if (choice == 2) {
+            createStandingOrder();
+        } else if (choice == 3) {
+            System.out.print("Enter standing order ID: ");
+            String orderId = scanner.nextLine().trim();
+            if (underBookLock(() -> currentAccount.cancelStandingOrder(orderId))) {
+                System.out.println("Standing order cancelled.");
+            } else {
+                System.out.println("Standing order not found.");
+            }
+        } else {
+            System.out.println("Invalid choice.");
+        }
+    }
+
+    private void createStandingOrder() {
+        System.out.print("Enter recipient's account number: ");
+        String targetAccountNumber = scanner.nextLine().trim();
+
+        if (targetAccountNumber.equals(currentAccount.getAccountNumber())) {
+            System.out.println("Cannot transfer to same account.");
+            return;
+        }
+
+        if (!accounts.containsKey(targetAccountNumber)) {
+            System.out.println("Target account not found. Standing order cancelled.");
+            return;
+        }
+
+        System.out.print("Enter amount to transfer each time: $");
+        long amount = getAmountInput();
+
+        if (amount <= 0) {
+            System.out.println("Invalid amount. Please enter a positive value.");
+            return;
+        }
+
+        System.out.println("1. Daily  2. Weekly  3. Monthly");
+        System.out.print("Enter frequency (1-3): ");
+        int frequencyChoice = getIntInput();
+        if (frequencyChoice < 1 || frequencyChoice > 3) {
+            System.out.println("Invalid frequency.");
+            return;
+        }
+        StandingOrder.Frequency frequency = StandingOrder.Frequency.values()[frequencyChoice - 1];
+
+        System.out.print("Enter first payment date (yyyy-MM-dd): ");
+        LocalDate firstDate;
+        try {
+            firstDate = LocalDate.parse(scanner.nextLine().trim());
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date. Please use the format yyyy-MM-dd.");
+            return;
+        }
+
+        if (firstDate.isBefore(LocalDate.now())) {
+            System.out.println("First payment date cannot be in the past.");
+            return;
+        }
+
+        StandingOrder order = new StandingOrder(currentAccount.getAccountNumber(), targetAccountNumber,
+                amount, frequency, firstDate.atStartOfDay());
+        underBookLock(() -> {
+            currentAccount.addStandingOrder(order);
+            return null;
+        });
+        standingOrderEngine.schedule(order);
+        System.out.println("Standing order created: " + order);
+    }
+
     private void changePin() {
         resetSessionTimer();
         System.out.println("\n=== Change PIN ===");
         System.out.print("Enter current PIN: ");
         String currentPin = scanner.nextLine().trim();
 
-        if (!currentAccount.validatePin(currentPin)) {
+        if (!underBookLock(() -> currentAccount.validatePin(currentPin))) {
             System.out.println("Incorrect PIN. Operation cancelled.");
             return;
         }
@@ -666,7 +5406,7 @@ class ATM {
             return;
         }
 
-        if (currentAccount.changePin(currentPin, newPin)) {
+        if (underBookLock(() -> currentAccount.changePin(currentPin, newPin))) {
             System.out.println("PIN changed successfully.");
         } else {
             System.out.println("Failed to change PIN. Please try again.");
@@ -683,17 +5423,17 @@ class ATM {
         currentAccount = null;
     }
 
-    private void printReceipt(String transactionType, Double amount) {
+    private void printReceipt(String transactionType, Long amount) {
         System.out.println("\n======== RECEIPT ========");
         System.out.println("Transaction Type: " + transactionType);
         System.out.println("Account Number: " + currentAccount.getAccountNumber());
         System.out.println("Date/Time: " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
 
         if (amount != null) {
-            System.out.printf("Amount: $%.2f\n", amount);
+            System.out.printf("Amount: $%s\n", Money.format(amount));
         }
 
-        System.out.printf("Current Balance: $%.2f\n", currentAccount.getBalance());
+        System.out.printf("Current Balance: $%s\n", Money.format(currentAccount.getSnapshot().getBalance()));
         System.out.println("==========================");
 
         System.out.print("Would you like to print this receipt? (y/n): ");
@@ -707,9 +5447,78 @@ class ATM {
 }
 
 public class ATMInterface {
+    /**
+     * Usage:
+     *   java ATMInterface                                    normal ATM
+     *   java ATMInterface --primary PORT                     ATM shipping its log to standbys on PORT
+     *   java ATMInterface --standby HOST PORT [DATA_FILE]    read-only standby of the primary at HOST:PORT
+     *
+     * Replication needs the same secret of 16 or more characters in the
+     * ATM_REPLICATION_SECRET environment variable on the primary and standby.
+     *
+     * Options for the first two forms:
+     *   --bind ADDRESS                                       address for the --primary port (default loopback)
+     *   --compact-after MONTHS                               roll older history into monthly summaries
+     *   --archive FILE                                       append compacted transactions to FILE
+     *   --settle FILE                                        settle a batch of transfers as one netted batch, then exit
+     */
     public static void main(String[] args) {
+        if (args.length >= 3 && args[0].equals("--standby")) {
+            System.out.println("Starting standby ATM...");
+            String dataFile = args.length >= 4 ? args[3] : "atm_standby.dat";
+            byte[] secret;
+            try {
+                secret = ReplicationAuth.secretFromEnvironment();
+            } catch (IOException e) {
+                System.err.println("Cannot start standby: " + e.getMessage());
+                return;
+            }
+            new StandbyATM(args[1], Integer.parseInt(args[2]), secret, dataFile).start();
+            return;
+        }
+
         System.out.println("Starting ATM System...");
-        ATM atm = new ATM();
+        int replicationPort = 0;
+        InetAddress replicationAddress = InetAddress.getLoopbackAddress();
+        int compactAfterMonths = 0;
+        String archiveFile = null;
+        String settlementFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--primary":
+                    replicationPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--bind":
+                    try {
+                        replicationAddress = InetAddress.getByName(args[i + 1]);
+                    } catch (IOException e) {
+                        System.err.println("Unknown bind address " + args[i + 1]);
+                        return;
+                    }
+                    break;
+                case "--compact-after":
+                    compactAfterMonths = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--archive":
+                    archiveFile = args[i + 1];
+                    break;
+                case "--settle":
+                    settlementFile = args[i + 1];
+                    break;
+                default:
+                    System.err.println("Ignoring unknown option " + args[i]);
+            }
+        }
+
+        ATM atm = new ATM(ATM.DATA_FILE, ATM.FEED_FILE, replicationAddress, replicationPort,
+                new Scanner(System.in));
+        if (compactAfterMonths > 0) {
+            atm.enableHistoryCompaction(compactAfterMonths, archiveFile);
+        }
+        if (settlementFile != null) {
+            atm.runSettlement(settlementFile);
+            return;
+        }
         atm.start();
     }
 }
\ No newline at end of file
@@ -1,13 +1,42 @@
 import java.awt.*;
 import java.awt.event.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.swing.*;
 import javax.swing.Timer;
@@ -23,12 +52,18 @@ class Question {
     private String[] options;
     private int correctAnswerIndex;
     private int timeLimit;
+    private String category;
 
     public Question(String questionText, String[] options, int correctAnswerIndex, int timeLimit) {
+        this(questionText, options, correctAnswerIndex, timeLimit, null);
+    }
+
+    public Question(String questionText, String[] options, int correctAnswerIndex, int timeLimit, String category) {
         this.questionText = questionText;
         this.options = options;
         this.correctAnswerIndex = correctAnswerIndex;
         this.timeLimit = timeLimit;
+        this.category = category;
     }
 
     public String getQuestionText() {
@@ -47,39 +82,61 @@ class Question {
         return timeLimit;
     }
 
+    /** The API's name for the question's category, or null if not known. */
+    public String getCategory() {
+        return category;
+    }
+
     public String getCorrectAnswer() {
         return options[correctAnswerIndex].substring(3); 
     }
 }
 
+/**
+ * The outcome of one quiz, kept compact so results can be held on to and
+ * merged in bulk: per question a byte for the chosen option, a bit each
+ * for correct and timed out, and an int for the answer time.
+ */
 class QuizResult {
     private int totalQuestions;
     private int correctAnswers;
-    private List<Integer> userAnswers;
-    private List<Boolean> answerResults;
-    private List<String> timedOutQuestions;
+    private byte[] userAnswers;
+    private int[] responseMillis;
+    private final BitSet answerResults = new BitSet();
+    private final BitSet timedOutQuestions = new BitSet();
 
     public QuizResult() {
-        this.totalQuestions = 0;
-        this.correctAnswers = 0;
-        this.userAnswers = new ArrayList<>();
-        this.answerResults = new ArrayList<>();
-        this.timedOutQuestions = new ArrayList<>();
+        this(10);
     }
 
-    public void addResult(int questionNumber, int userAnswer, boolean isCorrect, boolean isTimedOut) {
-        totalQuestions++;
+    /** @param expectedQuestions How many questions to make room for up front */
+    public QuizResult(int expectedQuestions) {
+        this.userAnswers = new byte[expectedQuestions];
+        this.responseMillis = new int[expectedQuestions];
+    }
+
+    /**
+     * Records the outcome of the next question.
+     * @param userAnswer Index of the chosen option (at most 127), or -1 for none
+     * @param responseMillis Time from the question opening to the answer
+     */
+    public void addResult(int userAnswer, boolean isCorrect, boolean isTimedOut, int responseMillis) {
+        if (totalQuestions == userAnswers.length) {
+            int capacity = Math.max(10, totalQuestions * 2);
+            userAnswers = Arrays.copyOf(userAnswers, capacity);
+            this.responseMillis = Arrays.copyOf(this.responseMillis, capacity);
+        }
+        userAnswers[totalQuestions] = (byte) userAnswer;
+        this.responseMillis[totalQuestions] = responseMillis;
 
         if (isCorrect) {
+            answerResults.set(totalQuestions);
             correctAnswers++;
         }
-
-        userAnswers.add(userAnswer);
-        answerResults.add(isCorrect);
-
         if (isTimedOut) {
-            timedOutQuestions.add("Question " + (questionNumber + 1));
+            timedOutQuestions.set(totalQuestions);
         }
+        totalQuestions++;
     }
 
     public int getTotalQuestions() {
@@ -94,165 +151,4138 @@ class QuizResult {
         return totalQuestions == 0 ? 0 : (int) (((double) correctAnswers / totalQuestions) * 100);
     }
 
-    public List<String> getTimedOutQuestions() {
-        return timedOutQuestions;
+    public int getTimedOutCount() {
+        return timedOutQuestions.cardinality();
+    }
+
+    /** The option chosen for a question, or -1 if none was. */
+    public int getUserAnswer(int question) {
+        return userAnswers[Objects.checkIndex(question, totalQuestions)];
+    }
+
+    public boolean isCorrect(int question) {
+        return answerResults.get(Objects.checkIndex(question, totalQuestions));
+    }
+
+    public boolean isTimedOut(int question) {
+        return timedOutQuestions.get(Objects.checkIndex(question, totalQuestions));
     }
 
-    public List<Boolean> getAnswerResults() {
-        return answerResults;
+    public int getResponseMillis(int question) {
+        return responseMillis[Objects.checkIndex(question, totalQuestions)];
     }
 }
 
-class ApiClient {
-    private static final String API_URL = "https://opentdb.com/api.php";
+/**
+ * Runs countdowns against the monotonic clock on a single thread, which
+ * sleeps until the earliest deadline rather than polling. Any number of
+ * countdowns can share one scheduler: the Swing app uses one for its
+ * quiz, and QuizServer one for all its sessions. Expiry callbacks run on
+ * the scheduler's thread and must be quick.
+ *
+ * Cancelling only marks a countdown, which is dropped when its deadline
+ * comes round, so the queue holds at most the countdowns started within
+ * the longest duration.
+ */
+class CountdownScheduler {
+    final class Countdown {
+        private final long deadline;
+        private final Runnable onExpiry;
+        private volatile boolean cancelled;
+
+        private Countdown(long deadline, Runnable onExpiry) {
+            this.deadline = deadline;
+            this.onExpiry = onExpiry;
+        }
+
+        public long getRemainingNanos() {
+            return Math.max(0, deadline - System.nanoTime());
+        }
+
+        public long getRemainingMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(getRemainingNanos());
+        }
+
+        /**
+         * Stops the countdown. Its callback can still run if it was already
+         * due, so callers racing an expiry must check their own state.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final PriorityQueue<Countdown> queue =
+            new PriorityQueue<>((a, b) -> Long.signum(a.deadline - b.deadline));
+    private boolean shutdown;
+
+    public CountdownScheduler(String threadName) {
+        Thread thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Starts a countdown that runs onExpiry once the duration is up. */
+    public Countdown start(long duration, TimeUnit unit, Runnable onExpiry) {
+        Countdown countdown = new Countdown(System.nanoTime() + unit.toNanos(duration), onExpiry);
+        synchronized (queue) {
+            queue.add(countdown);
+            // Only a new earliest deadline changes how long to sleep.
+            if (queue.peek() == countdown) {
+                queue.notify();
+            }
+        }
+        return countdown;
+    }
+
+    public void shutdown() {
+        synchronized (queue) {
+            shutdown = true;
+            queue.clear();
+            queue.notify();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Countdown due;
+            synchronized (queue) {
+                while (true) {
+                    if (shutdown) {
+                        return;
+                    }
+                    Countdown next = queue.peek();
+                    if (next != null && next.cancelled) {
+                        queue.poll();
+                        continue;
+                    }
+                    long wait = next == null ? 0 : next.deadline - System.nanoTime();
+                    if (next != null && wait <= 0) {
+                        due = queue.poll();
+                        break;
+                    }
+                    try {
+                        if (next == null) {
+                            queue.wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(queue, wait);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                due.onExpiry.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
+
+/**
+ * The question flow and scoring of one quiz, with no UI attached, so the
+ * Swing app and QuizServer run a quiz the same way. next() opens a question
+ * and starts its clock; the question closes when it is answered or when
+ * its time limit passes. The clock is kept here, so an answer that arrives
+ * after the deadline counts as timed out however it was delayed.
+ *
+ * All methods are thread-safe. Callers can synchronize on the engine to
+ * read several values consistently.
+ */
+class QuizEngine {
+    enum State { NOT_STARTED, OPEN, CLOSED, FINISHED }
+
+    /** Told when an open question times out, on the scheduler's thread. */
+    interface TimeoutListener {
+        void timedOut(int index);
+    }
+
+    private final List<Question> questions;
+    private final CountdownScheduler scheduler;
+    private final TimeoutListener listener;
+    private final QuizResult result;
+    private State state = State.NOT_STARTED;
+    private int index = -1;
+    private long openedAt;
+    private CountdownScheduler.Countdown countdown;
 
     /**
-     * Fetches questions from the Open Trivia Database API
-     * @param amount Number of questions to fetch
-     * @param category Category ID (optional, use null for any)
-     * @param difficulty Difficulty level (optional, use null for any)
-     * @param type Type of questions (optional, use null for any)
-     * @return List of Question objects
+     * @param questions The questions, in the order they are asked
+     * @param scheduler Runs the time limits; can be shared by many quizzes
+     * @param listener Told about time-outs (optional, use null for none)
      */
-    public static List<Question> fetchQuestions(int amount, Integer category, String difficulty, String type) {
-        List<Question> questions = new ArrayList<>();
+    public QuizEngine(List<Question> questions, CountdownScheduler scheduler, TimeoutListener listener) {
+        this.questions = questions;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.result = new QuizResult(questions.size());
+    }
+
+    /**
+     * Opens the next question and starts its clock. After the last
+     * question, finishes the quiz and returns null.
+     * @throws IllegalStateException if the current question is still open
+     */
+    public synchronized Question next() {
+        if (state == State.OPEN) {
+            throw new IllegalStateException("Question " + (index + 1) + " is still open");
+        }
+        if (state == State.FINISHED) {
+            return null;
+        }
+        if (++index >= questions.size()) {
+            state = State.FINISHED;
+            return null;
+        }
+
+        Question question = questions.get(index);
+        int opened = index;
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        countdown = scheduler.start(question.getTimeLimit(), TimeUnit.SECONDS, () -> expire(opened));
+        return question;
+    }
+
+    /**
+     * Answers the open question.
+     * @param option Index of the chosen option, or -1 for none
+     * @return Whether the answer was correct, or null if no question was
+     *         open: it had been answered already or its time was up
+     */
+    public Boolean answer(int option) {
+        int timedOut;
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return null;
+            }
+            if (countdown.getRemainingNanos() > 0) {
+                countdown.cancel();
+                boolean correct = option == questions.get(index).getCorrectAnswerIndex();
+                int millis = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt);
+                result.addResult(option, correct, false, millis);
+                state = State.CLOSED;
+                return correct;
+            }
+            // The time is up even if the time-out has not run yet.
+            timedOut = closeTimedOut();
+        }
+        notifyTimedOut(timedOut);
+        return null;
+    }
+
+    /** Abandons the quiz; no more questions open and no time-outs fire. */
+    public synchronized void cancel() {
+        if (countdown != null) {
+            countdown.cancel();
+        }
+        state = State.FINISHED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Index of the current question, -1 before the first. */
+    public synchronized int getIndex() {
+        return index;
+    }
+
+    public synchronized int getQuestionCount() {
+        return questions.size();
+    }
+
+    /** The open or last closed question, or null outside the quiz. */
+    public synchronized Question getQuestion() {
+        return index >= 0 && index < questions.size() ? questions.get(index) : null;
+    }
+
+    public synchronized long getRemainingMillis() {
+        return state == State.OPEN ? countdown.getRemainingMillis() : 0;
+    }
+
+    /** The results so far; only changes under the engine's lock. */
+    public QuizResult getResult() {
+        return result;
+    }
+
+    private void expire(int opened) {
+        synchronized (this) {
+            if (state != State.OPEN || index != opened) {
+                return;
+            }
+            closeTimedOut();
+        }
+        notifyTimedOut(opened);
+    }
+
+    private int closeTimedOut() {
+        countdown.cancel();
+        result.addResult(-1, false, true, questions.get(index).getTimeLimit() * 1000);
+        state = State.CLOSED;
+        return index;
+    }
+
+    private void notifyTimedOut(int timedOut) {
+        if (listener != null) {
+            listener.timedOut(timedOut);
+        }
+    }
+}
+
+/**
+ * Accuracy, time-outs and answer times merged from finished quizzes, per
+ * question, per category and overall. Recording only adds to counters, so
+ * any number of threads can record at once without taking a lock.
+ *
+ * Each set of counters is split into stripes, one per few threads, laid
+ * out whole cache lines apart so threads adding to the same question
+ * rarely contend; reads add the stripes up and are approximate while
+ * records are in flight. Answer times go into one-second buckets, the
+ * last taking anything from MAX_LATENCY_SECONDS on. Time-outs count
+ * against accuracy but not towards answer times.
+ */
+class QuizAnalytics {
+    static final int MAX_LATENCY_SECONDS = 60;
+    static final String UNKNOWN_CATEGORY = "Unknown";
+
+    // Counters of each stripe, followed by the answer time buckets. The
+    // questions asked are the time-outs plus the answers in the buckets.
+    private static final int CORRECT = 0;
+    private static final int TIMED_OUT = 1;
+    private static final int LATENCY_SUM = 2;
+    private static final int BUCKETS = 3;
+    private static final int STRIDE = (BUCKETS + MAX_LATENCY_SECONDS + 1 + 7) & ~7;
+    private static final int STRIPES =
+            Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    // Writes to one question are spread over many sessions' threads less
+    // often than to a category, and there are far more questions.
+    private static final int QUESTION_STRIPES = Math.min(STRIPES, 4);
+
+    /** The counters for one question, one category or the total. */
+    static final class Stats {
+        private final AtomicLongArray counters;
+        private final int stripeMask;
+
+        private Stats(int stripes) {
+            this.counters = new AtomicLongArray(stripes * STRIDE);
+            this.stripeMask = stripes - 1;
+        }
+
+        private int stripe() {
+            return ((int) Thread.currentThread().getId() & stripeMask) * STRIDE;
+        }
+
+        private void add(boolean correct, boolean timedOut, int responseMillis) {
+            int stripe = stripe();
+            if (correct) {
+                counters.getAndIncrement(stripe + CORRECT);
+            }
+            if (timedOut) {
+                counters.getAndIncrement(stripe + TIMED_OUT);
+            } else {
+                counters.getAndAdd(stripe + LATENCY_SUM, responseMillis);
+                counters.getAndIncrement(stripe + BUCKETS + Math.min(responseMillis / 1000, MAX_LATENCY_SECONDS));
+            }
+        }
+
+        /** Adds a whole quiz's counts at once; its answer times go in with addAnswer(). */
+        private void addCounts(int correct, int timedOut, long latencySum) {
+            int stripe = stripe();
+            counters.getAndAdd(stripe + CORRECT, correct);
+            counters.getAndAdd(stripe + TIMED_OUT, timedOut);
+            counters.getAndAdd(stripe + LATENCY_SUM, latencySum);
+        }
+
+        private void addAnswer(int responseMillis) {
+            counters.getAndIncrement(stripe() + BUCKETS + Math.min(responseMillis / 1000, MAX_LATENCY_SECONDS));
+        }
+
+        private long sum(int counter) {
+            long sum = 0;
+            for (int stripe = 0; stripe < counters.length(); stripe += STRIDE) {
+                sum += counters.get(stripe + counter);
+            }
+            return sum;
+        }
+
+        public long getAsked() {
+            long asked = sum(TIMED_OUT);
+            for (int i = 0; i <= MAX_LATENCY_SECONDS; i++) {
+                asked += sum(BUCKETS + i);
+            }
+            return asked;
+        }
+
+        public long getCorrect() {
+            return sum(CORRECT);
+        }
+
+        public long getTimedOut() {
+            return sum(TIMED_OUT);
+        }
+
+        /** Fraction of questions answered correctly, 0 if none were asked. */
+        public double getAccuracy() {
+            long asked = getAsked();
+            return asked == 0 ? 0 : (double) getCorrect() / asked;
+        }
+
+        public double getTimeoutRate() {
+            long asked = getAsked();
+            return asked == 0 ? 0 : (double) getTimedOut() / asked;
+        }
+
+        /** Mean time to answer, leaving out time-outs; 0 if nothing was answered. */
+        public long getMeanMillis() {
+            long answered = getAsked() - getTimedOut();
+            return answered <= 0 ? 0 : sum(LATENCY_SUM) / answered;
+        }
+
+        /**
+         * Answers per second of answer time: element i counts answers given
+         * after i to i+1 seconds, the last one everything slower.
+         */
+        public long[] getLatencyHistogram() {
+            long[] histogram = new long[MAX_LATENCY_SECONDS + 1];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = sum(BUCKETS + i);
+            }
+            return histogram;
+        }
+
+        /**
+         * The whole seconds within which the given fraction of answers came
+         * in, e.g. 0.9 for the 90th percentile; 0 if nothing was answered.
+         */
+        public int getPercentileSeconds(double fraction) {
+            long[] histogram = getLatencyHistogram();
+            long answered = 0;
+            for (long count : histogram) {
+                answered += count;
+            }
+            long wanted = (long) Math.ceil(fraction * answered);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= wanted && seen > 0) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final LongAdder quizzes = new LongAdder();
+    private final Stats total = new Stats(STRIPES);
+    private final Map<String, Stats> categories = new ConcurrentHashMap<>();
+    private final Map<String, Stats> questions = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a finished quiz.
+     * @param asked The quiz's questions, in the order they were asked
+     * @param result Its result, which must not change any more
+     */
+    public void record(List<Question> asked, QuizResult result) {
+        quizzes.increment();
+        long latencySum = 0;
+        for (int i = 0; i < result.getTotalQuestions(); i++) {
+            Question question = asked.get(i);
+            boolean correct = result.isCorrect(i);
+            boolean timedOut = result.isTimedOut(i);
+            int millis = result.getResponseMillis(i);
+
+            String category = question.getCategory() == null ? UNKNOWN_CATEGORY : question.getCategory();
+            stats(categories, category, STRIPES).add(correct, timedOut, millis);
+            stats(questions, question.getQuestionText(), QUESTION_STRIPES).add(correct, timedOut, millis);
+            if (!timedOut) {
+                total.addAnswer(millis);
+                latencySum += millis;
+            }
+        }
+        total.addCounts(result.getCorrectAnswers(), result.getTimedOutCount(), latencySum);
+    }
+
+    private static Stats stats(Map<String, Stats> map, String key, int stripes) {
+        // get() first: computeIfAbsent can lock the bin even when the key is there.
+        Stats stats = map.get(key);
+        return stats != null ? stats : map.computeIfAbsent(key, k -> new Stats(stripes));
+    }
+
+    public long getQuizCount() {
+        return quizzes.sum();
+    }
+
+    public Stats getTotal() {
+        return total;
+    }
+
+    /** Stats by category name; questions without one are under UNKNOWN_CATEGORY. */
+    public Map<String, Stats> getCategories() {
+        return Collections.unmodifiableMap(categories);
+    }
+
+    /** Stats by question text. */
+    public Map<String, Stats> getQuestions() {
+        return Collections.unmodifiableMap(questions);
+    }
+}
+
+/**
+ * Questions downloaded from the API, kept on disk in one pool per category,
+ * difficulty and type so a quiz can start from the pool straight away and
+ * still start when the API cannot be reached.
+ *
+ * A pool is due for a refresh once it is older than TTL_MILLIS, or while it
+ * holds fewer than TARGET_POOL_SIZE questions (at most once a minute). Each
+ * pool keeps at most MAX_POOL_SIZE questions, newest last, and once the
+ * whole cache exceeds MAX_TOTAL_QUESTIONS the least recently used pools are
+ * dropped.
+ */
+class QuestionCache {
+    static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    static final long MIN_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final int TARGET_POOL_SIZE = 100;
+    static final int MAX_POOL_SIZE = 500;
+    static final int MAX_TOTAL_QUESTIONS = 5000;
+
+    private static final int MAGIC = 0x51554943;
+    private static final int FORMAT_VERSION = 2;
+
+    private static class Pool {
+        final List<Question> questions = new ArrayList<>();
+        final Set<String> texts = new HashSet<>();
+        long refreshedAt;
+
+        boolean add(Question question) {
+            if (!texts.add(question.getQuestionText())) {
+                return false;
+            }
+            questions.add(question);
+            return true;
+        }
+
+        void trimTo(int size) {
+            while (questions.size() > size) {
+                texts.remove(questions.remove(0).getQuestionText());
+            }
+        }
+    }
+
+    private final Path file;
+    // Access order, so iteration starts at the least recently used pool.
+    private final LinkedHashMap<String, Pool> pools = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object saveLock = new Object();
+    private final Random random = new Random();
+    private int totalQuestions;
+
+    public QuestionCache(Path file) {
+        this.file = file;
+        try {
+            load();
+        } catch (IOException e) {
+            System.out.println("Could not read question cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    public static String key(Integer category, String difficulty, String type) {
+        return (category == null ? "any" : category.toString())
+                + "/" + (difficulty == null || difficulty.isEmpty() ? "any" : difficulty.toLowerCase())
+                + "/" + (type == null || type.isEmpty() ? "any" : type.toLowerCase());
+    }
+
+    /**
+     * Returns up to amount distinct questions from the pool, in random order.
+     * The list is empty if nothing is cached for the key.
+     */
+    public synchronized List<Question> sample(String key, int amount) {
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            return new ArrayList<>();
+        }
+        List<Question> shuffled = new ArrayList<>(pool.questions);
+        int count = Math.min(amount, shuffled.size());
+        for (int i = 0; i < count; i++) {
+            Collections.swap(shuffled, i, i + random.nextInt(shuffled.size() - i));
+        }
+        return new ArrayList<>(shuffled.subList(0, count));
+    }
+
+    public synchronized boolean needsRefresh(String key) {
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            return true;
+        }
+        long age = System.currentTimeMillis() - pool.refreshedAt;
+        return age > TTL_MILLIS || (pool.questions.size() < TARGET_POOL_SIZE && age > MIN_REFRESH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Adds freshly downloaded questions to the pool, skipping ones it already
+     * holds, and writes the cache back to disk.
+     */
+    public void add(String key, List<Question> questions) {
+        synchronized (this) {
+            Pool pool = pools.computeIfAbsent(key, k -> new Pool());
+            totalQuestions -= pool.questions.size();
+            for (Question question : questions) {
+                pool.add(question);
+            }
+            pool.trimTo(MAX_POOL_SIZE);
+            pool.refreshedAt = System.currentTimeMillis();
+            totalQuestions += pool.questions.size();
+
+            Iterator<Map.Entry<String, Pool>> leastRecent = pools.entrySet().iterator();
+            while (totalQuestions > MAX_TOTAL_QUESTIONS && leastRecent.hasNext()) {
+                Map.Entry<String, Pool> entry = leastRecent.next();
+                if (!entry.getKey().equals(key)) {
+                    totalQuestions -= entry.getValue().questions.size();
+                    leastRecent.remove();
+                }
+            }
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            System.out.println("Could not write question cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("not a question cache");
+            }
+            int poolCount = in.readInt();
+            for (int i = 0; i < poolCount; i++) {
+                String key = in.readUTF();
+                Pool pool = new Pool();
+                pool.refreshedAt = in.readLong();
+                int questionCount = in.readInt();
+                for (int j = 0; j < questionCount; j++) {
+                    String questionText = in.readUTF();
+                    String[] options = new String[in.readUnsignedByte()];
+                    for (int k = 0; k < options.length; k++) {
+                        options[k] = in.readUTF();
+                    }
+                    int correctAnswerIndex = in.readUnsignedByte();
+                    int timeLimit = in.readUnsignedShort();
+                    String category = in.readUTF();
+                    pool.add(new Question(questionText, options, correctAnswerIndex, timeLimit,
+                            category.isEmpty() ? null : category));
+                }
+                pools.put(key, pool);
+                totalQuestions += pool.questions.size();
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing cached yet.
+        }
+    }
+
+    /**
+     * Writes a snapshot of the pools, least recently used first, to a
+     * temporary file and moves it over the cache file.
+     */
+    private void save() throws IOException {
+        synchronized (saveLock) {
+            Map<String, Pool> snapshot = new LinkedHashMap<>();
+            synchronized (this) {
+                for (Map.Entry<String, Pool> entry : pools.entrySet()) {
+                    Pool copy = new Pool();
+                    copy.questions.addAll(entry.getValue().questions);
+                    copy.refreshedAt = entry.getValue().refreshedAt;
+                    snapshot.put(entry.getKey(), copy);
+                }
+            }
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Pool> entry : snapshot.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().refreshedAt);
+                    out.writeInt(entry.getValue().questions.size());
+                    for (Question question : entry.getValue().questions) {
+                        out.writeUTF(question.getQuestionText());
+                        out.writeByte(question.getOptions().length);
+                        for (String option : question.getOptions()) {
+                            out.writeUTF(option);
+                        }
+                        out.writeByte(question.getCorrectAnswerIndex());
+                        out.writeShort(question.getTimeLimit());
+                        out.writeUTF(question.getCategory() == null ? "" : question.getCategory());
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
+
+/**
+ * Minimal pull parser for JSON text. The caller walks the document with
+ * beginObject/nextName/nextString and friends, and the parser reads the
+ * underlying Reader through its own buffer as it goes, so only the value
+ * being read is ever materialized. Values the caller does not want are
+ * skipped with skipValue.
+ */
+class JsonPullParser {
+    private static final int MAX_DEPTH = 64;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder scratch = new StringBuilder();
+    private int pos;
+    private int limit;
+    private long consumed;
+    private int depth;
+    // Whether a value has been read at each depth, so the next one must be
+    // preceded by a comma.
+    private final boolean[] needsComma = new boolean[MAX_DEPTH + 1];
+
+    public JsonPullParser(Reader in) {
+        this.in = in;
+    }
+
+    public void beginObject() throws IOException {
+        open('{');
+    }
+
+    public void endObject() throws IOException {
+        close('}');
+    }
+
+    public void beginArray() throws IOException {
+        open('[');
+    }
+
+    public void endArray() throws IOException {
+        close(']');
+    }
+
+    /**
+     * Whether the current object or array has another member, consuming the
+     * comma in front of it.
+     */
+    public boolean hasNext() throws IOException {
+        int c = peek();
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        if (needsComma[depth]) {
+            if (c != ',') {
+                throw syntaxError("expected ',' but found " + describe(c));
+            }
+            pos++;
+            needsComma[depth] = false;
+        }
+        return true;
+    }
+
+    public String nextName() throws IOException {
+        expect('"');
+        String name = readString();
+        if (peek() != ':') {
+            throw syntaxError("expected ':' after name \"" + name + "\"");
+        }
+        pos++;
+        return name;
+    }
+
+    public String nextString() throws IOException {
+        expect('"');
+        String value = readString();
+        needsComma[depth] = true;
+        return value;
+    }
+
+    public long nextLong() throws IOException {
+        int c = peek();
+        boolean negative = c == '-';
+        if (negative) {
+            pos++;
+            c = fill() ? buffer[pos] : -1;
+        }
+        if (c < '0' || c > '9') {
+            throw syntaxError("expected a number but found " + describe(c));
+        }
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+            pos++;
+            c = fill() ? buffer[pos] : -1;
+        }
+        if (c == '.' || c == 'e' || c == 'E') {
+            throw syntaxError("expected an integer");
+        }
+        needsComma[depth] = true;
+        return negative ? -value : value;
+    }
+
+    /** Skips the next value, including everything nested inside it. */
+    public void skipValue() throws IOException {
+        int c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else if (c == '"') {
+            nextString();
+        } else {
+            // true, false, null or a number
+            int length = 0;
+            while (fill() && ",}] \t\r\n".indexOf(buffer[pos]) < 0) {
+                pos++;
+                length++;
+            }
+            if (length == 0) {
+                throw syntaxError("unexpected " + describe(c));
+            }
+            needsComma[depth] = true;
+        }
+    }
+
+    private void open(char bracket) throws IOException {
+        expect(bracket);
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("nested too deeply");
+        }
+        depth++;
+        needsComma[depth] = false;
+    }
+
+    private void close(char bracket) throws IOException {
+        expect(bracket);
+        depth--;
+        needsComma[depth] = true;
+    }
+
+    private void expect(char c) throws IOException {
+        int found = peek();
+        if (found != c) {
+            throw syntaxError("expected '" + c + "' but found " + describe(found));
+        }
+        pos++;
+    }
+
+    /** Reads the rest of a string whose opening quote has been consumed. */
+    private String readString() throws IOException {
+        // Fast path: the whole string, without escapes, is in the buffer.
+        for (int i = pos; i < limit; i++) {
+            char c = buffer[i];
+            if (c == '"') {
+                String value = new String(buffer, pos, i - pos);
+                pos = i + 1;
+                return value;
+            }
+            if (c == '\\') {
+                break;
+            }
+        }
+
+        scratch.setLength(0);
+        while (true) {
+            if (!fill()) {
+                throw syntaxError("unterminated string");
+            }
+            int start = pos;
+            while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+                pos++;
+            }
+            scratch.append(buffer, start, pos - start);
+            if (pos == limit) {
+                continue;
+            }
+            if (buffer[pos++] == '"') {
+                return scratch.toString();
+            }
+            scratch.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (!fill()) {
+            throw syntaxError("unterminated escape");
+        }
+        char c = buffer[pos++];
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (!fill()) {
+                        throw syntaxError("unterminated escape");
+                    }
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("malformed \\u escape");
+                    }
+                    code = code << 4 | digit;
+                }
+                return (char) code;
+            default:
+                throw syntaxError("unknown escape \\" + c);
+        }
+    }
+
+    /** The next character after any whitespace, without consuming it, or -1 at the end. */
+    private int peek() throws IOException {
+        while (fill()) {
+            char c = buffer[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /** Makes sure buffer[pos] is readable, returning false at the end of input. */
+    private boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON at offset " + (consumed + pos) + ": " + message);
+    }
+
+    private static String describe(int c) {
+        return c < 0 ? "end of input" : "'" + (char) c + "'";
+    }
+}
+
+/**
+ * Decodes HTML character references in a single pass over the string:
+ * every named reference in HTML5, including the legacy ones that may be
+ * written without the semicolon, and decimal and hexadecimal numeric
+ * references. Strings without an ampersand are returned as they are,
+ * without allocating.
+ */
+class HtmlEntities {
+    // name=code points in hex, sorted by name, from the HTML5 named
+    // character reference list.
+    private static final String[] TABLE = {
+        "AElig=C6 AElig;=C6 AMP=26 AMP;=26 Aacute=C1 Aacute;=C1 Abreve;=102 Acirc=C2 Acirc;=C2 Acy;=410",
+        "Afr;=1D504 Agrave=C0 Agrave;=C0 Alpha;=391 Amacr;=100 And;=2A53 Aogon;=104 Aopf;=1D538",
+        "ApplyFunction;=2061 Aring=C5 Aring;=C5 Ascr;=1D49C Assign;=2254 Atilde=C3 Atilde;=C3 Auml=C4",
+        "Auml;=C4 Backslash;=2216 Barv;=2AE7 Barwed;=2306 Bcy;=411 Because;=2235 Bernoullis;=212C",
+        "Beta;=392 Bfr;=1D505 Bopf;=1D539 Breve;=2D8 Bscr;=212C Bumpeq;=224E CHcy;=427 COPY=A9 COPY;=A9",
+        "Cacute;=106 Cap;=22D2 CapitalDifferentialD;=2145 Cayleys;=212D Ccaron;=10C Ccedil=C7 Ccedil;=C7",
+        "Ccirc;=108 Cconint;=2230 Cdot;=10A Cedilla;=B8 CenterDot;=B7 Cfr;=212D Chi;=3A7 CircleDot;=2299",
+        "CircleMinus;=2296 CirclePlus;=2295 CircleTimes;=2297 ClockwiseContourIntegral;=2232",
+        "CloseCurlyDoubleQuote;=201D CloseCurlyQuote;=2019 Colon;=2237 Colone;=2A74 Congruent;=2261",
+        "Conint;=222F ContourIntegral;=222E Copf;=2102 Coproduct;=2210",
+        "CounterClockwiseContourIntegral;=2233 Cross;=2A2F Cscr;=1D49E Cup;=22D3 CupCap;=224D DD;=2145",
+        "DDotrahd;=2911 DJcy;=402 DScy;=405 DZcy;=40F Dagger;=2021 Darr;=21A1 Dashv;=2AE4 Dcaron;=10E",
+        "Dcy;=414 Del;=2207 Delta;=394 Dfr;=1D507 DiacriticalAcute;=B4 DiacriticalDot;=2D9",
+        "DiacriticalDoubleAcute;=2DD DiacriticalGrave;=60 DiacriticalTilde;=2DC Diamond;=22C4",
+        "DifferentialD;=2146 Dopf;=1D53B Dot;=A8 DotDot;=20DC DotEqual;=2250 DoubleContourIntegral;=222F",
+        "DoubleDot;=A8 DoubleDownArrow;=21D3 DoubleLeftArrow;=21D0 DoubleLeftRightArrow;=21D4",
+        "DoubleLeftTee;=2AE4 DoubleLongLeftArrow;=27F8 DoubleLongLeftRightArrow;=27FA",
+        "DoubleLongRightArrow;=27F9 DoubleRightArrow;=21D2 DoubleRightTee;=22A8 DoubleUpArrow;=21D1",
+        "DoubleUpDownArrow;=21D5 DoubleVerticalBar;=2225 DownArrow;=2193 DownArrowBar;=2913",
+        "DownArrowUpArrow;=21F5 DownBreve;=311 DownLeftRightVector;=2950 DownLeftTeeVector;=295E",
+        "DownLeftVector;=21BD DownLeftVectorBar;=2956 DownRightTeeVector;=295F DownRightVector;=21C1",
+        "DownRightVectorBar;=2957 DownTee;=22A4 DownTeeArrow;=21A7 Downarrow;=21D3 Dscr;=1D49F",
+        "Dstrok;=110 ENG;=14A ETH=D0 ETH;=D0 Eacute=C9 Eacute;=C9 Ecaron;=11A Ecirc=CA Ecirc;=CA Ecy;=42D",
+        "Edot;=116 Efr;=1D508 Egrave=C8 Egrave;=C8 Element;=2208 Emacr;=112 EmptySmallSquare;=25FB",
+        "EmptyVerySmallSquare;=25AB Eogon;=118 Eopf;=1D53C Epsilon;=395 Equal;=2A75 EqualTilde;=2242",
+        "Equilibrium;=21CC Escr;=2130 Esim;=2A73 Eta;=397 Euml=CB Euml;=CB Exists;=2203",
+        "ExponentialE;=2147 Fcy;=424 Ffr;=1D509 FilledSmallSquare;=25FC FilledVerySmallSquare;=25AA",
+        "Fopf;=1D53D ForAll;=2200 Fouriertrf;=2131 Fscr;=2131 GJcy;=403 GT=3E GT;=3E Gamma;=393",
+        "Gammad;=3DC Gbreve;=11E Gcedil;=122 Gcirc;=11C Gcy;=413 Gdot;=120 Gfr;=1D50A Gg;=22D9",
+        "Gopf;=1D53E GreaterEqual;=2265 GreaterEqualLess;=22DB GreaterFullEqual;=2267",
+        "GreaterGreater;=2AA2 GreaterLess;=2277 GreaterSlantEqual;=2A7E GreaterTilde;=2273 Gscr;=1D4A2",
+        "Gt;=226B HARDcy;=42A Hacek;=2C7 Hat;=5E Hcirc;=124 Hfr;=210C HilbertSpace;=210B Hopf;=210D",
+        "HorizontalLine;=2500 Hscr;=210B Hstrok;=126 HumpDownHump;=224E HumpEqual;=224F IEcy;=415",
+        "IJlig;=132 IOcy;=401 Iacute=CD Iacute;=CD Icirc=CE Icirc;=CE Icy;=418 Idot;=130 Ifr;=2111",
+        "Igrave=CC Igrave;=CC Im;=2111 Imacr;=12A ImaginaryI;=2148 Implies;=21D2 Int;=222C Integral;=222B",
+        "Intersection;=22C2 InvisibleComma;=2063 InvisibleTimes;=2062 Iogon;=12E Iopf;=1D540 Iota;=399",
+        "Iscr;=2110 Itilde;=128 Iukcy;=406 Iuml=CF Iuml;=CF Jcirc;=134 Jcy;=419 Jfr;=1D50D Jopf;=1D541",
+        "Jscr;=1D4A5 Jsercy;=408 Jukcy;=404 KHcy;=425 KJcy;=40C Kappa;=39A Kcedil;=136 Kcy;=41A",
+        "Kfr;=1D50E Kopf;=1D542 Kscr;=1D4A6 LJcy;=409 LT=3C LT;=3C Lacute;=139 Lambda;=39B Lang;=27EA",
+        "Laplacetrf;=2112 Larr;=219E Lcaron;=13D Lcedil;=13B Lcy;=41B LeftAngleBracket;=27E8",
+        "LeftArrow;=2190 LeftArrowBar;=21E4 LeftArrowRightArrow;=21C6 LeftCeiling;=2308",
+        "LeftDoubleBracket;=27E6 LeftDownTeeVector;=2961 LeftDownVector;=21C3 LeftDownVectorBar;=2959",
+        "LeftFloor;=230A LeftRightArrow;=2194 LeftRightVector;=294E LeftTee;=22A3 LeftTeeArrow;=21A4",
+        "LeftTeeVector;=295A LeftTriangle;=22B2 LeftTriangleBar;=29CF LeftTriangleEqual;=22B4",
+        "LeftUpDownVector;=2951 LeftUpTeeVector;=2960 LeftUpVector;=21BF LeftUpVectorBar;=2958",
+        "LeftVector;=21BC LeftVectorBar;=2952 Leftarrow;=21D0 Leftrightarrow;=21D4 LessEqualGreater;=22DA",
+        "LessFullEqual;=2266 LessGreater;=2276 LessLess;=2AA1 LessSlantEqual;=2A7D LessTilde;=2272",
+        "Lfr;=1D50F Ll;=22D8 Lleftarrow;=21DA Lmidot;=13F LongLeftArrow;=27F5 LongLeftRightArrow;=27F7",
+        "LongRightArrow;=27F6 Longleftarrow;=27F8 Longleftrightarrow;=27FA Longrightarrow;=27F9",
+        "Lopf;=1D543 LowerLeftArrow;=2199 LowerRightArrow;=2198 Lscr;=2112 Lsh;=21B0 Lstrok;=141 Lt;=226A",
+        "Map;=2905 Mcy;=41C MediumSpace;=205F Mellintrf;=2133 Mfr;=1D510 MinusPlus;=2213 Mopf;=1D544",
+        "Mscr;=2133 Mu;=39C NJcy;=40A Nacute;=143 Ncaron;=147 Ncedil;=145 Ncy;=41D",
+        "NegativeMediumSpace;=200B NegativeThickSpace;=200B NegativeThinSpace;=200B",
+        "NegativeVeryThinSpace;=200B NestedGreaterGreater;=226B NestedLessLess;=226A NewLine;=A",
+        "Nfr;=1D511 NoBreak;=2060 NonBreakingSpace;=A0 Nopf;=2115 Not;=2AEC NotCongruent;=2262",
+        "NotCupCap;=226D NotDoubleVerticalBar;=2226 NotElement;=2209 NotEqual;=2260",
+        "NotEqualTilde;=2242,338 NotExists;=2204 NotGreater;=226F NotGreaterEqual;=2271",
+        "NotGreaterFullEqual;=2267,338 NotGreaterGreater;=226B,338 NotGreaterLess;=2279",
+        "NotGreaterSlantEqual;=2A7E,338 NotGreaterTilde;=2275 NotHumpDownHump;=224E,338",
+        "NotHumpEqual;=224F,338 NotLeftTriangle;=22EA NotLeftTriangleBar;=29CF,338",
+        "NotLeftTriangleEqual;=22EC NotLess;=226E NotLessEqual;=2270 NotLessGreater;=2278",
+        "NotLessLess;=226A,338 NotLessSlantEqual;=2A7D,338 NotLessTilde;=2274",
+        "NotNestedGreaterGreater;=2AA2,338 NotNestedLessLess;=2AA1,338 NotPrecedes;=2280",
+        "NotPrecedesEqual;=2AAF,338 NotPrecedesSlantEqual;=22E0 NotReverseElement;=220C",
+        "NotRightTriangle;=22EB NotRightTriangleBar;=29D0,338 NotRightTriangleEqual;=22ED",
+        "NotSquareSubset;=228F,338 NotSquareSubsetEqual;=22E2 NotSquareSuperset;=2290,338",
+        "NotSquareSupersetEqual;=22E3 NotSubset;=2282,20D2 NotSubsetEqual;=2288 NotSucceeds;=2281",
+        "NotSucceedsEqual;=2AB0,338 NotSucceedsSlantEqual;=22E1 NotSucceedsTilde;=227F,338",
+        "NotSuperset;=2283,20D2 NotSupersetEqual;=2289 NotTilde;=2241 NotTildeEqual;=2244",
+        "NotTildeFullEqual;=2247 NotTildeTilde;=2249 NotVerticalBar;=2224 Nscr;=1D4A9 Ntilde=D1",
+        "Ntilde;=D1 Nu;=39D OElig;=152 Oacute=D3 Oacute;=D3 Ocirc=D4 Ocirc;=D4 Ocy;=41E Odblac;=150",
+        "Ofr;=1D512 Ograve=D2 Ograve;=D2 Omacr;=14C Omega;=3A9 Omicron;=39F Oopf;=1D546",
+        "OpenCurlyDoubleQuote;=201C OpenCurlyQuote;=2018 Or;=2A54 Oscr;=1D4AA Oslash=D8 Oslash;=D8",
+        "Otilde=D5 Otilde;=D5 Otimes;=2A37 Ouml=D6 Ouml;=D6 OverBar;=203E OverBrace;=23DE",
+        "OverBracket;=23B4 OverParenthesis;=23DC PartialD;=2202 Pcy;=41F Pfr;=1D513 Phi;=3A6 Pi;=3A0",
+        "PlusMinus;=B1 Poincareplane;=210C Popf;=2119 Pr;=2ABB Precedes;=227A PrecedesEqual;=2AAF",
+        "PrecedesSlantEqual;=227C PrecedesTilde;=227E Prime;=2033 Product;=220F Proportion;=2237",
+        "Proportional;=221D Pscr;=1D4AB Psi;=3A8 QUOT=22 QUOT;=22 Qfr;=1D514 Qopf;=211A Qscr;=1D4AC",
+        "RBarr;=2910 REG=AE REG;=AE Racute;=154 Rang;=27EB Rarr;=21A0 Rarrtl;=2916 Rcaron;=158",
+        "Rcedil;=156 Rcy;=420 Re;=211C ReverseElement;=220B ReverseEquilibrium;=21CB",
+        "ReverseUpEquilibrium;=296F Rfr;=211C Rho;=3A1 RightAngleBracket;=27E9 RightArrow;=2192",
+        "RightArrowBar;=21E5 RightArrowLeftArrow;=21C4 RightCeiling;=2309 RightDoubleBracket;=27E7",
+        "RightDownTeeVector;=295D RightDownVector;=21C2 RightDownVectorBar;=2955 RightFloor;=230B",
+        "RightTee;=22A2 RightTeeArrow;=21A6 RightTeeVector;=295B RightTriangle;=22B3",
+        "RightTriangleBar;=29D0 RightTriangleEqual;=22B5 RightUpDownVector;=294F RightUpTeeVector;=295C",
+        "RightUpVector;=21BE RightUpVectorBar;=2954 RightVector;=21C0 RightVectorBar;=2953",
+        "Rightarrow;=21D2 Ropf;=211D RoundImplies;=2970 Rrightarrow;=21DB Rscr;=211B Rsh;=21B1",
+        "RuleDelayed;=29F4 SHCHcy;=429 SHcy;=428 SOFTcy;=42C Sacute;=15A Sc;=2ABC Scaron;=160 Scedil;=15E",
+        "Scirc;=15C Scy;=421 Sfr;=1D516 ShortDownArrow;=2193 ShortLeftArrow;=2190 ShortRightArrow;=2192",
+        "ShortUpArrow;=2191 Sigma;=3A3 SmallCircle;=2218 Sopf;=1D54A Sqrt;=221A Square;=25A1",
+        "SquareIntersection;=2293 SquareSubset;=228F SquareSubsetEqual;=2291 SquareSuperset;=2290",
+        "SquareSupersetEqual;=2292 SquareUnion;=2294 Sscr;=1D4AE Star;=22C6 Sub;=22D0 Subset;=22D0",
+        "SubsetEqual;=2286 Succeeds;=227B SucceedsEqual;=2AB0 SucceedsSlantEqual;=227D",
+        "SucceedsTilde;=227F SuchThat;=220B Sum;=2211 Sup;=22D1 Superset;=2283 SupersetEqual;=2287",
+        "Supset;=22D1 THORN=DE THORN;=DE TRADE;=2122 TSHcy;=40B TScy;=426 Tab;=9 Tau;=3A4 Tcaron;=164",
+        "Tcedil;=162 Tcy;=422 Tfr;=1D517 Therefore;=2234 Theta;=398 ThickSpace;=205F,200A ThinSpace;=2009",
+        "Tilde;=223C TildeEqual;=2243 TildeFullEqual;=2245 TildeTilde;=2248 Topf;=1D54B TripleDot;=20DB",
+        "Tscr;=1D4AF Tstrok;=166 Uacute=DA Uacute;=DA Uarr;=219F Uarrocir;=2949 Ubrcy;=40E Ubreve;=16C",
+        "Ucirc=DB Ucirc;=DB Ucy;=423 Udblac;=170 Ufr;=1D518 Ugrave=D9 Ugrave;=D9 Umacr;=16A UnderBar;=5F",
+        "UnderBrace;=23DF UnderBracket;=23B5 UnderParenthesis;=23DD Union;=22C3 UnionPlus;=228E",
+        "Uogon;=172 Uopf;=1D54C UpArrow;=2191 UpArrowBar;=2912 UpArrowDownArrow;=21C5 UpDownArrow;=2195",
+        "UpEquilibrium;=296E UpTee;=22A5 UpTeeArrow;=21A5 Uparrow;=21D1 Updownarrow;=21D5",
+        "UpperLeftArrow;=2196 UpperRightArrow;=2197 Upsi;=3D2 Upsilon;=3A5 Uring;=16E Uscr;=1D4B0",
+        "Utilde;=168 Uuml=DC Uuml;=DC VDash;=22AB Vbar;=2AEB Vcy;=412 Vdash;=22A9 Vdashl;=2AE6 Vee;=22C1",
+        "Verbar;=2016 Vert;=2016 VerticalBar;=2223 VerticalLine;=7C VerticalSeparator;=2758",
+        "VerticalTilde;=2240 VeryThinSpace;=200A Vfr;=1D519 Vopf;=1D54D Vscr;=1D4B1 Vvdash;=22AA",
+        "Wcirc;=174 Wedge;=22C0 Wfr;=1D51A Wopf;=1D54E Wscr;=1D4B2 Xfr;=1D51B Xi;=39E Xopf;=1D54F",
+        "Xscr;=1D4B3 YAcy;=42F YIcy;=407 YUcy;=42E Yacute=DD Yacute;=DD Ycirc;=176 Ycy;=42B Yfr;=1D51C",
+        "Yopf;=1D550 Yscr;=1D4B4 Yuml;=178 ZHcy;=416 Zacute;=179 Zcaron;=17D Zcy;=417 Zdot;=17B",
+        "ZeroWidthSpace;=200B Zeta;=396 Zfr;=2128 Zopf;=2124 Zscr;=1D4B5 aacute=E1 aacute;=E1 abreve;=103",
+        "ac;=223E acE;=223E,333 acd;=223F acirc=E2 acirc;=E2 acute=B4 acute;=B4 acy;=430 aelig=E6",
+        "aelig;=E6 af;=2061 afr;=1D51E agrave=E0 agrave;=E0 alefsym;=2135 aleph;=2135 alpha;=3B1",
+        "amacr;=101 amalg;=2A3F amp=26 amp;=26 and;=2227 andand;=2A55 andd;=2A5C andslope;=2A58",
+        "andv;=2A5A ang;=2220 ange;=29A4 angle;=2220 angmsd;=2221 angmsdaa;=29A8 angmsdab;=29A9",
+        "angmsdac;=29AA angmsdad;=29AB angmsdae;=29AC angmsdaf;=29AD angmsdag;=29AE angmsdah;=29AF",
+        "angrt;=221F angrtvb;=22BE angrtvbd;=299D angsph;=2222 angst;=C5 angzarr;=237C aogon;=105",
+        "aopf;=1D552 ap;=2248 apE;=2A70 apacir;=2A6F ape;=224A apid;=224B apos;=27 approx;=2248",
+        "approxeq;=224A aring=E5 aring;=E5 ascr;=1D4B6 ast;=2A asymp;=2248 asympeq;=224D atilde=E3",
+        "atilde;=E3 auml=E4 auml;=E4 awconint;=2233 awint;=2A11 bNot;=2AED backcong;=224C",
+        "backepsilon;=3F6 backprime;=2035 backsim;=223D backsimeq;=22CD barvee;=22BD barwed;=2305",
+        "barwedge;=2305 bbrk;=23B5 bbrktbrk;=23B6 bcong;=224C bcy;=431 bdquo;=201E becaus;=2235",
+        "because;=2235 bemptyv;=29B0 bepsi;=3F6 bernou;=212C beta;=3B2 beth;=2136 between;=226C",
+        "bfr;=1D51F bigcap;=22C2 bigcirc;=25EF bigcup;=22C3 bigodot;=2A00 bigoplus;=2A01 bigotimes;=2A02",
+        "bigsqcup;=2A06 bigstar;=2605 bigtriangledown;=25BD bigtriangleup;=25B3 biguplus;=2A04",
+        "bigvee;=22C1 bigwedge;=22C0 bkarow;=290D blacklozenge;=29EB blacksquare;=25AA",
+        "blacktriangle;=25B4 blacktriangledown;=25BE blacktriangleleft;=25C2 blacktriangleright;=25B8",
+        "blank;=2423 blk12;=2592 blk14;=2591 blk34;=2593 block;=2588 bne;=3D,20E5 bnequiv;=2261,20E5",
+        "bnot;=2310 bopf;=1D553 bot;=22A5 bottom;=22A5 bowtie;=22C8 boxDL;=2557 boxDR;=2554 boxDl;=2556",
+        "boxDr;=2553 boxH;=2550 boxHD;=2566 boxHU;=2569 boxHd;=2564 boxHu;=2567 boxUL;=255D boxUR;=255A",
+        "boxUl;=255C boxUr;=2559 boxV;=2551 boxVH;=256C boxVL;=2563 boxVR;=2560 boxVh;=256B boxVl;=2562",
+        "boxVr;=255F boxbox;=29C9 boxdL;=2555 boxdR;=2552 boxdl;=2510 boxdr;=250C boxh;=2500 boxhD;=2565",
+        "boxhU;=2568 boxhd;=252C boxhu;=2534 boxminus;=229F boxplus;=229E boxtimes;=22A0 boxuL;=255B",
+        "boxuR;=2558 boxul;=2518 boxur;=2514 boxv;=2502 boxvH;=256A boxvL;=2561 boxvR;=255E boxvh;=253C",
+        "boxvl;=2524 boxvr;=251C bprime;=2035 breve;=2D8 brvbar=A6 brvbar;=A6 bscr;=1D4B7 bsemi;=204F",
+        "bsim;=223D bsime;=22CD bsol;=5C bsolb;=29C5 bsolhsub;=27C8 bull;=2022 bullet;=2022 bump;=224E",
+        "bumpE;=2AAE bumpe;=224F bumpeq;=224F cacute;=107 cap;=2229 capand;=2A44 capbrcup;=2A49",
+        "capcap;=2A4B capcup;=2A47 capdot;=2A40 caps;=2229,FE00 caret;=2041 caron;=2C7 ccaps;=2A4D",
+        "ccaron;=10D ccedil=E7 ccedil;=E7 ccirc;=109 ccups;=2A4C ccupssm;=2A50 cdot;=10B cedil=B8",
+        "cedil;=B8 cemptyv;=29B2 cent=A2 cent;=A2 centerdot;=B7 cfr;=1D520 chcy;=447 check;=2713",
+        "checkmark;=2713 chi;=3C7 cir;=25CB cirE;=29C3 circ;=2C6 circeq;=2257 circlearrowleft;=21BA",
+        "circlearrowright;=21BB circledR;=AE circledS;=24C8 circledast;=229B circledcirc;=229A",
+        "circleddash;=229D cire;=2257 cirfnint;=2A10 cirmid;=2AEF cirscir;=29C2 clubs;=2663",
+        "clubsuit;=2663 colon;=3A colone;=2254 coloneq;=2254 comma;=2C commat;=40 comp;=2201 compfn;=2218",
+        "complement;=2201 complexes;=2102 cong;=2245 congdot;=2A6D conint;=222E copf;=1D554 coprod;=2210",
+        "copy=A9 copy;=A9 copysr;=2117 crarr;=21B5 cross;=2717 cscr;=1D4B8 csub;=2ACF csube;=2AD1",
+        "csup;=2AD0 csupe;=2AD2 ctdot;=22EF cudarrl;=2938 cudarrr;=2935 cuepr;=22DE cuesc;=22DF",
+        "cularr;=21B6 cularrp;=293D cup;=222A cupbrcap;=2A48 cupcap;=2A46 cupcup;=2A4A cupdot;=228D",
+        "cupor;=2A45 cups;=222A,FE00 curarr;=21B7 curarrm;=293C curlyeqprec;=22DE curlyeqsucc;=22DF",
+        "curlyvee;=22CE curlywedge;=22CF curren=A4 curren;=A4 curvearrowleft;=21B6 curvearrowright;=21B7",
+        "cuvee;=22CE cuwed;=22CF cwconint;=2232 cwint;=2231 cylcty;=232D dArr;=21D3 dHar;=2965",
+        "dagger;=2020 daleth;=2138 darr;=2193 dash;=2010 dashv;=22A3 dbkarow;=290F dblac;=2DD dcaron;=10F",
+        "dcy;=434 dd;=2146 ddagger;=2021 ddarr;=21CA ddotseq;=2A77 deg=B0 deg;=B0 delta;=3B4",
+        "demptyv;=29B1 dfisht;=297F dfr;=1D521 dharl;=21C3 dharr;=21C2 diam;=22C4 diamond;=22C4",
+        "diamondsuit;=2666 diams;=2666 die;=A8 digamma;=3DD disin;=22F2 div;=F7 divide=F7 divide;=F7",
+        "divideontimes;=22C7 divonx;=22C7 djcy;=452 dlcorn;=231E dlcrop;=230D dollar;=24 dopf;=1D555",
+        "dot;=2D9 doteq;=2250 doteqdot;=2251 dotminus;=2238 dotplus;=2214 dotsquare;=22A1",
+        "doublebarwedge;=2306 downarrow;=2193 downdownarrows;=21CA downharpoonleft;=21C3",
+        "downharpoonright;=21C2 drbkarow;=2910 drcorn;=231F drcrop;=230C dscr;=1D4B9 dscy;=455 dsol;=29F6",
+        "dstrok;=111 dtdot;=22F1 dtri;=25BF dtrif;=25BE duarr;=21F5 duhar;=296F dwangle;=29A6 dzcy;=45F",
+        "dzigrarr;=27FF eDDot;=2A77 eDot;=2251 eacute=E9 eacute;=E9 easter;=2A6E ecaron;=11B ecir;=2256",
+        "ecirc=EA ecirc;=EA ecolon;=2255 ecy;=44D edot;=117 ee;=2147 efDot;=2252 efr;=1D522 eg;=2A9A",
+        "egrave=E8 egrave;=E8 egs;=2A96 egsdot;=2A98 el;=2A99 elinters;=23E7 ell;=2113 els;=2A95",
+        "elsdot;=2A97 emacr;=113 empty;=2205 emptyset;=2205 emptyv;=2205 emsp13;=2004 emsp14;=2005",
+        "emsp;=2003 eng;=14B ensp;=2002 eogon;=119 eopf;=1D556 epar;=22D5 eparsl;=29E3 eplus;=2A71",
+        "epsi;=3B5 epsilon;=3B5 epsiv;=3F5 eqcirc;=2256 eqcolon;=2255 eqsim;=2242 eqslantgtr;=2A96",
+        "eqslantless;=2A95 equals;=3D equest;=225F equiv;=2261 equivDD;=2A78 eqvparsl;=29E5 erDot;=2253",
+        "erarr;=2971 escr;=212F esdot;=2250 esim;=2242 eta;=3B7 eth=F0 eth;=F0 euml=EB euml;=EB",
+        "euro;=20AC excl;=21 exist;=2203 expectation;=2130 exponentiale;=2147 fallingdotseq;=2252",
+        "fcy;=444 female;=2640 ffilig;=FB03 fflig;=FB00 ffllig;=FB04 ffr;=1D523 filig;=FB01 fjlig;=66,6A",
+        "flat;=266D fllig;=FB02 fltns;=25B1 fnof;=192 fopf;=1D557 forall;=2200 fork;=22D4 forkv;=2AD9",
+        "fpartint;=2A0D frac12=BD frac12;=BD frac13;=2153 frac14=BC frac14;=BC frac15;=2155 frac16;=2159",
+        "frac18;=215B frac23;=2154 frac25;=2156 frac34=BE frac34;=BE frac35;=2157 frac38;=215C",
+        "frac45;=2158 frac56;=215A frac58;=215D frac78;=215E frasl;=2044 frown;=2322 fscr;=1D4BB gE;=2267",
+        "gEl;=2A8C gacute;=1F5 gamma;=3B3 gammad;=3DD gap;=2A86 gbreve;=11F gcirc;=11D gcy;=433 gdot;=121",
+        "ge;=2265 gel;=22DB geq;=2265 geqq;=2267 geqslant;=2A7E ges;=2A7E gescc;=2AA9 gesdot;=2A80",
+        "gesdoto;=2A82 gesdotol;=2A84 gesl;=22DB,FE00 gesles;=2A94 gfr;=1D524 gg;=226B ggg;=22D9",
+        "gimel;=2137 gjcy;=453 gl;=2277 glE;=2A92 gla;=2AA5 glj;=2AA4 gnE;=2269 gnap;=2A8A gnapprox;=2A8A",
+        "gne;=2A88 gneq;=2A88 gneqq;=2269 gnsim;=22E7 gopf;=1D558 grave;=60 gscr;=210A gsim;=2273",
+        "gsime;=2A8E gsiml;=2A90 gt=3E gt;=3E gtcc;=2AA7 gtcir;=2A7A gtdot;=22D7 gtlPar;=2995",
+        "gtquest;=2A7C gtrapprox;=2A86 gtrarr;=2978 gtrdot;=22D7 gtreqless;=22DB gtreqqless;=2A8C",
+        "gtrless;=2277 gtrsim;=2273 gvertneqq;=2269,FE00 gvnE;=2269,FE00 hArr;=21D4 hairsp;=200A half;=BD",
+        "hamilt;=210B hardcy;=44A harr;=2194 harrcir;=2948 harrw;=21AD hbar;=210F hcirc;=125 hearts;=2665",
+        "heartsuit;=2665 hellip;=2026 hercon;=22B9 hfr;=1D525 hksearow;=2925 hkswarow;=2926 hoarr;=21FF",
+        "homtht;=223B hookleftarrow;=21A9 hookrightarrow;=21AA hopf;=1D559 horbar;=2015 hscr;=1D4BD",
+        "hslash;=210F hstrok;=127 hybull;=2043 hyphen;=2010 iacute=ED iacute;=ED ic;=2063 icirc=EE",
+        "icirc;=EE icy;=438 iecy;=435 iexcl=A1 iexcl;=A1 iff;=21D4 ifr;=1D526 igrave=EC igrave;=EC",
+        "ii;=2148 iiiint;=2A0C iiint;=222D iinfin;=29DC iiota;=2129 ijlig;=133 imacr;=12B image;=2111",
+        "imagline;=2110 imagpart;=2111 imath;=131 imof;=22B7 imped;=1B5 in;=2208 incare;=2105 infin;=221E",
+        "infintie;=29DD inodot;=131 int;=222B intcal;=22BA integers;=2124 intercal;=22BA intlarhk;=2A17",
+        "intprod;=2A3C iocy;=451 iogon;=12F iopf;=1D55A iota;=3B9 iprod;=2A3C iquest=BF iquest;=BF",
+        "iscr;=1D4BE isin;=2208 isinE;=22F9 isindot;=22F5 isins;=22F4 isinsv;=22F3 isinv;=2208 it;=2062",
+        "itilde;=129 iukcy;=456 iuml=EF iuml;=EF jcirc;=135 jcy;=439 jfr;=1D527 jmath;=237 jopf;=1D55B",
+        "jscr;=1D4BF jsercy;=458 jukcy;=454 kappa;=3BA kappav;=3F0 kcedil;=137 kcy;=43A kfr;=1D528",
+        "kgreen;=138 khcy;=445 kjcy;=45C kopf;=1D55C kscr;=1D4C0 lAarr;=21DA lArr;=21D0 lAtail;=291B",
+        "lBarr;=290E lE;=2266 lEg;=2A8B lHar;=2962 lacute;=13A laemptyv;=29B4 lagran;=2112 lambda;=3BB",
+        "lang;=27E8 langd;=2991 langle;=27E8 lap;=2A85 laquo=AB laquo;=AB larr;=2190 larrb;=21E4",
+        "larrbfs;=291F larrfs;=291D larrhk;=21A9 larrlp;=21AB larrpl;=2939 larrsim;=2973 larrtl;=21A2",
+        "lat;=2AAB latail;=2919 late;=2AAD lates;=2AAD,FE00 lbarr;=290C lbbrk;=2772 lbrace;=7B lbrack;=5B",
+        "lbrke;=298B lbrksld;=298F lbrkslu;=298D lcaron;=13E lcedil;=13C lceil;=2308 lcub;=7B lcy;=43B",
+        "ldca;=2936 ldquo;=201C ldquor;=201E ldrdhar;=2967 ldrushar;=294B ldsh;=21B2 le;=2264",
+        "leftarrow;=2190 leftarrowtail;=21A2 leftharpoondown;=21BD leftharpoonup;=21BC",
+        "leftleftarrows;=21C7 leftrightarrow;=2194 leftrightarrows;=21C6 leftrightharpoons;=21CB",
+        "leftrightsquigarrow;=21AD leftthreetimes;=22CB leg;=22DA leq;=2264 leqq;=2266 leqslant;=2A7D",
+        "les;=2A7D lescc;=2AA8 lesdot;=2A7F lesdoto;=2A81 lesdotor;=2A83 lesg;=22DA,FE00 lesges;=2A93",
+        "lessapprox;=2A85 lessdot;=22D6 lesseqgtr;=22DA lesseqqgtr;=2A8B lessgtr;=2276 lesssim;=2272",
+        "lfisht;=297C lfloor;=230A lfr;=1D529 lg;=2276 lgE;=2A91 lhard;=21BD lharu;=21BC lharul;=296A",
+        "lhblk;=2584 ljcy;=459 ll;=226A llarr;=21C7 llcorner;=231E llhard;=296B lltri;=25FA lmidot;=140",
+        "lmoust;=23B0 lmoustache;=23B0 lnE;=2268 lnap;=2A89 lnapprox;=2A89 lne;=2A87 lneq;=2A87",
+        "lneqq;=2268 lnsim;=22E6 loang;=27EC loarr;=21FD lobrk;=27E6 longleftarrow;=27F5",
+        "longleftrightarrow;=27F7 longmapsto;=27FC longrightarrow;=27F6 looparrowleft;=21AB",
+        "looparrowright;=21AC lopar;=2985 lopf;=1D55D loplus;=2A2D lotimes;=2A34 lowast;=2217 lowbar;=5F",
+        "loz;=25CA lozenge;=25CA lozf;=29EB lpar;=28 lparlt;=2993 lrarr;=21C6 lrcorner;=231F lrhar;=21CB",
+        "lrhard;=296D lrm;=200E lrtri;=22BF lsaquo;=2039 lscr;=1D4C1 lsh;=21B0 lsim;=2272 lsime;=2A8D",
+        "lsimg;=2A8F lsqb;=5B lsquo;=2018 lsquor;=201A lstrok;=142 lt=3C lt;=3C ltcc;=2AA6 ltcir;=2A79",
+        "ltdot;=22D6 lthree;=22CB ltimes;=22C9 ltlarr;=2976 ltquest;=2A7B ltrPar;=2996 ltri;=25C3",
+        "ltrie;=22B4 ltrif;=25C2 lurdshar;=294A luruhar;=2966 lvertneqq;=2268,FE00 lvnE;=2268,FE00",
+        "mDDot;=223A macr=AF macr;=AF male;=2642 malt;=2720 maltese;=2720 map;=21A6 mapsto;=21A6",
+        "mapstodown;=21A7 mapstoleft;=21A4 mapstoup;=21A5 marker;=25AE mcomma;=2A29 mcy;=43C mdash;=2014",
+        "measuredangle;=2221 mfr;=1D52A mho;=2127 micro=B5 micro;=B5 mid;=2223 midast;=2A midcir;=2AF0",
+        "middot=B7 middot;=B7 minus;=2212 minusb;=229F minusd;=2238 minusdu;=2A2A mlcp;=2ADB mldr;=2026",
+        "mnplus;=2213 models;=22A7 mopf;=1D55E mp;=2213 mscr;=1D4C2 mstpos;=223E mu;=3BC multimap;=22B8",
+        "mumap;=22B8 nGg;=22D9,338 nGt;=226B,20D2 nGtv;=226B,338 nLeftarrow;=21CD nLeftrightarrow;=21CE",
+        "nLl;=22D8,338 nLt;=226A,20D2 nLtv;=226A,338 nRightarrow;=21CF nVDash;=22AF nVdash;=22AE",
+        "nabla;=2207 nacute;=144 nang;=2220,20D2 nap;=2249 napE;=2A70,338 napid;=224B,338 napos;=149",
+        "napprox;=2249 natur;=266E natural;=266E naturals;=2115 nbsp=A0 nbsp;=A0 nbump;=224E,338",
+        "nbumpe;=224F,338 ncap;=2A43 ncaron;=148 ncedil;=146 ncong;=2247 ncongdot;=2A6D,338 ncup;=2A42",
+        "ncy;=43D ndash;=2013 ne;=2260 neArr;=21D7 nearhk;=2924 nearr;=2197 nearrow;=2197 nedot;=2250,338",
+        "nequiv;=2262 nesear;=2928 nesim;=2242,338 nexist;=2204 nexists;=2204 nfr;=1D52B ngE;=2267,338",
+        "nge;=2271 ngeq;=2271 ngeqq;=2267,338 ngeqslant;=2A7E,338 nges;=2A7E,338 ngsim;=2275 ngt;=226F",
+        "ngtr;=226F nhArr;=21CE nharr;=21AE nhpar;=2AF2 ni;=220B nis;=22FC nisd;=22FA niv;=220B njcy;=45A",
+        "nlArr;=21CD nlE;=2266,338 nlarr;=219A nldr;=2025 nle;=2270 nleftarrow;=219A",
+        "nleftrightarrow;=21AE nleq;=2270 nleqq;=2266,338 nleqslant;=2A7D,338 nles;=2A7D,338 nless;=226E",
+        "nlsim;=2274 nlt;=226E nltri;=22EA nltrie;=22EC nmid;=2224 nopf;=1D55F not=AC not;=AC notin;=2209",
+        "notinE;=22F9,338 notindot;=22F5,338 notinva;=2209 notinvb;=22F7 notinvc;=22F6 notni;=220C",
+        "notniva;=220C notnivb;=22FE notnivc;=22FD npar;=2226 nparallel;=2226 nparsl;=2AFD,20E5",
+        "npart;=2202,338 npolint;=2A14 npr;=2280 nprcue;=22E0 npre;=2AAF,338 nprec;=2280",
+        "npreceq;=2AAF,338 nrArr;=21CF nrarr;=219B nrarrc;=2933,338 nrarrw;=219D,338 nrightarrow;=219B",
+        "nrtri;=22EB nrtrie;=22ED nsc;=2281 nsccue;=22E1 nsce;=2AB0,338 nscr;=1D4C3 nshortmid;=2224",
+        "nshortparallel;=2226 nsim;=2241 nsime;=2244 nsimeq;=2244 nsmid;=2224 nspar;=2226 nsqsube;=22E2",
+        "nsqsupe;=22E3 nsub;=2284 nsubE;=2AC5,338 nsube;=2288 nsubset;=2282,20D2 nsubseteq;=2288",
+        "nsubseteqq;=2AC5,338 nsucc;=2281 nsucceq;=2AB0,338 nsup;=2285 nsupE;=2AC6,338 nsupe;=2289",
+        "nsupset;=2283,20D2 nsupseteq;=2289 nsupseteqq;=2AC6,338 ntgl;=2279 ntilde=F1 ntilde;=F1",
+        "ntlg;=2278 ntriangleleft;=22EA ntrianglelefteq;=22EC ntriangleright;=22EB ntrianglerighteq;=22ED",
+        "nu;=3BD num;=23 numero;=2116 numsp;=2007 nvDash;=22AD nvHarr;=2904 nvap;=224D,20D2 nvdash;=22AC",
+        "nvge;=2265,20D2 nvgt;=3E,20D2 nvinfin;=29DE nvlArr;=2902 nvle;=2264,20D2 nvlt;=3C,20D2",
+        "nvltrie;=22B4,20D2 nvrArr;=2903 nvrtrie;=22B5,20D2 nvsim;=223C,20D2 nwArr;=21D6 nwarhk;=2923",
+        "nwarr;=2196 nwarrow;=2196 nwnear;=2927 oS;=24C8 oacute=F3 oacute;=F3 oast;=229B ocir;=229A",
+        "ocirc=F4 ocirc;=F4 ocy;=43E odash;=229D odblac;=151 odiv;=2A38 odot;=2299 odsold;=29BC",
+        "oelig;=153 ofcir;=29BF ofr;=1D52C ogon;=2DB ograve=F2 ograve;=F2 ogt;=29C1 ohbar;=29B5 ohm;=3A9",
+        "oint;=222E olarr;=21BA olcir;=29BE olcross;=29BB oline;=203E olt;=29C0 omacr;=14D omega;=3C9",
+        "omicron;=3BF omid;=29B6 ominus;=2296 oopf;=1D560 opar;=29B7 operp;=29B9 oplus;=2295 or;=2228",
+        "orarr;=21BB ord;=2A5D order;=2134 orderof;=2134 ordf=AA ordf;=AA ordm=BA ordm;=BA origof;=22B6",
+        "oror;=2A56 orslope;=2A57 orv;=2A5B oscr;=2134 oslash=F8 oslash;=F8 osol;=2298 otilde=F5",
+        "otilde;=F5 otimes;=2297 otimesas;=2A36 ouml=F6 ouml;=F6 ovbar;=233D par;=2225 para=B6 para;=B6",
+        "parallel;=2225 parsim;=2AF3 parsl;=2AFD part;=2202 pcy;=43F percnt;=25 period;=2E permil;=2030",
+        "perp;=22A5 pertenk;=2031 pfr;=1D52D phi;=3C6 phiv;=3D5 phmmat;=2133 phone;=260E pi;=3C0",
+        "pitchfork;=22D4 piv;=3D6 planck;=210F planckh;=210E plankv;=210F plus;=2B plusacir;=2A23",
+        "plusb;=229E pluscir;=2A22 plusdo;=2214 plusdu;=2A25 pluse;=2A72 plusmn=B1 plusmn;=B1",
+        "plussim;=2A26 plustwo;=2A27 pm;=B1 pointint;=2A15 popf;=1D561 pound=A3 pound;=A3 pr;=227A",
+        "prE;=2AB3 prap;=2AB7 prcue;=227C pre;=2AAF prec;=227A precapprox;=2AB7 preccurlyeq;=227C",
+        "preceq;=2AAF precnapprox;=2AB9 precneqq;=2AB5 precnsim;=22E8 precsim;=227E prime;=2032",
+        "primes;=2119 prnE;=2AB5 prnap;=2AB9 prnsim;=22E8 prod;=220F profalar;=232E profline;=2312",
+        "profsurf;=2313 prop;=221D propto;=221D prsim;=227E prurel;=22B0 pscr;=1D4C5 psi;=3C8",
+        "puncsp;=2008 qfr;=1D52E qint;=2A0C qopf;=1D562 qprime;=2057 qscr;=1D4C6 quaternions;=210D",
+        "quatint;=2A16 quest;=3F questeq;=225F quot=22 quot;=22 rAarr;=21DB rArr;=21D2 rAtail;=291C",
+        "rBarr;=290F rHar;=2964 race;=223D,331 racute;=155 radic;=221A raemptyv;=29B3 rang;=27E9",
+        "rangd;=2992 range;=29A5 rangle;=27E9 raquo=BB raquo;=BB rarr;=2192 rarrap;=2975 rarrb;=21E5",
+        "rarrbfs;=2920 rarrc;=2933 rarrfs;=291E rarrhk;=21AA rarrlp;=21AC rarrpl;=2945 rarrsim;=2974",
+        "rarrtl;=21A3 rarrw;=219D ratail;=291A ratio;=2236 rationals;=211A rbarr;=290D rbbrk;=2773",
+        "rbrace;=7D rbrack;=5D rbrke;=298C rbrksld;=298E rbrkslu;=2990 rcaron;=159 rcedil;=157",
+        "rceil;=2309 rcub;=7D rcy;=440 rdca;=2937 rdldhar;=2969 rdquo;=201D rdquor;=201D rdsh;=21B3",
+        "real;=211C realine;=211B realpart;=211C reals;=211D rect;=25AD reg=AE reg;=AE rfisht;=297D",
+        "rfloor;=230B rfr;=1D52F rhard;=21C1 rharu;=21C0 rharul;=296C rho;=3C1 rhov;=3F1 rightarrow;=2192",
+        "rightarrowtail;=21A3 rightharpoondown;=21C1 rightharpoonup;=21C0 rightleftarrows;=21C4",
+        "rightleftharpoons;=21CC rightrightarrows;=21C9 rightsquigarrow;=219D rightthreetimes;=22CC",
+        "ring;=2DA risingdotseq;=2253 rlarr;=21C4 rlhar;=21CC rlm;=200F rmoust;=23B1 rmoustache;=23B1",
+        "rnmid;=2AEE roang;=27ED roarr;=21FE robrk;=27E7 ropar;=2986 ropf;=1D563 roplus;=2A2E",
+        "rotimes;=2A35 rpar;=29 rpargt;=2994 rppolint;=2A12 rrarr;=21C9 rsaquo;=203A rscr;=1D4C7",
+        "rsh;=21B1 rsqb;=5D rsquo;=2019 rsquor;=2019 rthree;=22CC rtimes;=22CA rtri;=25B9 rtrie;=22B5",
+        "rtrif;=25B8 rtriltri;=29CE ruluhar;=2968 rx;=211E sacute;=15B sbquo;=201A sc;=227B scE;=2AB4",
+        "scap;=2AB8 scaron;=161 sccue;=227D sce;=2AB0 scedil;=15F scirc;=15D scnE;=2AB6 scnap;=2ABA",
+        "scnsim;=22E9 scpolint;=2A13 scsim;=227F scy;=441 sdot;=22C5 sdotb;=22A1 sdote;=2A66 seArr;=21D8",
+        "searhk;=2925 searr;=2198 searrow;=2198 sect=A7 sect;=A7 semi;=3B seswar;=2929 setminus;=2216",
+        "setmn;=2216 sext;=2736 sfr;=1D530 sfrown;=2322 sharp;=266F shchcy;=449 shcy;=448 shortmid;=2223",
+        "shortparallel;=2225 shy=AD shy;=AD sigma;=3C3 sigmaf;=3C2 sigmav;=3C2 sim;=223C simdot;=2A6A",
+        "sime;=2243 simeq;=2243 simg;=2A9E simgE;=2AA0 siml;=2A9D simlE;=2A9F simne;=2246 simplus;=2A24",
+        "simrarr;=2972 slarr;=2190 smallsetminus;=2216 smashp;=2A33 smeparsl;=29E4 smid;=2223 smile;=2323",
+        "smt;=2AAA smte;=2AAC smtes;=2AAC,FE00 softcy;=44C sol;=2F solb;=29C4 solbar;=233F sopf;=1D564",
+        "spades;=2660 spadesuit;=2660 spar;=2225 sqcap;=2293 sqcaps;=2293,FE00 sqcup;=2294",
+        "sqcups;=2294,FE00 sqsub;=228F sqsube;=2291 sqsubset;=228F sqsubseteq;=2291 sqsup;=2290",
+        "sqsupe;=2292 sqsupset;=2290 sqsupseteq;=2292 squ;=25A1 square;=25A1 squarf;=25AA squf;=25AA",
+        "srarr;=2192 sscr;=1D4C8 ssetmn;=2216 ssmile;=2323 sstarf;=22C6 star;=2606 starf;=2605",
+        "straightepsilon;=3F5 straightphi;=3D5 strns;=AF sub;=2282 subE;=2AC5 subdot;=2ABD sube;=2286",
+        "subedot;=2AC3 submult;=2AC1 subnE;=2ACB subne;=228A subplus;=2ABF subrarr;=2979 subset;=2282",
+        "subseteq;=2286 subseteqq;=2AC5 subsetneq;=228A subsetneqq;=2ACB subsim;=2AC7 subsub;=2AD5",
+        "subsup;=2AD3 succ;=227B succapprox;=2AB8 succcurlyeq;=227D succeq;=2AB0 succnapprox;=2ABA",
+        "succneqq;=2AB6 succnsim;=22E9 succsim;=227F sum;=2211 sung;=266A sup1=B9 sup1;=B9 sup2=B2",
+        "sup2;=B2 sup3=B3 sup3;=B3 sup;=2283 supE;=2AC6 supdot;=2ABE supdsub;=2AD8 supe;=2287",
+        "supedot;=2AC4 suphsol;=27C9 suphsub;=2AD7 suplarr;=297B supmult;=2AC2 supnE;=2ACC supne;=228B",
+        "supplus;=2AC0 supset;=2283 supseteq;=2287 supseteqq;=2AC6 supsetneq;=228B supsetneqq;=2ACC",
+        "supsim;=2AC8 supsub;=2AD4 supsup;=2AD6 swArr;=21D9 swarhk;=2926 swarr;=2199 swarrow;=2199",
+        "swnwar;=292A szlig=DF szlig;=DF target;=2316 tau;=3C4 tbrk;=23B4 tcaron;=165 tcedil;=163",
+        "tcy;=442 tdot;=20DB telrec;=2315 tfr;=1D531 there4;=2234 therefore;=2234 theta;=3B8",
+        "thetasym;=3D1 thetav;=3D1 thickapprox;=2248 thicksim;=223C thinsp;=2009 thkap;=2248 thksim;=223C",
+        "thorn=FE thorn;=FE tilde;=2DC times=D7 times;=D7 timesb;=22A0 timesbar;=2A31 timesd;=2A30",
+        "tint;=222D toea;=2928 top;=22A4 topbot;=2336 topcir;=2AF1 topf;=1D565 topfork;=2ADA tosa;=2929",
+        "tprime;=2034 trade;=2122 triangle;=25B5 triangledown;=25BF triangleleft;=25C3",
+        "trianglelefteq;=22B4 triangleq;=225C triangleright;=25B9 trianglerighteq;=22B5 tridot;=25EC",
+        "trie;=225C triminus;=2A3A triplus;=2A39 trisb;=29CD tritime;=2A3B trpezium;=23E2 tscr;=1D4C9",
+        "tscy;=446 tshcy;=45B tstrok;=167 twixt;=226C twoheadleftarrow;=219E twoheadrightarrow;=21A0",
+        "uArr;=21D1 uHar;=2963 uacute=FA uacute;=FA uarr;=2191 ubrcy;=45E ubreve;=16D ucirc=FB ucirc;=FB",
+        "ucy;=443 udarr;=21C5 udblac;=171 udhar;=296E ufisht;=297E ufr;=1D532 ugrave=F9 ugrave;=F9",
+        "uharl;=21BF uharr;=21BE uhblk;=2580 ulcorn;=231C ulcorner;=231C ulcrop;=230F ultri;=25F8",
+        "umacr;=16B uml=A8 uml;=A8 uogon;=173 uopf;=1D566 uparrow;=2191 updownarrow;=2195",
+        "upharpoonleft;=21BF upharpoonright;=21BE uplus;=228E upsi;=3C5 upsih;=3D2 upsilon;=3C5",
+        "upuparrows;=21C8 urcorn;=231D urcorner;=231D urcrop;=230E uring;=16F urtri;=25F9 uscr;=1D4CA",
+        "utdot;=22F0 utilde;=169 utri;=25B5 utrif;=25B4 uuarr;=21C8 uuml=FC uuml;=FC uwangle;=29A7",
+        "vArr;=21D5 vBar;=2AE8 vBarv;=2AE9 vDash;=22A8 vangrt;=299C varepsilon;=3F5 varkappa;=3F0",
+        "varnothing;=2205 varphi;=3D5 varpi;=3D6 varpropto;=221D varr;=2195 varrho;=3F1 varsigma;=3C2",
+        "varsubsetneq;=228A,FE00 varsubsetneqq;=2ACB,FE00 varsupsetneq;=228B,FE00",
+        "varsupsetneqq;=2ACC,FE00 vartheta;=3D1 vartriangleleft;=22B2 vartriangleright;=22B3 vcy;=432",
+        "vdash;=22A2 vee;=2228 veebar;=22BB veeeq;=225A vellip;=22EE verbar;=7C vert;=7C vfr;=1D533",
+        "vltri;=22B2 vnsub;=2282,20D2 vnsup;=2283,20D2 vopf;=1D567 vprop;=221D vrtri;=22B3 vscr;=1D4CB",
+        "vsubnE;=2ACB,FE00 vsubne;=228A,FE00 vsupnE;=2ACC,FE00 vsupne;=228B,FE00 vzigzag;=299A wcirc;=175",
+        "wedbar;=2A5F wedge;=2227 wedgeq;=2259 weierp;=2118 wfr;=1D534 wopf;=1D568 wp;=2118 wr;=2240",
+        "wreath;=2240 wscr;=1D4CC xcap;=22C2 xcirc;=25EF xcup;=22C3 xdtri;=25BD xfr;=1D535 xhArr;=27FA",
+        "xharr;=27F7 xi;=3BE xlArr;=27F8 xlarr;=27F5 xmap;=27FC xnis;=22FB xodot;=2A00 xopf;=1D569",
+        "xoplus;=2A01 xotime;=2A02 xrArr;=27F9 xrarr;=27F6 xscr;=1D4CD xsqcup;=2A06 xuplus;=2A04",
+        "xutri;=25B3 xvee;=22C1 xwedge;=22C0 yacute=FD yacute;=FD yacy;=44F ycirc;=177 ycy;=44B yen=A5",
+        "yen;=A5 yfr;=1D536 yicy;=457 yopf;=1D56A yscr;=1D4CE yucy;=44E yuml=FF yuml;=FF zacute;=17A",
+        "zcaron;=17E zcy;=437 zdot;=17C zeetrf;=2128 zeta;=3B6 zfr;=1D537 zhcy;=436 zigrarr;=21DD",
+        "zopf;=1D56B zscr;=1D4CF zwj;=200D zwnj;=200C"
+    };
+
+    // Numeric references to 0x80-0x9F mean the windows-1252 character.
+    private static final char[] WINDOWS_1252 = {
+        0x20AC, 0x0081, 0x201A, 0x0192, 0x201E, 0x2026, 0x2020, 0x2021,
+        0x02C6, 0x2030, 0x0160, 0x2039, 0x0152, 0x008D, 0x017D, 0x008F,
+        0x0090, 0x2018, 0x2019, 0x201C, 0x201D, 0x2022, 0x2013, 0x2014,
+        0x02DC, 0x2122, 0x0161, 0x203A, 0x0153, 0x009D, 0x017E, 0x0178
+    };
+
+    private static final String[] NAMES;
+    private static final String[] VALUES;
+    private static final int MAX_NAME_LENGTH;
+
+    static {
+        List<String> names = new ArrayList<>(2300);
+        List<String> values = new ArrayList<>(2300);
+        int maxNameLength = 0;
+        for (String line : TABLE) {
+            for (String entry : line.split(" ")) {
+                int separator = entry.indexOf('=');
+                StringBuilder value = new StringBuilder(2);
+                for (String codePoint : entry.substring(separator + 1).split(",")) {
+                    value.appendCodePoint(Integer.parseInt(codePoint, 16));
+                }
+                names.add(entry.substring(0, separator));
+                values.add(value.toString());
+                maxNameLength = Math.max(maxNameLength, separator);
+            }
+        }
+        NAMES = names.toArray(new String[0]);
+        VALUES = values.toArray(new String[0]);
+        MAX_NAME_LENGTH = maxNameLength;
+    }
+
+    private HtmlEntities() {
+    }
+
+    public static String decode(String input) {
+        int amp = input.indexOf('&');
+        if (amp < 0) {
+            return input;
+        }
+
+        StringBuilder out = new StringBuilder(input.length());
+        int copied = 0;
+        while (amp >= 0) {
+            out.append(input, copied, amp);
+            copied = amp;
+            int end = amp + 1 < input.length() && input.charAt(amp + 1) == '#'
+                    ? appendNumeric(input, amp, out)
+                    : appendNamed(input, amp, out);
+            if (end > 0) {
+                copied = end;
+            }
+            amp = input.indexOf('&', Math.max(amp + 1, copied));
+        }
+        return out.append(input, copied, input.length()).toString();
+    }
+
+    /**
+     * Appends the character of the numeric reference at amp and returns the
+     * index after it, or -1 if there is no reference there. Zero, surrogates
+     * and values past U+10FFFF decode to U+FFFD.
+     */
+    private static int appendNumeric(String input, int amp, StringBuilder out) {
+        int i = amp + 2;
+        boolean hex = i < input.length() && (input.charAt(i) == 'x' || input.charAt(i) == 'X');
+        if (hex) {
+            i++;
+        }
+        int start = i;
+        int codePoint = 0;
+        for (; i < input.length(); i++) {
+            int digit = digit(input.charAt(i), hex);
+            if (digit < 0) {
+                break;
+            }
+            codePoint = Math.min(codePoint * (hex ? 16 : 10) + digit, Character.MAX_CODE_POINT + 1);
+        }
+        if (i == start) {
+            return -1;
+        }
+        if (i < input.length() && input.charAt(i) == ';') {
+            i++;
+        }
+
+        if (codePoint >= 0x80 && codePoint <= 0x9F) {
+            out.append(WINDOWS_1252[codePoint - 0x80]);
+        } else if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            out.append('\uFFFD');
+        } else {
+            out.appendCodePoint(codePoint);
+        }
+        return i;
+    }
+
+    /**
+     * Appends the text of the named reference at amp and returns the index
+     * after it, or -1 if there is none. Without a semicolon, the longest
+     * legacy name that prefixes the text is used.
+     */
+    private static int appendNamed(String input, int amp, StringBuilder out) {
+        int nameEnd = amp + 1;
+        while (nameEnd < input.length() && nameEnd - amp <= MAX_NAME_LENGTH
+                && isAsciiLetterOrDigit(input.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == amp + 1) {
+            return -1;
+        }
+        if (nameEnd < input.length() && input.charAt(nameEnd) == ';') {
+            int index = find(input, amp + 1, nameEnd + 1);
+            if (index >= 0) {
+                out.append(VALUES[index]);
+                return nameEnd + 1;
+            }
+        }
+        for (int end = nameEnd; end > amp + 1; end--) {
+            int index = find(input, amp + 1, end);
+            if (index >= 0) {
+                out.append(VALUES[index]);
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /** Binary search for input[start, end) among the names, without copying it. */
+    private static int find(String input, int start, int end) {
+        int low = 0;
+        int high = NAMES.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(NAMES[middle], input, start, end);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(String name, String input, int start, int end) {
+        int length = Math.min(name.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            int difference = name.charAt(i) - input.charAt(start + i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return name.length() - (end - start);
+    }
+
+    private static int digit(char c, boolean hex) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (hex && c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (hex && c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
+
+/**
+ * A non-zero response_code from the API. Codes 3 to 5 are recoverable:
+ * see OpentdbClient.
+ */
+class TriviaApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    public TriviaApiException(int responseCode) {
+        super("API returned error code: " + responseCode);
+        this.responseCode = responseCode;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+}
+
+/**
+ * Token bucket holding up to capacity permits and gaining one every
+ * interval. A caller that finds it empty reserves the next permit and
+ * waits for it, so waiting callers are served in arrival order and the
+ * rate is never exceeded.
+ *
+ * Background callers, such as prefetches, reserve nothing: they wait until
+ * a permit is free that no foreground caller has reserved. A foreground
+ * caller therefore never queues behind them, however many are waiting.
+ */
+class RateLimiter {
+    private final double capacity;
+    private final long intervalNanos;
+    // May go negative: permits reserved by callers that are still waiting.
+    private double permits;
+    private long updatedAt;
+    // Background callers waiting for a free permit, oldest first.
+    private final Deque<CompletableFuture<Void>> background = new ArrayDeque<>();
+    private boolean backgroundCheckScheduled;
+
+    public RateLimiter(int capacity, long interval, TimeUnit unit) {
+        this.capacity = capacity;
+        this.intervalNanos = unit.toNanos(interval);
+        this.permits = capacity;
+        this.updatedAt = System.nanoTime();
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /** Takes a permit and returns how many nanoseconds to wait before using it. */
+    public synchronized long reserve() {
+        refill();
+        permits -= 1;
+        return permits >= 0 ? 0 : (long) (-permits * intervalNanos);
+    }
+
+    public CompletableFuture<Void> acquireAsync() {
+        long wait = reserve();
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Waits for a permit no foreground caller has reserved. Cancelling the
+     * future gives up its place without using a permit.
+     */
+    public CompletableFuture<Void> acquireInBackground() {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (this) {
+            background.add(permit);
+        }
+        grantBackground();
+        return permit;
+    }
+
+    private void grantBackground() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        long wait = -1;
+        synchronized (this) {
+            refill();
+            background.removeIf(CompletableFuture::isDone);
+            while (permits >= 1 && !background.isEmpty()) {
+                permits -= 1;
+                granted.add(background.poll());
+            }
+            if (!background.isEmpty() && !backgroundCheckScheduled) {
+                backgroundCheckScheduled = true;
+                wait = (long) ((1 - permits) * intervalNanos);
+            }
+        }
+        for (CompletableFuture<Void> permit : granted) {
+            if (!permit.complete(null)) {
+                // Cancelled after it was handed the permit; give it back.
+                synchronized (this) {
+                    permits = Math.min(capacity, permits + 1);
+                }
+            }
+        }
+        if (wait >= 0) {
+            // Foreground reservations made meanwhile push the next free permit back; the check then waits again.
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() -> {
+                synchronized (this) {
+                    backgroundCheckScheduled = false;
+                }
+                grantBackground();
+            });
+        }
+    }
+
+    /** Hands out no permit for the next nanos, e.g. after the server throttled us. */
+    public synchronized void holdOff(long nanos) {
+        refill();
+        permits = Math.min(permits, 1 - (double) nanos / intervalNanos);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(capacity, permits + (double) (now - updatedAt) / intervalNanos);
+        updatedAt = now;
+    }
+}
+
+/**
+ * Client for the Open Trivia Database API. Every instance sends through one
+ * shared keep-alive HttpClient, and each has:
+ * - its own token bucket, sized to the API's limit of one request every
+ *   five seconds per address;
+ * - a session token, so the API does not repeat a question until the
+ *   token has seen every question for the query.
+ * Throttled requests (response code 5, or HTTP 429) hold off the bucket
+ * and are retried with jittered exponential backoff. An exhausted token
+ * (code 4) is reset and an expired one (code 3) replaced before retrying.
+ */
+class OpentdbClient {
+    static final int TOKEN_NOT_FOUND = 3;
+    static final int TOKEN_EMPTY = 4;
+    static final int RATE_LIMITED = 5;
+    static final int MAX_ATTEMPTS = 3;
+    static final long TOKEN_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Response bodies are parsed on these threads as they stream in.
+    private static final ExecutorService HTTP_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "quiz-http");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .executor(HTTP_EXECUTOR)
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private final URI baseUri;
+    private final RateLimiter rateLimiter;
+    private CompletableFuture<String> sessionToken;
+    private long noTokenUntil;
+
+    public OpentdbClient(URI baseUri, RateLimiter rateLimiter) {
+        this.baseUri = baseUri;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public List<Question> fetch(int amount, Integer category, String difficulty, String type) throws IOException {
+        try {
+            return fetchAsync(amount, category, difficulty, type).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching questions");
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetches questions without blocking the caller. The future fails with
+     * an IOException if the API cannot be reached, returns a response code
+     * that cannot be recovered from, or is still throttling after
+     * MAX_ATTEMPTS attempts.
+     */
+    public CompletableFuture<List<Question>> fetchAsync(int amount, Integer category, String difficulty, String type) {
+        return fetchAsync(amount, category, difficulty, type, false);
+    }
+
+    /**
+     * Like fetchAsync, but in the background: the request only takes a
+     * permit none of the foreground requests has reserved, so a prefetch
+     * never delays questions a player is waiting for.
+     */
+    public CompletableFuture<List<Question>> prefetchAsync(int amount, Integer category, String difficulty,
+                                                          String type) {
+        return fetchAsync(amount, category, difficulty, type, true);
+    }
+
+    private CompletableFuture<List<Question>> fetchAsync(int amount, Integer category, String difficulty, String type,
+                                                         boolean background) {
+        StringBuilder query = new StringBuilder("api.php?amount=").append(amount);
+
+        if (category != null) {
+            query.append("&category=").append(category);
+        }
+
+        if (difficulty != null && !difficulty.isEmpty()) {
+            query.append("&difficulty=").append(difficulty.toLowerCase());
+        }
+
+        if (type != null && !type.isEmpty()) {
+            query.append("&type=").append(type.toLowerCase());
+        }
+
+        return attempt(query.toString(), 1, false, background);
+    }
+
+    /**
+     * Sends the query once. Throttling is retried up to MAX_ATTEMPTS times;
+     * a token problem is fixed and retried once.
+     */
+    private CompletableFuture<List<Question>> attempt(String query, int attempt, boolean tokenRenewed,
+                                                      boolean background) {
+        CompletableFuture<String> sessionToken = sessionToken();
+        // Take the permit now rather than once the token is in: dependents
+        // of a shared token future run last-registered first, which would
+        // send concurrent fetches in reverse order.
+        CompletableFuture<Void> permit = background ? rateLimiter.acquireInBackground() : rateLimiter.acquireAsync();
+        return sessionToken.thenCompose(token ->
+                permit.thenCompose(ignored -> send(token == null ? query : query + "&token=" + token))
+                        .thenApplyAsync(response -> {
+                            try (InputStream body = checkStatus(response)) {
+                                return ApiClient.parseQuestions(body);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        }, HTTP_EXECUTOR)
+                        .handle((questions, error) -> error == null
+                                ? CompletableFuture.completedFuture(questions)
+                                : recover(query, token, attempt, tokenRenewed, background, asIOException(error)))
+                        .thenCompose(result -> result));
+    }
+
+    private CompletableFuture<List<Question>> recover(String query, String token, int attempt, boolean tokenRenewed,
+                                                      boolean background, IOException error) {
+        int responseCode = error instanceof TriviaApiException ? ((TriviaApiException) error).getResponseCode() : 0;
+        if (responseCode == TOKEN_NOT_FOUND && !tokenRenewed) {
+            forgetToken(token);
+            return attempt(query, attempt, true, background);
+        }
+        if (responseCode == TOKEN_EMPTY && !tokenRenewed) {
+            return resetToken(token).thenCompose(ignored -> attempt(query, attempt, true, background));
+        }
+        if (responseCode == RATE_LIMITED && attempt < MAX_ATTEMPTS) {
+            long base = rateLimiter.getIntervalNanos() << (attempt - 1);
+            long backoff = base / 2 + ThreadLocalRandom.current().nextLong(base);
+            System.out.printf("Throttled by the API, retrying in %.1fs%n", backoff / 1e9);
+            rateLimiter.holdOff(backoff);
+            return attempt(query, attempt + 1, tokenRenewed, background);
+        }
+        return CompletableFuture.failedFuture(error);
+    }
+
+    /**
+     * The current session token, requesting one if there is none. Completes
+     * with null if the API answered without issuing one, so questions are
+     * fetched without it, and fails if the API could not be reached at all.
+     * After a failed request, no new token is asked for until
+     * TOKEN_RETRY_MILLIS have passed.
+     */
+    private synchronized CompletableFuture<String> sessionToken() {
+        if (sessionToken == null && System.currentTimeMillis() < noTokenUntil) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (sessionToken == null) {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            sessionToken = request;
+            get("api_token.php?command=request")
+                    .thenApplyAsync(this::readToken, HTTP_EXECUTOR)
+                    .whenComplete((token, error) -> {
+                        if (token == null) {
+                            synchronized (this) {
+                                if (sessionToken == request) {
+                                    sessionToken = null;
+                                    noTokenUntil = System.currentTimeMillis() + TOKEN_RETRY_MILLIS;
+                                }
+                            }
+                        }
+                        if (error == null) {
+                            request.complete(token);
+                        } else {
+                            request.completeExceptionally(asIOException(error));
+                        }
+                    });
+        }
+        return sessionToken;
+    }
+
+    private synchronized void forgetToken(String token) {
+        if (sessionToken != null && token != null && token.equals(sessionToken.getNow(null))) {
+            sessionToken = null;
+        }
+    }
+
+    private CompletableFuture<Void> resetToken(String token) {
+        if (token == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return get("api_token.php?command=reset&token=" + token)
+                .thenApplyAsync(this::readToken, HTTP_EXECUTOR)
+                .handle((resetToken, error) -> {
+                    if (resetToken == null) {
+                        forgetToken(token);
+                    }
+                    return null;
+                });
+    }
+
+    /** The token in a token response, or null if the response does not carry one. */
+    private String readToken(HttpResponse<InputStream> response) {
+        try (InputStream body = checkStatus(response)) {
+            JsonPullParser json = new JsonPullParser(new InputStreamReader(body, StandardCharsets.UTF_8));
+            String token = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "response_code":
+                        long responseCode = json.nextLong();
+                        if (responseCode != 0) {
+                            throw new TriviaApiException((int) responseCode);
+                        }
+                        break;
+                    case "token":
+                        token = json.nextString();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            return token;
+        } catch (IOException e) {
+            System.out.println("No session token: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Sends a GET once the rate limiter hands out a permit. Token requests count too. */
+    private CompletableFuture<HttpResponse<InputStream>> get(String pathAndQuery) {
+        return rateLimiter.acquireAsync().thenCompose(ignored -> send(pathAndQuery));
+    }
+
+    /** Sends a request straight away; the caller must hold a permit. */
+    private CompletableFuture<HttpResponse<InputStream>> send(String pathAndQuery) {
+        URI uri = baseUri.resolve(pathAndQuery);
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+        System.out.println("Connecting to: " + uri);
+        return HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private static InputStream checkStatus(HttpResponse<InputStream> response) throws IOException {
+        InputStream body = response.body();
+        if (response.statusCode() != 200) {
+            body.close();
+            if (response.statusCode() == 429) {
+                throw new TriviaApiException(RATE_LIMITED);
+            }
+            throw new IOException("Failed to fetch questions. Response code: " + response.statusCode());
+        }
+        return body;
+    }
+
+    private static IOException asIOException(Throwable error) {
+        while (error instanceof CompletionException || error instanceof ExecutionException) {
+            if (error.getCause() == null) {
+                break;
+            }
+            error = error.getCause();
+        }
+        return error instanceof IOException ? (IOException) error : new IOException(error);
+    }
+}
+
+class ApiClient {
+    // Point the app at another server, such as TriviaStandInServer, with
+    // -Dquiz.api.url=http://localhost:8080/
+    private static final String API_URL = System.getProperty("quiz.api.url", "https://opentdb.com/");
+    private static final int MAX_BATCH = 50;
+
+    private static final OpentdbClient CLIENT =
+            new OpentdbClient(URI.create(API_URL), new RateLimiter(1, 5, TimeUnit.SECONDS));
+
+    private static final QuestionCache CACHE = new QuestionCache(Paths.get("quiz_questions.cache"));
+    private static final Set<String> REFRESHING = ConcurrentHashMap.newKeySet();
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "question-cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Fetches questions from the Open Trivia Database API, serving them from
+     * the local question cache when it holds enough for the request. A
+     * cached pool that is due for a refresh is topped up in the background.
+     * When the API cannot be reached, whatever the cache holds is used before
+     * falling back to the sample questions.
+     * @param amount Number of questions to fetch
+     * @param category Category ID (optional, use null for any)
+     * @param difficulty Difficulty level (optional, use null for any)
+     * @param type Type of questions (optional, use null for any)
+     * @return List of Question objects
+     */
+    public static List<Question> fetchQuestions(int amount, Integer category, String difficulty, String type) {
+        String key = QuestionCache.key(category, difficulty, type);
+        List<Question> cached = CACHE.sample(key, amount);
+        if (cached.size() == amount) {
+            if (CACHE.needsRefresh(key)) {
+                refreshInBackground(key, amount, category, difficulty, type);
+            }
+            return cached;
+        }
+
+        try {
+            List<Question> questions = download(amount, category, difficulty, type);
+            CACHE.add(key, questions);
+            return questions;
+        } catch (Exception e) {
+            System.out.println("Error fetching questions from API: " + e.getMessage());
+            if (!cached.isEmpty()) {
+                System.out.println("Using " + cached.size() + " cached questions...");
+                return cached;
+            }
+            return getSampleQuestions();
+        }
+    }
+
+    /**
+     * Tops up the cached pool with a full batch, or with the requested amount
+     * if the API does not have a full batch for these options.
+     */
+    private static void refreshInBackground(String key, int amount, Integer category, String difficulty, String type) {
+        if (!REFRESHING.add(key)) {
+            return;
+        }
+        REFRESHER.submit(() -> {
+            try {
+                List<Question> questions;
+                try {
+                    questions = download(Math.max(amount, MAX_BATCH), category, difficulty, type);
+                } catch (IOException e) {
+                    questions = download(amount, category, difficulty, type);
+                }
+                CACHE.add(key, questions);
+            } catch (Exception e) {
+                System.out.println("Background refresh of " + key + " failed: " + e.getMessage());
+            } finally {
+                REFRESHING.remove(key);
+            }
+        });
+    }
+
+    private static List<Question> download(int amount, Integer category, String difficulty, String type)
+            throws IOException {
+        return CLIENT.fetch(amount, category, difficulty, type);
+    }
+
+    /**
+     * Fetches questions without blocking the caller and adds them to the
+     * question cache. The future fails if the API cannot be reached or
+     * returns an error code.
+     */
+    public static CompletableFuture<List<Question>> fetchQuestionsAsync(int amount, Integer category,
+                                                                        String difficulty, String type) {
+        String key = QuestionCache.key(category, difficulty, type);
+        return CLIENT.fetchAsync(amount, category, difficulty, type).thenApply(questions -> {
+            CACHE.add(key, questions);
+            return questions;
+        });
+    }
+
+    /**
+     * Like fetchQuestionsAsync, but behind every foreground request in the
+     * rate limiter, for questions nobody is waiting on yet.
+     */
+    public static CompletableFuture<List<Question>> prefetchQuestionsAsync(int amount, Integer category,
+                                                                           String difficulty, String type) {
+        String key = QuestionCache.key(category, difficulty, type);
+        return CLIENT.prefetchAsync(amount, category, difficulty, type).thenApply(questions -> {
+            CACHE.add(key, questions);
+            return questions;
+        });
+    }
+
+    /**
+     * Fetches a quiz that mixes several categories. The amount is split
+     * between the categories by weight and their questions interleaved, so
+     * a 2:1 split asks two questions of the first category for every one of
+     * the second. Each category is served from the cache when it can be;
+     * the rest are downloaded concurrently, queueing in the rate limiter in
+     * the order their first question is due. The returned list fills in as
+     * downloads arrive, so the quiz can start as soon as any category has.
+     * A category that cannot be downloaded falls back to its cached
+     * questions, then to sample questions.
+     * @param amount Number of questions to fetch
+     * @param weights Category IDs and their weights, e.g. {9=1, 17=1}
+     * @param difficulty Difficulty level (optional, use null for any)
+     * @param type Type of questions (optional, use null for any)
+     * @return The interleaved questions, some possibly still arriving
+     */
+    public static MixedQuestions fetchMixedQuestions(int amount, Map<Integer, Integer> weights, String difficulty,
+                                                     String type) {
+        Map<Integer, Integer> quotas = MixedQuestions.quotas(amount, weights);
+        MixedQuestions mixed = new MixedQuestions(MixedQuestions.interleave(quotas));
+        // Shared by the failed categories, so no sample is asked twice.
+        List<Deque<Question>> samples = new ArrayList<>(1);
+
+        // Slots list each category first at its first question, so requests
+        // go out in the order the quiz needs them.
+        for (Integer category : new LinkedHashSet<>(mixed.slotCategories())) {
+            int quota = quotas.get(category);
+            String key = QuestionCache.key(category, difficulty, type);
+            List<Question> cached = CACHE.sample(key, quota);
+            if (cached.size() == quota) {
+                if (CACHE.needsRefresh(key)) {
+                    refreshInBackground(key, quota, category, difficulty, type);
+                }
+                mixed.arrived(category, cached);
+                continue;
+            }
+            fetchQuestionsAsync(quota, category, difficulty, type).whenComplete((questions, error) -> {
+                if (error == null) {
+                    mixed.arrived(category, questions);
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                System.out.println("Error fetching category " + category + " from API: " + cause.getMessage());
+                if (!cached.isEmpty()) {
+                    mixed.arrived(category, cached);
+                    return;
+                }
+                List<Question> fallback = new ArrayList<>();
+                synchronized (samples) {
+                    if (samples.isEmpty()) {
+                        samples.add(new ArrayDeque<>(getSampleQuestions()));
+                    }
+                    while (fallback.size() < quota && !samples.get(0).isEmpty()) {
+                        fallback.add(samples.get(0).poll());
+                    }
+                }
+                mixed.arrived(category, fallback);
+            });
+        }
+        return mixed;
+    }
+
+    static List<Question> parseQuestions(InputStream body) throws IOException {
+        List<Question> questions = new ArrayList<>();
+        readQuestions(new InputStreamReader(body, StandardCharsets.UTF_8), questions::add);
+        return questions;
+    }
+
+    /**
+     * Reads an API response straight off the stream, handing each question
+     * to the consumer as soon as its object has been read. Neither the body
+     * text nor a tree of the whole response is ever held in memory.
+     * @throws IOException if the JSON is malformed, or a TriviaApiException
+     *         if the API returned an error code
+     */
+    static void readQuestions(Reader body, Consumer<Question> consumer) throws IOException {
+        JsonPullParser json = new JsonPullParser(body);
+        boolean sawResponseCode = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "response_code":
+                    long responseCode = json.nextLong();
+                    if (responseCode != 0) {
+                        throw new TriviaApiException((int) responseCode);
+                    }
+                    sawResponseCode = true;
+                    break;
+                case "results":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        consumer.accept(readQuestion(json));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!sawResponseCode) {
+            throw new IOException("API response has no response_code");
+        }
+    }
+
+    private static Question readQuestion(JsonPullParser json) throws IOException {
+        String category = null;
+        String questionText = null;
+        String correctAnswer = null;
+        List<String> incorrectAnswers = new ArrayList<>(3);
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "category":
+                    category = json.nextString();
+                    break;
+                case "question":
+                    questionText = json.nextString();
+                    break;
+                case "correct_answer":
+                    correctAnswer = json.nextString();
+                    break;
+                case "incorrect_answers":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        incorrectAnswers.add(json.nextString());
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (questionText == null || correctAnswer == null) {
+            throw new IOException("Question without text or correct answer");
+        }
+        return toQuestion(category, questionText, correctAnswer, incorrectAnswers);
+    }
+
+    /**
+     * Builds a question from the raw API fields, decoding entities and
+     * putting the correct answer last.
+     */
+    static Question toQuestion(String category, String questionText, String correctAnswer,
+                               List<String> incorrectAnswers) {
+        String[] options = new String[incorrectAnswers.size() + 1];
+
+        int correctAnswerIndex = incorrectAnswers.size();
+
+        for (int i = 0; i < incorrectAnswers.size(); i++) {
+            options[i] = (char)('A' + i) + ". " + HtmlEntities.decode(incorrectAnswers.get(i));
+        }
+
+        options[correctAnswerIndex] = (char)('A' + correctAnswerIndex) + ". " + HtmlEntities.decode(correctAnswer);
+
+        int timeLimit = 20 + (int)(Math.random() * 11);
+
+        return new Question(HtmlEntities.decode(questionText), options, correctAnswerIndex, timeLimit,
+                category == null ? null : HtmlEntities.decode(category));
+    }
+
+    private static List<Question> getSampleQuestions() {
+        System.out.println("Using fallback sample questions...");
+        List<Question> questions = new ArrayList<>();
+
+        questions.add(new Question(
+                "What is the capital of France?",
+                new String[]{"A. London", "B. Berlin", "C. Paris", "D. Madrid"},
+                2, 30)); 
+
+        questions.add(new Question(
+                "Which planet is known as the Red Planet?",
+                new String[]{"A. Venus", "B. Mars", "C. Jupiter", "D. Saturn"},
+                1, 30));
+
+        questions.add(new Question(
+                "What is the largest mammal in the world?",
+                new String[]{"A. Elephant", "B. Giraffe", "C. Blue Whale", "D. Polar Bear"},
+                2, 30));
+
+        questions.add(new Question(
+                "Who wrote 'Romeo and Juliet'?",
+                new String[]{"A. Charles Dickens", "B. William Shakespeare", "C. Jane Austen", "D. Mark Twain"},
+                1, 30)); 
+
+        questions.add(new Question(
+                "What is the chemical symbol for gold?",
+                new String[]{"A. Go", "B. Gd", "C. Au", "D. Ag"},
+                2, 30)); 
+
+        return questions;
+    }
+}
+
+/**
+ * Compares the countdown the quiz used before, a task polling every 100 ms
+ * per question and posting its updates to the EDT, with CountdownScheduler
+ * and a coalesced per-frame Swing timer. It reports EDT events, background
+ * wakeups and how late expiry fires, for:
+ * - one question as the Swing app runs it;
+ * - many concurrent questions, as QuizServer runs them.
+ *
+ * Usage: java CountdownBenchmark [questionSeconds] [concurrentQuestions]
+ */
+class CountdownBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int concurrent = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        System.out.printf("One %d s question:%n", seconds);
+        CompletableFuture<String> polled = CompletableFuture.supplyAsync(() -> pollingQuestion(seconds));
+        CompletableFuture<String> scheduled = CompletableFuture.supplyAsync(() -> scheduledQuestion(seconds));
+        System.out.println("  polling every 100 ms:  " + polled.get());
+        System.out.println("  deadline + frames:     " + scheduled.get());
+
+        System.out.printf("%d concurrent 2 s questions:%n", concurrent);
+        System.out.println("  polling every 100 ms:  " + pollingMany(concurrent, 2000));
+        System.out.println("  CountdownScheduler:    " + scheduledMany(concurrent, 2000));
+    }
+
+    /** The countdown as QuizApp.startTimer ran it before. */
+    private static String pollingQuestion(int seconds) {
+        AtomicInteger edtEvents = new AtomicInteger();
+        AtomicInteger wakeups = new AtomicInteger();
+        long[] lateness = new long[1];
+        CountDownLatch expired = new CountDownLatch(1);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final int[] timeRemaining = {seconds};
+        final long startTime = System.currentTimeMillis();
+        final long duration = seconds * 1000L;
+
+        executor.scheduleAtFixedRate(() -> {
+            wakeups.incrementAndGet();
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            int remainingTime = Math.max(0, (int) ((duration - elapsedTime) / 1000));
+            if (remainingTime != timeRemaining[0]) {
+                timeRemaining[0] = remainingTime;
+                SwingUtilities.invokeLater(edtEvents::incrementAndGet);
+            }
+            SwingUtilities.invokeLater(edtEvents::incrementAndGet);
+            if (elapsedTime >= duration && expired.getCount() > 0) {
+                lateness[0] = System.nanoTime() - deadline;
+                SwingUtilities.invokeLater(edtEvents::incrementAndGet);
+                expired.countDown();
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+        awaitQuietly(expired);
+        executor.shutdownNow();
+        return String.format("%4d EDT events, %4d background wakeups, expiry %5.1f ms late",
+                edtEvents.get(), wakeups.get(), lateness[0] / 1e6);
+    }
+
+    /** The countdown as QuizApp runs it now. */
+    private static String scheduledQuestion(int seconds) {
+        AtomicInteger edtEvents = new AtomicInteger();
+        AtomicInteger wakeups = new AtomicInteger();
+        long[] lateness = new long[1];
+        CountDownLatch expired = new CountDownLatch(1);
+        CountdownScheduler scheduler = new CountdownScheduler("benchmark-countdown");
+        Timer frames = new Timer(Math.max(100, seconds * 1000 / 100), e -> edtEvents.incrementAndGet());
+        frames.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        scheduler.start(seconds, TimeUnit.SECONDS, () -> {
+            wakeups.incrementAndGet();
+            lateness[0] = System.nanoTime() - deadline;
+            SwingUtilities.invokeLater(() -> {
+                frames.stop();
+                edtEvents.incrementAndGet();
+            });
+            expired.countDown();
+        });
+        awaitQuietly(expired);
+        scheduler.shutdown();
+        return String.format("%4d EDT events, %4d background wakeups, expiry %5.1f ms late",
+                edtEvents.get(), wakeups.get(), lateness[0] / 1e6);
+    }
+
+    private static String pollingMany(int count, long millis) {
+        AtomicInteger wakeups = new AtomicInteger();
+        long[] lateness = new long[count];
+        CountDownLatch expired = new CountDownLatch(count);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        long cpu = processCpuNanos();
+        for (int i = 0; i < count; i++) {
+            int question = i;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long startTime = System.currentTimeMillis();
+            Future<?>[] poll = new Future<?>[1];
+            poll[0] = executor.scheduleAtFixedRate(() -> {
+                wakeups.incrementAndGet();
+                if (System.currentTimeMillis() - startTime >= millis && lateness[question] == 0) {
+                    lateness[question] = Math.max(1, System.nanoTime() - deadline);
+                    expired.countDown();
+                    throw new CancellationException();
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+        }
+        awaitQuietly(expired);
+        executor.shutdownNow();
+        return summary(lateness, wakeups.get(), processCpuNanos() - cpu);
+    }
+
+    private static String scheduledMany(int count, long millis) {
+        AtomicInteger wakeups = new AtomicInteger();
+        long[] lateness = new long[count];
+        CountDownLatch expired = new CountDownLatch(count);
+        CountdownScheduler scheduler = new CountdownScheduler("benchmark-countdown");
+        long cpu = processCpuNanos();
+        for (int i = 0; i < count; i++) {
+            int question = i;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            scheduler.start(millis, TimeUnit.MILLISECONDS, () -> {
+                wakeups.incrementAndGet();
+                lateness[question] = Math.max(1, System.nanoTime() - deadline);
+                expired.countDown();
+            });
+        }
+        awaitQuietly(expired);
+        scheduler.shutdown();
+        return summary(lateness, wakeups.get(), processCpuNanos() - cpu);
+    }
+
+    private static String summary(long[] lateness, int wakeups, long cpuNanos) {
+        Arrays.sort(lateness);
+        return String.format("%7d callbacks, expiry late p50 %5.1f ms, p99 %5.1f ms, max %5.1f ms, CPU %6.1f ms",
+                wakeups, lateness[lateness.length / 2] / 1e6, lateness[lateness.length * 99 / 100] / 1e6,
+                lateness[lateness.length - 1] / 1e6, cpuNanos / 1e6);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory
+                .getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/**
+ * Compares HtmlEntities with the chained replaceAll calls ApiClient used
+ * before, on strings shaped like API question and answer text: plain text,
+ * text with the common quote and ampersand references, and text dense with
+ * named and numeric references. Reports time and bytes allocated per string.
+ *
+ * Usage: java HtmlEntityBenchmark [iterations]
+ */
+class HtmlEntityBenchmark {
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String[][] inputs = {
+            {"Plain", "Which planet is known as the Red Planet?", "Blue Whale", "William Shakespeare",
+                "What is the chemical symbol for gold?"},
+            {"Typical", "Who wrote &quot;Romeo and Juliet&quot;?", "Tom &amp; Jerry",
+                "In &#039;The Matrix&#039;, which pill does Neo take?", "Which is the capital of France?"},
+            {"Dense", "Caf&eacute; &ndash; na&iuml;ve &ldquo;r&eacute;sum&eacute;&rdquo; &#233;t&#xE9; &hellip;",
+                "&Aring;ngstr&ouml;m &lt;&gt; &euro;5 &amp;&amp; &#8364;6 &copy; &not;", "&pi; &asymp; 3.14 &frac12;",
+                "Pok&eacute;mon &trade; &#x1F600; &rsquo;s &sup2;"},
+        };
+
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("Round " + round);
+            for (String[] group : inputs) {
+                String[] strings = Arrays.copyOfRange(group, 1, group.length);
+                measure(group[0] + " replaceAll  ", iterations, strings, HtmlEntityBenchmark::replaceAllDecode);
+                measure(group[0] + " single-pass ", iterations, strings, HtmlEntities::decode);
+            }
+        }
+    }
+
+    private static void measure(String label, int iterations, String[] strings,
+                                java.util.function.UnaryOperator<String> decoder) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            length += decoder.apply(strings[i % strings.length]).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("  %s %8.1f ns/string  %8.1f B/string  (%d chars)%n",
+                label, (double) elapsed / iterations, (double) allocated / iterations, length);
+    }
+
+    private static String replaceAllDecode(String input) {
+        return input.replaceAll("&quot;", "\"")
+                   .replaceAll("&amp;", "&")
+                   .replaceAll("&lt;", "<")
+                   .replaceAll("&gt;", ">")
+                   .replaceAll("&#039;", "'")
+                   .replaceAll("&rsquo;", "'")
+                   .replaceAll("&lsquo;", "'")
+                   .replaceAll("&rdquo;", "\"")
+                   .replaceAll("&ldquo;", "\"");
+    }
+}
+
+/**
+ * Compares the streaming question parser with the old json-simple path,
+ * which joined the body into one String and parsed it into a JSONObject
+ * tree before building questions, on synthetic 50 and 500 question
+ * responses. Reports time and bytes allocated per parse.
+ *
+ * Usage: java QuestionParserBenchmark [iterations]
+ */
+class QuestionParserBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        for (int questionCount : new int[]{50, 500}) {
+            byte[] payload = payload(questionCount);
+            int runs = Math.max(20, iterations * 50 / questionCount);
+            System.out.println(questionCount + " questions, " + payload.length + " bytes, " + runs + " parses");
+            for (int round = 1; round <= 3; round++) {
+                measure("  json-simple", runs, () -> parseWithJsonSimple(new ByteArrayInputStream(payload)));
+                measure("  streaming  ", runs, () -> ApiClient.parseQuestions(new ByteArrayInputStream(payload)));
+            }
+        }
+    }
+
+    private interface Parse {
+        List<Question> run() throws Exception;
+    }
+
+    private static void measure(String label, int runs, Parse parse) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int questions = 0;
+        for (int i = 0; i < runs; i++) {
+            questions += parse.run().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%s %9.1f us/parse  %9.1f KB/parse  (%d questions)%n",
+                label, elapsed / 1000.0 / runs, allocated / 1024.0 / runs, questions / runs);
+    }
+
+    private static List<Question> parseWithJsonSimple(InputStream body) throws IOException, ParseException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String response = reader.lines().collect(Collectors.joining());
+        reader.close();
+
+        JSONObject jsonObject = (JSONObject) new JSONParser().parse(response);
+        if ((long) jsonObject.get("response_code") != 0) {
+            throw new IOException("API returned error code: " + jsonObject.get("response_code"));
+        }
+        List<Question> questions = new ArrayList<>();
+        for (Object obj : (JSONArray) jsonObject.get("results")) {
+            JSONObject questionObj = (JSONObject) obj;
+            List<String> incorrectAnswers = new ArrayList<>();
+            for (Object answer : (JSONArray) questionObj.get("incorrect_answers")) {
+                incorrectAnswers.add((String) answer);
+            }
+            questions.add(ApiClient.toQuestion((String) questionObj.get("category"),
+                    (String) questionObj.get("question"), (String) questionObj.get("correct_answer"),
+                    incorrectAnswers));
+        }
+        return questions;
+    }
+
+    /** A response shaped like the API's, with entities and escapes in the text. */
+    private static byte[] payload(int questionCount) {
+        Random random = new Random(42);
+        String[] categories = {"General Knowledge", "Science &amp; Nature", "Entertainment: Film", "History"};
+        StringBuilder json = new StringBuilder("{\"response_code\":0,\"results\":[");
+        for (int i = 0; i < questionCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"multiple\",\"difficulty\":\"medium\",\"category\":\"")
+                    .append(categories[random.nextInt(categories.length)])
+                    .append("\",\"question\":\"Which of these is known as &quot;question ").append(i)
+                    .append("&quot; in the \\u00e9dition of Caf&eacute; Trivia &#039;")
+                    .append(1900 + random.nextInt(120)).append("&#039;?\",\"correct_answer\":\"Answer ")
+                    .append(random.nextInt(1000)).append("\",\"incorrect_answers\":[");
+            for (int j = 0; j < 3; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("\"Wrong &amp; answer ").append(random.nextInt(1000)).append('"');
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * Compares QuizResult as it was, boxed lists of answers and outcomes with
+ * a string per time-out, against the compact record, and merging results
+ * under one lock against QuizAnalytics' striped counters. Reports heap
+ * kept per 20-question result and merged quizzes per second for 1 and 4
+ * recording threads.
+ *
+ * Usage: java QuizAnalyticsBenchmark [quizzes]
+ */
+class QuizAnalyticsBenchmark {
+    private static final int QUESTIONS_PER_QUIZ = 20;
+    private static final int DISTINCT_QUIZZES = 1000;
+
+    /** QuizResult as it was before the compact record. */
+    private static class BoxedQuizResult {
+        final List<Integer> userAnswers = new ArrayList<>();
+        final List<Boolean> answerResults = new ArrayList<>();
+        final List<String> timedOutQuestions = new ArrayList<>();
+
+        void addResult(int questionNumber, int userAnswer, boolean isCorrect, boolean isTimedOut) {
+            userAnswers.add(userAnswer);
+            answerResults.add(isCorrect);
+            if (isTimedOut) {
+                timedOutQuestions.add("Question " + (questionNumber + 1));
+            }
+        }
+    }
+
+    /** The obvious aggregator: the same counters in maps behind one lock. */
+    private static class LockedAnalytics {
+        private static final int COUNTERS = 4 + QuizAnalytics.MAX_LATENCY_SECONDS + 1;
+
+        private final long[] total = new long[COUNTERS];
+        private final Map<String, long[]> categories = new HashMap<>();
+        private final Map<String, long[]> questions = new HashMap<>();
+
+        synchronized void record(List<Question> asked, BoxedQuizResult result, int[] responseMillis) {
+            for (int i = 0; i < result.answerResults.size(); i++) {
+                Question question = asked.get(i);
+                boolean correct = result.answerResults.get(i);
+                boolean timedOut = result.userAnswers.get(i) < 0;
+                add(total, correct, timedOut, responseMillis[i]);
+                add(categories.computeIfAbsent(question.getCategory(), k -> new long[COUNTERS]), correct, timedOut,
+                        responseMillis[i]);
+                add(questions.computeIfAbsent(question.getQuestionText(), k -> new long[COUNTERS]), correct,
+                        timedOut, responseMillis[i]);
+            }
+        }
+
+        private static void add(long[] counters, boolean correct, boolean timedOut, int millis) {
+            counters[0]++;
+            counters[1] += correct ? 1 : 0;
+            if (timedOut) {
+                counters[2]++;
+            } else {
+                counters[3] += millis;
+                counters[4 + Math.min(millis / 1000, QuizAnalytics.MAX_LATENCY_SECONDS)]++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int quizzes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+
+        List<Question> bank = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            bank.add(new Question("Question " + i, new String[]{"A. 1", "B. 2", "C. 3", "D. 4"},
+                    random.nextInt(4), 30, "Category " + (i % 8)));
+        }
+        List<List<Question>> asked = new ArrayList<>();
+        List<QuizResult> compact = new ArrayList<>();
+        List<BoxedQuizResult> boxed = new ArrayList<>();
+        List<int[]> times = new ArrayList<>();
+        for (int q = 0; q < DISTINCT_QUIZZES; q++) {
+            List<Question> questions = new ArrayList<>();
+            QuizResult result = new QuizResult(QUESTIONS_PER_QUIZ);
+            BoxedQuizResult old = new BoxedQuizResult();
+            int[] millis = new int[QUESTIONS_PER_QUIZ];
+            for (int i = 0; i < QUESTIONS_PER_QUIZ; i++) {
+                Question question = bank.get(random.nextInt(bank.size()));
+                boolean timedOut = random.nextInt(20) == 0;
+                int answer = timedOut ? -1 : random.nextInt(4);
+                boolean correct = answer == question.getCorrectAnswerIndex();
+                millis[i] = timedOut ? 30_000 : 1000 + random.nextInt(20_000);
+                questions.add(question);
+                result.addResult(answer, correct, timedOut, millis[i]);
+                old.addResult(i, answer, correct, timedOut);
+            }
+            asked.add(questions);
+            compact.add(result);
+            boxed.add(old);
+            times.add(millis);
+        }
+
+        System.out.printf("heap per %d-question result: boxed %d bytes, compact %d bytes%n", QUESTIONS_PER_QUIZ,
+                retained(() -> {
+                    BoxedQuizResult old = new BoxedQuizResult();
+                    BoxedQuizResult template = boxed.get(random.nextInt(DISTINCT_QUIZZES));
+                    for (int i = 0; i < QUESTIONS_PER_QUIZ; i++) {
+                        old.addResult(i, template.userAnswers.get(i), template.answerResults.get(i),
+                                template.userAnswers.get(i) < 0);
+                    }
+                    return old;
+                }),
+                retained(() -> {
+                    QuizResult result = new QuizResult(QUESTIONS_PER_QUIZ);
+                    QuizResult template = compact.get(random.nextInt(DISTINCT_QUIZZES));
+                    for (int i = 0; i < QUESTIONS_PER_QUIZ; i++) {
+                        result.addResult(template.getUserAnswer(i), template.isCorrect(i), template.isTimedOut(i),
+                                template.getResponseMillis(i));
+                    }
+                    return result;
+                }));
+
+        for (int threads : new int[]{1, 4}) {
+            for (int round = 1; round <= 3; round++) {
+                LockedAnalytics locked = new LockedAnalytics();
+                double lockedRate = rate(threads, quizzes,
+                        q -> locked.record(asked.get(q), boxed.get(q), times.get(q)));
+                QuizAnalytics striped = new QuizAnalytics();
+                double stripedRate = rate(threads, quizzes, q -> striped.record(asked.get(q), compact.get(q)));
+                System.out.printf("%d thread(s): one lock %,10.0f quizzes/s, striped %,10.0f quizzes/s%n",
+                        threads, lockedRate, stripedRate);
+            }
+        }
+    }
+
+    /** Average bytes kept alive per object made by the factory. */
+    private static long retained(java.util.function.Supplier<Object> factory) {
+        int count = 200_000;
+        Object[] kept = new Object[count];
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            kept[i] = factory.get();
+        }
+        long after = usedHeap();
+        if (kept[count - 1] == null) {
+            throw new AssertionError();
+        }
+        return (after - before) / count;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /** Records quizzes from the given number of threads; returns quizzes per second. */
+    private static double rate(int threads, int quizzes, java.util.function.IntConsumer record) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers.add(pool.submit(() -> {
+                for (int q = first; q < quizzes; q += threads) {
+                    record.accept(q % DISTINCT_QUIZZES);
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        return quizzes / seconds;
+    }
+}
+
+/**
+ * Loads a synthetic bank of 200,000 questions into QuestionBank and times
+ * dealing 10-question quizzes from it against filtering a flat list of
+ * the same questions and shuffling the matches, for a single category and
+ * difficulty and for any question at all. Reports load time, heap held
+ * by the bank and microseconds per quiz.
+ *
+ * Usage: java QuestionBankBenchmark [questions]
+ */
+class QuestionBankBenchmark {
+    private static final String[] CATEGORIES = {
+        "General Knowledge", "Science &amp; Nature", "Entertainment: Film", "History", "Geography", "Sports",
+        "Mythology", "Art", "Animals", "Vehicles", "Politics", "Celebrities"
+    };
+    private static final String[] DIFFICULTIES = {"easy", "medium", "hard"};
+    private static final int QUIZ_SIZE = 10;
+
+    /** A question with the fields the flat list has to filter on. */
+    private static class Entry {
+        final Question question;
+        final String difficulty;
+        final String type;
+
+        Entry(Question question, String difficulty, String type) {
+            this.question = question;
+            this.difficulty = difficulty;
+            this.type = type;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path file = Files.createTempFile("question-bank", ".json");
+        try {
+            List<Entry> flat = writeBank(file, size);
+            System.out.printf("%,d questions, %,d bytes%n", size, Files.size(file));
+
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            QuestionBank bank = QuestionBank.load(file);
+            long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("load %d ms, %d bytes of heap per question%n", loadMillis,
+                    (usedHeap() - heapBefore) / bank.size());
+
+            String category = HtmlEntities.decode(CATEGORIES[1]);
+            System.out.printf("%s/medium/multiple: %d questions; any: %d%n", category,
+                    bank.count(category, "medium", "multiple"), bank.count(null, null, null));
+            for (int round = 1; round <= 3; round++) {
+                System.out.printf("  one filter  flat list %9.1f us/quiz, bank %6.2f us/quiz%n",
+                        perQuiz(2_000, () -> flatSample(flat, category, "medium", "multiple")),
+                        perQuiz(200_000, () -> bank.sample(QUIZ_SIZE, category, "medium", "multiple")));
+                System.out.printf("  any         flat list %9.1f us/quiz, bank %6.2f us/quiz%n",
+                        perQuiz(200, () -> flatSample(flat, null, null, null)),
+                        perQuiz(200_000, () -> bank.sample(QUIZ_SIZE, null, null, null)));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** What a flat list allows: find every match, shuffle, take the first few. */
+    private static List<Question> flatSample(List<Entry> flat, String category, String difficulty, String type) {
+        List<Question> matches = new ArrayList<>();
+        for (Entry entry : flat) {
+            if ((category == null || category.equals(entry.question.getCategory()))
+                    && (difficulty == null || difficulty.equals(entry.difficulty))
+                    && (type == null || type.equals(entry.type))) {
+                matches.add(entry.question);
+            }
+        }
+        Collections.shuffle(matches);
+        return new ArrayList<>(matches.subList(0, Math.min(QUIZ_SIZE, matches.size())));
+    }
+
+    private static double perQuiz(int quizzes, java.util.function.Supplier<List<Question>> sample) {
+        int dealt = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < quizzes; i++) {
+            dealt += sample.get().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (dealt != quizzes * QUIZ_SIZE) {
+            throw new AssertionError("Dealt " + dealt + " questions for " + quizzes + " quizzes");
+        }
+        return elapsed / 1000.0 / quizzes;
+    }
+
+    private static List<Entry> writeBank(Path file, int size) throws IOException {
+        Random random = new Random(42);
+        List<Entry> flat = new ArrayList<>(size);
+        try (java.io.Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"response_code\":0,\"results\":[");
+            for (int i = 0; i < size; i++) {
+                String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                String difficulty = DIFFICULTIES[random.nextInt(DIFFICULTIES.length)];
+                String type = random.nextInt(4) == 0 ? "boolean" : "multiple";
+                List<String> incorrect = type.equals("boolean")
+                        ? List.of("False")
+                        : List.of("Wrong " + random.nextInt(1000), "Wrong &amp; " + i, "Wrong &quot;" + i + "&quot;");
+                String text = "Question " + i + " about &quot;" + category + "&quot;?";
+                out.write((i > 0 ? "," : "") + "{\"category\":\"" + category + "\",\"type\":\"" + type
+                        + "\",\"difficulty\":\"" + difficulty + "\",\"question\":\"" + text
+                        + "\",\"correct_answer\":\"Right " + i + "\",\"incorrect_answers\":[\""
+                        + String.join("\",\"", incorrect) + "\"]}");
+                flat.add(new Entry(ApiClient.toQuestion(category, text, "Right " + i, incorrect), difficulty, type));
+            }
+            out.write("]}");
+        }
+        return flat;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
+
+/**
+ * Stand-in for the Open Trivia Database API, for testing and benchmarking
+ * the client without the live service. It serves api.php and api_token.php
+ * with the real contract: session tokens that never repeat a question until
+ * reset (code 4 when exhausted, 3 when unknown), code 1 when the pool
+ * cannot fill a request and code 2 for an amount over the maximum. Each
+ * category/difficulty/type has a pool of synthetic questions with HTML
+ * entities in the text.
+ *
+ * It can also misbehave on purpose:
+ * - add latency, with jitter;
+ * - throttle with code 5 and HTTP 429, either when requests come closer
+ *   together than a minimum interval (as the real API does) or at random;
+ * - return malformed payloads;
+ * - allow batches larger than the real API's 50.
+ *
+ * Usage: java TriviaStandInServer [--port N] [--latency-ms N] [--jitter-ms N]
+ *        [--min-interval-ms N] [--throttle-rate P] [--malformed-rate P]
+ *        [--max-amount N] [--pool N]
+ * and start the quiz with -Dquiz.api.url=http://localhost:PORT/
+ */
+class TriviaStandInServer {
+    static class Config {
+        int port = 8080;
+        long latencyMillis;
+        long jitterMillis;
+        long minIntervalMillis;
+        double throttleRate;
+        double malformedRate;
+        int maxAmount = 50;
+        int poolSize = 1000;
+    }
+
+    private static final String[] MALFORMED = {
+        "{\"response_code\":0,\"results\":[{\"question\":\"Truncated",
+        "<html><body>502 Bad Gateway</body></html>",
+        "{\"response_code\":\"0\",\"results\":[]}",
+        "{\"response_code\":0,\"results\":[{\"question\":\"No answers\"}]}",
+    };
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Per token, the next unseen question index of each query.
+    private final Map<String, Map<String, Integer>> tokens = new ConcurrentHashMap<>();
+    private final Object throttleLock = new Object();
+    private long lastRequestAt = Long.MIN_VALUE / 2;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong throttled = new AtomicLong();
+    final AtomicLong malformed = new AtomicLong();
+    final AtomicLong questionsServed = new AtomicLong();
+
+    public TriviaStandInServer(Config config) throws IOException {
+        this.config = config;
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "trivia-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = JsonHttp.createServer(config.port);
+        server.setExecutor(executor);
+        server.createContext("/api.php", exchange -> handle(exchange, false));
+        server.createContext("/api_token.php", exchange -> handle(exchange, true));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public URI getBaseUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    private void handle(HttpExchange exchange, boolean tokenRequest) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            sleepLatency();
+            Map<String, String> parameters = JsonHttp.parameters(exchange.getRequestURI().getRawQuery());
+
+            if (isThrottled()) {
+                throttled.incrementAndGet();
+                JsonHttp.respond(exchange, 429, "{\"response_code\":5,\"results\":[]}");
+            } else if (!tokenRequest && ThreadLocalRandom.current().nextDouble() < config.malformedRate) {
+                malformed.incrementAndGet();
+                JsonHttp.respond(exchange, 200, MALFORMED[ThreadLocalRandom.current().nextInt(MALFORMED.length)]);
+            } else if (tokenRequest) {
+                JsonHttp.respond(exchange, 200, tokenResponse(parameters));
+            } else {
+                JsonHttp.respond(exchange, 200, questionResponse(parameters));
+            }
+        }
+    }
+
+    private boolean isThrottled() {
+        if (ThreadLocalRandom.current().nextDouble() < config.throttleRate) {
+            return true;
+        }
+        if (config.minIntervalMillis <= 0) {
+            return false;
+        }
+        synchronized (throttleLock) {
+            long now = System.nanoTime();
+            if (now - lastRequestAt < TimeUnit.MILLISECONDS.toNanos(config.minIntervalMillis)) {
+                return true;
+            }
+            lastRequestAt = now;
+            return false;
+        }
+    }
+
+    private String tokenResponse(Map<String, String> parameters) {
+        String command = parameters.getOrDefault("command", "");
+        if (command.equals("request")) {
+            String token = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            tokens.put(token, new ConcurrentHashMap<>());
+            return "{\"response_code\":0,\"response_message\":\"Token Generated Successfully!\",\"token\":\""
+                    + token + "\"}";
+        }
+        String token = parameters.getOrDefault("token", "");
+        if (command.equals("reset") && tokens.containsKey(token)) {
+            tokens.get(token).clear();
+            return "{\"response_code\":0,\"token\":\"" + token + "\"}";
+        }
+        return "{\"response_code\":" + (command.equals("reset") ? 3 : 2) + ",\"token\":\"\"}";
+    }
+
+    private String questionResponse(Map<String, String> parameters) {
+        int amount;
+        try {
+            amount = Integer.parseInt(parameters.getOrDefault("amount", ""));
+        } catch (NumberFormatException e) {
+            amount = -1;
+        }
+        if (amount < 1 || amount > config.maxAmount) {
+            return "{\"response_code\":2,\"results\":[]}";
+        }
+
+        String category = parameters.getOrDefault("category", "any");
+        String difficulty = parameters.getOrDefault("difficulty", "medium");
+        String query = category + "/" + difficulty + "/" + parameters.getOrDefault("type", "multiple");
+        int first;
+        String token = parameters.get("token");
+        if (token != null) {
+            Map<String, Integer> seen = tokens.get(token);
+            if (seen == null) {
+                return "{\"response_code\":3,\"results\":[]}";
+            }
+            synchronized (seen) {
+                first = seen.getOrDefault(query, 0);
+                if (first + amount > config.poolSize) {
+                    return "{\"response_code\":4,\"results\":[]}";
+                }
+                seen.put(query, first + amount);
+            }
+        } else {
+            if (amount > config.poolSize) {
+                return "{\"response_code\":1,\"results\":[]}";
+            }
+            first = ThreadLocalRandom.current().nextInt(config.poolSize - amount + 1);
+        }
+
+        questionsServed.addAndGet(amount);
+        StringBuilder json = new StringBuilder(amount * 320).append("{\"response_code\":0,\"results\":[");
+        for (int i = first; i < first + amount; i++) {
+            if (i > first) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"multiple\",\"difficulty\":\"").append(difficulty)
+                    .append("\",\"category\":\"Category ").append(category)
+                    .append("\",\"question\":\"Stand-in question #").append(i).append(" on &quot;").append(query)
+                    .append("&quot;: which answer is correct &amp; why&#039;s that?\",\"correct_answer\":\"Answer ")
+                    .append(i).append(" &eacute;\",\"incorrect_answers\":[\"Wrong ").append(i)
+                    .append("a\",\"Wrong ").append(i).append("b &lt;\",\"Wrong ").append(i).append("c\"]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private void sleepLatency() {
+        long latency = config.latencyMillis
+                + (config.jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(config.jitterMillis + 1) : 0);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config config = new Config();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    config.port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--latency-ms":
+                    config.latencyMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--jitter-ms":
+                    config.jitterMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--min-interval-ms":
+                    config.minIntervalMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--throttle-rate":
+                    config.throttleRate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--malformed-rate":
+                    config.malformedRate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--max-amount":
+                    config.maxAmount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--pool":
+                    config.poolSize = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        TriviaStandInServer server = new TriviaStandInServer(config);
+        server.start();
+        System.out.println("Stand-in trivia API at " + server.getBaseUri() + " (Ctrl+C to stop)");
+    }
+}
+
+/**
+ * Runs the client's real fetch path (rate limiter, session tokens, retries,
+ * streaming parse and entity decoding) against TriviaStandInServer in a
+ * series of scenarios and reports throughput, latency percentiles and the
+ * fallback rate, i.e. the share of fetches that failed and would have made
+ * ApiClient fall back to cached or sample questions.
+ *
+ * Usage: java TriviaApiBenchmark [requestsPerScenario]
+ */
+class TriviaApiBenchmark {
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        // Effectively unlimited: the stand-in does not throttle unless asked to.
+        RateLimiter unlimited = new RateLimiter(100_000, 1, TimeUnit.MICROSECONDS);
+
+        System.out.printf("%-24s %6s %9s %10s %8s %8s %8s %8s %9s  %s%n", "Scenario", "reqs", "req/s", "questions/s",
+                "p50 ms", "p95 ms", "p99 ms", "max ms", "fallback", "server");
+
+        TriviaStandInServer.Config config = new TriviaStandInServer.Config();
+        config.latencyMillis = 20;
+        config.jitterMillis = 10;
+        run("baseline, 8 clients", config, unlimited, requests, 8, 10);
+
+        config = new TriviaStandInServer.Config();
+        config.latencyMillis = 20;
+        config.jitterMillis = 10;
+        config.maxAmount = 500;
+        config.poolSize = 5000;
+        run("500-question batches", config, unlimited, requests / 4, 4, 500);
+
+        config = new TriviaStandInServer.Config();
+        config.latencyMillis = 20;
+        config.jitterMillis = 10;
+        config.malformedRate = 0.05;
+        run("5% malformed", config, unlimited, requests, 8, 10);
+
+        config = new TriviaStandInServer.Config();
+        config.latencyMillis = 20;
+        config.jitterMillis = 10;
+        config.throttleRate = 0.2;
+        run("20% random code 5", config, new RateLimiter(8, 10, TimeUnit.MILLISECONDS), requests, 8, 10);
+
+        config = new TriviaStandInServer.Config();
+        config.minIntervalMillis = 50;
+        run("paced to server limit", config, new RateLimiter(1, 55, TimeUnit.MILLISECONDS), requests / 10, 4, 10);
+        run("client faster than limit", config, new RateLimiter(1, 25, TimeUnit.MILLISECONDS), requests / 10, 4, 10);
+    }
+
+    private static void run(String name, TriviaStandInServer.Config config, RateLimiter rateLimiter, int requests,
+                            int clients, int amount) throws Exception {
+        config.port = 0;
+        TriviaStandInServer server = new TriviaStandInServer(config);
+        server.start();
+        OpentdbClient client = new OpentdbClient(server.getBaseUri(), rateLimiter);
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong questions = new AtomicLong();
+
+        // The client logs every request; keep the report readable.
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                workers.add(pool.submit(() -> {
+                    for (int request = next.getAndIncrement(); request < requests; request = next.getAndIncrement()) {
+                        long requestStart = System.nanoTime();
+                        try {
+                            questions.addAndGet(client.fetch(amount, 9, "medium", "multiple").size());
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[request] = System.nanoTime() - requestStart;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+            System.setOut(console);
+            server.stop();
+
+            Arrays.sort(latencies);
+            double seconds = elapsed / 1e9;
+            System.out.printf("%-24s %6d %9.1f %10.0f %8.1f %8.1f %8.1f %8.1f %8.1f%%  %d requests, %d throttled, "
+                            + "%d malformed%n", name, requests, requests / seconds, questions.get() / seconds,
+                    percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                    latencies[latencies.length - 1] / 1e6, 100.0 * failures.get() / requests,
+                    server.requests.get(), server.throttled.get(), server.malformed.get());
+        }
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
+
+/**
+ * Keeps a buffer of unplayed questions for the quiz options players pick,
+ * so a quiz can usually start without waiting on the API. Taking questions
+ * out of a buffer schedules an asynchronous refill, which waits in the API
+ * client's rate limiter until no quiz being started needs the permit. Only
+ * the MAX_BUFFERS most recently used option sets are kept warm.
+ */
+class QuestionPrefetcher {
+    static final int BUFFER_TARGET = 20;
+    static final int MAX_BUFFERS = 4;
+
+    // Access order, so iteration starts at the least recently used buffer.
+    private final LinkedHashMap<String, Deque<Question>> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> refilling = new HashSet<>();
+
+    /**
+     * Removes amount questions from the buffer for these options and starts
+     * refilling it. Returns null if the buffer does not hold that many yet.
+     */
+    public synchronized List<Question> take(int amount, Integer category, String difficulty, String type) {
+        Deque<Question> buffer = buffers.get(QuestionCache.key(category, difficulty, type));
+        if (buffer == null || buffer.size() < amount) {
+            return null;
+        }
+        List<Question> questions = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            questions.add(buffer.poll());
+        }
+        warm(category, difficulty, type);
+        return questions;
+    }
+
+    /**
+     * Starts filling the buffer for these options unless it is already full
+     * or a refill is queued.
+     */
+    public synchronized void warm(Integer category, String difficulty, String type) {
+        String key = QuestionCache.key(category, difficulty, type);
+        Deque<Question> buffer = buffers.computeIfAbsent(key, k -> new ArrayDeque<>());
+        Iterator<String> leastRecent = buffers.keySet().iterator();
+        while (buffers.size() > MAX_BUFFERS) {
+            if (!leastRecent.next().equals(key)) {
+                leastRecent.remove();
+            }
+        }
+
+        if (buffer.size() >= BUFFER_TARGET || !refilling.add(key)) {
+            return;
+        }
+        ApiClient.prefetchQuestionsAsync(BUFFER_TARGET, category, difficulty, type)
+                .whenComplete((questions, error) -> refilled(key, questions, error));
+    }
+
+    private synchronized void refilled(String key, List<Question> questions, Throwable error) {
+        refilling.remove(key);
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            System.out.println("Prefetch of " + key + " failed: " + cause.getMessage());
+            return;
+        }
+        Deque<Question> buffer = buffers.get(key);
+        if (buffer == null) {
+            return;
+        }
+        Set<String> buffered = new HashSet<>();
+        for (Question question : buffer) {
+            buffered.add(question.getQuestionText());
+        }
+        for (Question question : questions) {
+            if (buffered.add(question.getQuestionText())) {
+                buffer.add(question);
+            }
+        }
+    }
+}
+
+/**
+ * The questions of a mixed-category quiz while their downloads are still
+ * arriving. Each position (slot) is planned for a category up front, and
+ * a question is only placed in its position when the quiz asks for it: it
+ * comes from the first remaining slot whose category has arrived. The
+ * planned interleaving holds once everything is in, and a slow category
+ * does not keep the quiz waiting while others have questions to ask.
+ *
+ * get() returns null for a position none of whose candidate categories has
+ * arrived yet; whenAvailable() completes once it has. A category that comes
+ * back short gives up its remaining slots, so size() can shrink.
+ */
+class MixedQuestions extends AbstractList<Question> {
+    // Categories of the positions not placed yet, in interleaved order.
+    private final List<Integer> slots;
+    private final Set<Integer> pending;
+    private final Map<Integer, Deque<Question>> arrived = new HashMap<>();
+    private final List<Question> placed = new ArrayList<>();
+    private final Map<Integer, CompletableFuture<Question>> waiting = new HashMap<>();
+
+    MixedQuestions(List<Integer> slots) {
+        this.slots = new ArrayList<>(slots);
+        this.pending = new HashSet<>(slots);
+    }
+
+    /**
+     * Splits amount between the categories in proportion to their weights,
+     * giving the remainder to the largest fractions. Categories that get no
+     * questions are left out.
+     */
+    static Map<Integer, Integer> quotas(int amount, Map<Integer, Integer> weights) {
+        long total = 0;
+        for (int weight : weights.values()) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight " + weight);
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("No category has a weight");
+        }
+
+        Map<Integer, Integer> quotas = new LinkedHashMap<>();
+        Map<Integer, Long> remainders = new HashMap<>();
+        int assigned = 0;
+        for (Map.Entry<Integer, Integer> entry : weights.entrySet()) {
+            long share = (long) amount * entry.getValue();
+            quotas.put(entry.getKey(), (int) (share / total));
+            remainders.put(entry.getKey(), share % total);
+            assigned += (int) (share / total);
+        }
+        List<Integer> byRemainder = new ArrayList<>(quotas.keySet());
+        byRemainder.sort((a, b) -> Long.compare(remainders.get(b), remainders.get(a)));
+        for (int i = 0; assigned < amount; i++, assigned++) {
+            quotas.merge(byRemainder.get(i), 1, Integer::sum);
+        }
+        quotas.values().removeIf(quota -> quota == 0);
+        return quotas;
+    }
+
+    /**
+     * Spreads each category's quota evenly over the quiz with smooth
+     * weighted round robin, e.g. {A=2, B=1} gives A, B, A.
+     */
+    static List<Integer> interleave(Map<Integer, Integer> quotas) {
+        List<Integer> categories = new ArrayList<>(quotas.keySet());
+        int[] credit = new int[categories.size()];
+        int amount = 0;
+        for (int quota : quotas.values()) {
+            amount += quota;
+        }
+
+        List<Integer> slots = new ArrayList<>(amount);
+        for (int slot = 0; slot < amount; slot++) {
+            int best = 0;
+            for (int i = 0; i < credit.length; i++) {
+                credit[i] += quotas.get(categories.get(i));
+                if (credit[i] > credit[best]) {
+                    best = i;
+                }
+            }
+            credit[best] -= amount;
+            slots.add(categories.get(best));
+        }
+        return slots;
+    }
+
+    synchronized List<Integer> slotCategories() {
+        return new ArrayList<>(slots);
+    }
+
+    @Override
+    public synchronized int size() {
+        return placed.size() + slots.size();
+    }
+
+    /** The question at index, or null if it has not arrived yet. */
+    @Override
+    public synchronized Question get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size());
+        }
+        return place(index) ? placed.get(index) : null;
+    }
+
+    /**
+     * Completes with the question at index once it has arrived, or with
+     * null if the quiz turned out shorter than that.
+     */
+    public synchronized CompletableFuture<Question> whenAvailable(int index) {
+        if (index >= size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (place(index)) {
+            return CompletableFuture.completedFuture(placed.get(index));
+        }
+        return waiting.computeIfAbsent(index, k -> new CompletableFuture<>());
+    }
+
+    /** Hands over a category's questions; no more will come for it. */
+    void arrived(Integer category, List<Question> questions) {
+        Map<CompletableFuture<Question>, Question> ready = new HashMap<>();
+        synchronized (this) {
+            if (!pending.remove(category)) {
+                return;
+            }
+            Deque<Question> buffer = new ArrayDeque<>(questions);
+            arrived.put(category, buffer);
+
+            int unfilled = -buffer.size();
+            for (int slot : slots) {
+                if (slot == category) {
+                    unfilled++;
+                }
+            }
+            for (int i = slots.size() - 1; i >= 0 && unfilled > 0; i--) {
+                if (slots.get(i).equals(category)) {
+                    slots.remove(i);
+                    unfilled--;
+                }
+            }
+
+            Iterator<Map.Entry<Integer, CompletableFuture<Question>>> waiters = waiting.entrySet().iterator();
+            while (waiters.hasNext()) {
+                Map.Entry<Integer, CompletableFuture<Question>> waiter = waiters.next();
+                int index = waiter.getKey();
+                if (index >= size()) {
+                    ready.put(waiter.getValue(), null);
+                } else if (place(index)) {
+                    ready.put(waiter.getValue(), placed.get(index));
+                } else {
+                    continue;
+                }
+                waiters.remove();
+            }
+        }
+        // Outside the lock, as dependents run on this thread.
+        ready.forEach(CompletableFuture::complete);
+    }
+
+    private boolean place(int index) {
+        while (placed.size() <= index) {
+            int slot = 0;
+            while (slot < slots.size() && arrived.getOrDefault(slots.get(slot), new ArrayDeque<>()).isEmpty()) {
+                slot++;
+            }
+            if (slot == slots.size()) {
+                return false;
+            }
+            placed.add(arrived.get(slots.remove(slot)).poll());
+        }
+        return true;
+    }
+}
+
+/**
+ * A local bank of questions, read once from a file shaped like an API
+ * response ({"results": [...]}), so quizzes can run from a large curated
+ * set instead of the live API. The questions sit in one array, and every
+ * filter a quiz can ask for (category, difficulty and type, each of which
+ * may be any) has an index listing its questions' positions as ints.
+ *
+ * Each index is dealt like a deck. Drawing swaps a random question from
+ * past the cursor into place and moves the cursor on, one step of a
+ * Fisher-Yates shuffle, so a sample of n costs O(n) however big the bank
+ * is. A filter's questions do not repeat across quizzes until its deck
+ * has been dealt; a quiz that would run past the end starts a new round.
+ */
+class QuestionBank {
+    private static final String ANY = "any";
+
+    private static class Deck {
+        final int[] positions;
+        int cursor;
+
+        Deck(int size) {
+            this.positions = new int[size];
+        }
+    }
+
+    private final Question[] questions;
+    private final Map<String, Deck> decks;
+
+    private QuestionBank(Question[] questions, Map<String, Deck> decks) {
+        this.questions = questions;
+        this.decks = decks;
+    }
+
+    /**
+     * Reads a bank file. A question with no category, difficulty or type is
+     * only found by filters that leave that field as any.
+     */
+    static QuestionBank load(Path file) throws IOException {
+        List<Question> questions = new ArrayList<>();
+        // The indexes each question goes in, shared by questions with the same filter.
+        List<String[]> keys = new ArrayList<>();
+        Map<String, String[]> keysByFilter = new HashMap<>();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonPullParser json = new JsonPullParser(in);
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!json.nextName().equals("results")) {
+                    json.skipValue();
+                    continue;
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    readQuestion(json, questions, keys, keysByFilter);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+
+        // Size every index first, then fill them in one pass.
+        Map<String, Deck> decks = new HashMap<>();
+        Map<String, int[]> sizes = new HashMap<>();
+        for (String[] questionKeys : keys) {
+            for (String key : questionKeys) {
+                sizes.computeIfAbsent(key, k -> new int[1])[0]++;
+            }
+        }
+        sizes.forEach((key, size) -> decks.put(key, new Deck(size[0])));
+        for (int i = 0; i < questions.size(); i++) {
+            for (String key : keys.get(i)) {
+                Deck deck = decks.get(key);
+                deck.positions[deck.cursor++] = i;
+            }
+        }
+        for (Deck deck : decks.values()) {
+            deck.cursor = 0;
+        }
+        return new QuestionBank(questions.toArray(new Question[0]), decks);
+    }
+
+    private static void readQuestion(JsonPullParser json, List<Question> questions, List<String[]> keys,
+                                     Map<String, String[]> keysByFilter) throws IOException {
+        String category = null;
+        String difficulty = null;
+        String type = null;
+        String questionText = null;
+        String correctAnswer = null;
+        List<String> incorrectAnswers = new ArrayList<>(3);
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "category":
+                    category = json.nextString();
+                    break;
+                case "difficulty":
+                    difficulty = json.nextString();
+                    break;
+                case "type":
+                    type = json.nextString();
+                    break;
+                case "question":
+                    questionText = json.nextString();
+                    break;
+                case "correct_answer":
+                    correctAnswer = json.nextString();
+                    break;
+                case "incorrect_answers":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        incorrectAnswers.add(json.nextString());
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (questionText == null || correctAnswer == null) {
+            throw new IOException("Question " + (questions.size() + 1) + " has no text or correct answer");
+        }
+        Question question = ApiClient.toQuestion(category, questionText, correctAnswer, incorrectAnswers);
+        String filterDifficulty = difficulty;
+        String filterType = type;
+        questions.add(question);
+        keys.add(keysByFilter.computeIfAbsent(key(question.getCategory(), difficulty, type),
+                filter -> keys(question.getCategory(), filterDifficulty, filterType)));
+    }
+
+    static String key(String category, String difficulty, String type) {
+        return (category == null || category.isEmpty() ? ANY : category.toLowerCase(Locale.ROOT))
+                + "/" + (difficulty == null || difficulty.isEmpty() ? ANY : difficulty.toLowerCase(Locale.ROOT))
+                + "/" + (type == null || type.isEmpty() ? ANY : type.toLowerCase(Locale.ROOT));
+    }
+
+    /** Every filter that finds a question: each field as it is, or any. */
+    private static String[] keys(String category, String difficulty, String type) {
+        Set<String> keys = new HashSet<>();
+        for (int any = 0; any < 8; any++) {
+            keys.add(key((any & 1) == 0 ? category : null, (any & 2) == 0 ? difficulty : null,
+                    (any & 4) == 0 ? type : null));
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    public int size() {
+        return questions.length;
+    }
+
+    /** How many questions the filter finds; null fields match anything. */
+    public int count(String category, String difficulty, String type) {
+        Deck deck = decks.get(key(category, difficulty, type));
+        return deck == null ? 0 : deck.positions.length;
+    }
+
+    /**
+     * Deals up to amount distinct questions matching the filter, in random
+     * order; fewer if the bank does not have that many.
+     * @param category Category name as in the bank file (null for any)
+     * @param difficulty easy, medium or hard (null for any)
+     * @param type multiple or boolean (null for any)
+     */
+    public List<Question> sample(int amount, String category, String difficulty, String type) {
+        Deck deck = decks.get(key(category, difficulty, type));
+        if (deck == null) {
+            return new ArrayList<>();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        synchronized (deck) {
+            int[] positions = deck.positions;
+            int count = Math.min(amount, positions.length);
+            if (positions.length - deck.cursor < count) {
+                deck.cursor = 0;
+            }
+            List<Question> sample = new ArrayList<>(count);
+            for (int i = 0; i < count; i++, deck.cursor++) {
+                int pick = deck.cursor + random.nextInt(positions.length - deck.cursor);
+                int position = positions[pick];
+                positions[pick] = positions[deck.cursor];
+                positions[deck.cursor] = position;
+                sample.add(questions[position]);
+            }
+            return sample;
+        }
+    }
+}
+
+/**
+ * Helpers shared by the HTTP servers in this file, which speak JSON over
+ * the JDK's built-in com.sun.net.httpserver.
+ */
+class JsonHttp {
+    /** Creates a server bound to localhost; port 0 picks a free port. */
+    static HttpServer createServer(int port) throws IOException {
+        // The JDK server writes headers and body separately; without
+        // TCP_NODELAY each small response stalls ~40 ms on delayed ACKs.
+        // Read once, when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        // A longer accept queue than the default 50, for many clients
+        // connecting at once.
+        return HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+    }
+
+    /** The parameters of a query string, left URL-encoded. */
+    static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** The text as a quoted JSON string. */
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
+
+/**
+ * Hosts many quizzes at once over HTTP, each run by its own QuizEngine with
+ * the time limits kept on the server. A participant drives a session with:
+ *
+ *   POST   /sessions?amount=10&category=9&difficulty=easy   start a quiz
+ *   POST   /sessions/{id}/next                              open the next question
+ *   POST   /sessions/{id}/answer?option=2                   answer it (409 if too late, 400 if no such option)
+ *   GET    /sessions/{id}                                   current state
+ *   DELETE /sessions/{id}                                   abandon the quiz
+ *   GET    /analytics                                       accuracy, time-outs and answer times so far
+ *
+ * Every reply is the session's state: the open question with the time
+ * left, the correct option once it has closed, and the score so far.
+ *
+ * A session is plain state rather than a thread. Requests are handled by a
+ * small fixed pool and every time limit runs on one CountdownScheduler, so
+ * thousands of participants cost memory, not threads. New sessions fetch
+ * their questions on a pool of their own and reply from there, so a slow or
+ * rate-limited question source never holds up the answers. Sessions left idle
+ * for IDLE_TIMEOUT_MILLIS are dropped. Finished quizzes are merged into
+ * QuizAnalytics, and /analytics reports the totals, each category and
+ * the questions most often got wrong.
+ *
+ * Usage: java QuizServer [port]
+ */
+class QuizServer {
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_QUESTIONS = 50;
+    static final int HARDEST_QUESTIONS = 10;
+    static final int FETCH_THREADS = 4;
+
+    /** Where new sessions get their questions. */
+    interface QuestionSource {
+        List<Question> questions(int amount, Integer category, String difficulty) throws IOException;
+    }
+
+    private static class Session {
+        final String id;
+        final List<Question> questions;
+        final QuizEngine engine;
+        final AtomicBoolean recorded = new AtomicBoolean();
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(String id, List<Question> questions, QuizEngine engine) {
+            this.id = id;
+            this.questions = questions;
+            this.engine = engine;
+        }
+    }
+
+    private final QuestionSource source;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService fetches = Executors.newFixedThreadPool(FETCH_THREADS, daemonThreads("quiz-fetch"));
+    private final CountdownScheduler countdowns = new CountdownScheduler("quiz-clock");
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final QuizAnalytics analytics = new QuizAnalytics();
+
+    final AtomicLong requests = new AtomicLong();
+
+    public QuizServer(int port, int handlerThreads, QuestionSource source) throws IOException {
+        this.source = source;
+        handlers = Executors.newFixedThreadPool(handlerThreads, daemonThreads("quiz-server"));
+        server = JsonHttp.createServer(port);
+        server.setExecutor(handlers);
+        server.createContext("/sessions", this::handle);
+        server.createContext("/analytics", this::handleAnalytics);
+    }
+
+    public void start() {
+        server.start();
+        countdowns.start(1, TimeUnit.MINUTES, this::dropIdleSessions);
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+        fetches.shutdownNow();
+        countdowns.shutdown();
+    }
+
+    public URI getBaseUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public QuizAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        Map<String, String> parameters = JsonHttp.parameters(exchange.getRequestURI().getRawQuery());
+        String method = exchange.getRequestMethod();
+        if (path.length == 2 && method.equals("POST")) {
+            // Replies and closes the exchange itself once the questions are in.
+            create(exchange, parameters);
+            return;
+        }
+
+        try {
+            if (path.length == 2) {
+                JsonHttp.respond(exchange, 405, error("Use POST to start a quiz"));
+                return;
+            }
+            Session session = path.length <= 4 ? sessions.get(path[2]) : null;
+            if (session == null) {
+                JsonHttp.respond(exchange, 404, error("No such session"));
+                return;
+            }
+            session.lastUsed = System.currentTimeMillis();
+
+            String action = method + " " + (path.length == 4 ? path[3] : "");
+            switch (action) {
+                case "GET ":
+                    JsonHttp.respond(exchange, 200, state(session));
+                    break;
+                case "DELETE ":
+                    session.engine.cancel();
+                    sessions.remove(session.id);
+                    JsonHttp.respond(exchange, 200, state(session));
+                    break;
+                case "POST next":
+                    if (session.engine.getState() == QuizEngine.State.OPEN) {
+                        JsonHttp.respond(exchange, 409, state(session));
+                    } else {
+                        if (session.engine.next() == null && session.recorded.compareAndSet(false, true)) {
+                            analytics.record(session.questions, session.engine.getResult());
+                        }
+                        JsonHttp.respond(exchange, 200, state(session));
+                    }
+                    break;
+                case "POST answer":
+                    answer(exchange, session, parameters.get("option"));
+                    break;
+                default:
+                    JsonHttp.respond(exchange, 404, error("Unknown request " + action));
+            }
+        } catch (IllegalStateException e) {
+            // next() raced with another request on the same session.
+            JsonHttp.respond(exchange, 409, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void answer(HttpExchange exchange, Session session, String option) throws IOException {
+        int chosen;
+        try {
+            chosen = Integer.parseInt(option);
+        } catch (NumberFormatException e) {
+            JsonHttp.respond(exchange, 400, error(option == null ? "option is required" : "No option " + option));
+            return;
+        }
+        boolean valid;
+        Boolean correct = null;
+        // Check against the open question and answer it under one lock, so next() cannot swap it in between.
+        // Server sessions have no time-out listener, so nothing else runs while the lock is held.
+        synchronized (session.engine) {
+            QuizEngine engine = session.engine;
+            valid = chosen >= 0 && (engine.getState() != QuizEngine.State.OPEN
+                    || chosen < engine.getQuestion().getOptions().length);
+            if (valid) {
+                correct = engine.answer(chosen);
+            }
+        }
+        if (!valid) {
+            JsonHttp.respond(exchange, 400, error("No option " + chosen));
+            return;
+        }
+        JsonHttp.respond(exchange, correct == null ? 409 : 200, state(session));
+    }
+
+    /**
+     * Starts a session. The questions are fetched and the reply sent on the
+     * fetch pool, as the source may wait seconds on the upstream API's rate
+     * limit; the handler thread is free again as soon as this returns.
+     */
+    private void create(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        int amount;
+        Integer category;
+        try {
+            amount = Integer.parseInt(parameters.getOrDefault("amount", "10"));
+            category = parameters.containsKey("category") ? Integer.valueOf(parameters.get("category")) : null;
+        } catch (NumberFormatException e) {
+            try (exchange) {
+                JsonHttp.respond(exchange, 400, error("Not a number: " + e.getMessage()));
+            }
+            return;
+        }
+        if (amount < 1 || amount > MAX_QUESTIONS) {
+            try (exchange) {
+                JsonHttp.respond(exchange, 400, error("amount must be 1 to " + MAX_QUESTIONS));
+            }
+            return;
+        }
+        String difficulty = parameters.get("difficulty");
+
+        fetches.execute(() -> {
+            try (exchange) {
+                List<Question> questions;
+                try {
+                    questions = source.questions(amount, category, difficulty);
+                } catch (IOException e) {
+                    JsonHttp.respond(exchange, 502, error("No questions: " + e.getMessage()));
+                    return;
+                }
+                String id = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+                Session session = new Session(id, questions, new QuizEngine(questions, countdowns, null));
+                sessions.put(id, session);
+                JsonHttp.respond(exchange, 201, state(session));
+            } catch (IOException e) {
+                // The participant hung up while the questions were fetched; the session idles out.
+            }
+        });
+    }
+
+    private static String state(Session session) {
+        QuizEngine engine = session.engine;
+        StringBuilder json = new StringBuilder(256);
+        synchronized (engine) {
+            QuizResult result = engine.getResult();
+            json.append("{\"session\":\"").append(session.id)
+                    .append("\",\"state\":\"").append(engine.getState())
+                    .append("\",\"index\":").append(engine.getIndex())
+                    .append(",\"count\":").append(engine.getQuestionCount())
+                    .append(",\"answered\":").append(result.getTotalQuestions())
+                    .append(",\"correct_answers\":").append(result.getCorrectAnswers())
+                    .append(",\"timed_out\":").append(result.getTimedOutCount())
+                    .append(",\"score\":").append(result.getScore());
+
+            Question question = engine.getQuestion();
+            if (engine.getState() == QuizEngine.State.OPEN) {
+                json.append(",\"remaining_ms\":").append(engine.getRemainingMillis())
+                        .append(",\"question\":").append(JsonHttp.quote(question.getQuestionText()))
+                        .append(",\"options\":[");
+                String[] options = question.getOptions();
+                for (int i = 0; i < options.length; i++) {
+                    json.append(i > 0 ? "," : "").append(JsonHttp.quote(options[i]));
+                }
+                json.append(']');
+            } else if (engine.getState() == QuizEngine.State.CLOSED) {
+                json.append(",\"correct\":").append(result.isCorrect(result.getTotalQuestions() - 1))
+                        .append(",\"correct_option\":").append(question.getCorrectAnswerIndex());
+            }
+        }
+        return json.append('}').toString();
+    }
 
-        try {
-            StringBuilder urlBuilder = new StringBuilder(API_URL);
-            urlBuilder.append("?amount=").append(amount);
+    private static String error(String message) {
+        return "{\"error\":" + JsonHttp.quote(message) + "}";
+    }
 
-            if (category != null) {
-                urlBuilder.append("&category=").append(category);
+    private void handleAnalytics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            if (!exchange.getRequestMethod().equals("GET")) {
+                JsonHttp.respond(exchange, 405, error("Use GET for analytics"));
+                return;
             }
-
-            if (difficulty != null && !difficulty.isEmpty()) {
-                urlBuilder.append("&difficulty=").append(difficulty.toLowerCase());
+            StringBuilder json = new StringBuilder(4096);
+            json.append("{\"quizzes\":").append(analytics.getQuizCount()).append(",\"total\":");
+            appendStats(json, analytics.getTotal());
+
+            json.append(",\"categories\":{");
+            String separator = "";
+            for (Map.Entry<String, QuizAnalytics.Stats> entry : new TreeMap<>(analytics.getCategories()).entrySet()) {
+                json.append(separator).append(JsonHttp.quote(entry.getKey())).append(':');
+                appendStats(json, entry.getValue());
+                separator = ",";
             }
 
-            if (type != null && !type.isEmpty()) {
-                urlBuilder.append("&type=").append(type.toLowerCase());
+            // Rank on one reading of each accuracy rather than re-adding stripes per comparison.
+            Map<String, Double> accuracies = new HashMap<>();
+            analytics.getQuestions().forEach((text, stats) -> accuracies.put(text, stats.getAccuracy()));
+            List<String> hardest = new ArrayList<>(accuracies.keySet());
+            hardest.sort(Comparator.comparing(accuracies::get));
+            json.append("},\"hardest_questions\":[");
+            for (int i = 0; i < Math.min(HARDEST_QUESTIONS, hardest.size()); i++) {
+                json.append(i > 0 ? ",{\"question\":" : "{\"question\":").append(JsonHttp.quote(hardest.get(i)))
+                        .append(",\"stats\":");
+                appendStats(json, analytics.getQuestions().get(hardest.get(i)));
+                json.append('}');
             }
+            JsonHttp.respond(exchange, 200, json.append("]}").toString());
+        }
+    }
 
-            System.out.println("Connecting to: " + urlBuilder.toString());
-
-            URL url = new URL(urlBuilder.toString());
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                String response = reader.lines().collect(Collectors.joining());
-                reader.close();
+    private static void appendStats(StringBuilder json, QuizAnalytics.Stats stats) {
+        json.append("{\"asked\":").append(stats.getAsked())
+                .append(",\"accuracy\":").append(String.format(Locale.ROOT, "%.4f", stats.getAccuracy()))
+                .append(",\"timeout_rate\":").append(String.format(Locale.ROOT, "%.4f", stats.getTimeoutRate()))
+                .append(",\"mean_ms\":").append(stats.getMeanMillis())
+                .append(",\"p50_s\":").append(stats.getPercentileSeconds(0.5))
+                .append(",\"p90_s\":").append(stats.getPercentileSeconds(0.9))
+                .append('}');
+    }
 
-               questions = parseQuestions(response);
-            } else {
-                System.out.println("Failed to fetch questions. Response code: " + responseCode);
-                questions = getSampleQuestions();
+    private void dropIdleSessions() {
+        long idleSince = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+        sessions.values().removeIf(session -> {
+            if (session.lastUsed >= idleSince) {
+                return false;
             }
+            session.engine.cancel();
+            return true;
+        });
+        countdowns.start(1, TimeUnit.MINUTES, this::dropIdleSessions);
+    }
 
-            connection.disconnect();
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        } catch (Exception e) {
-            System.out.println("Error fetching questions from API: " + e.getMessage());
-            e.printStackTrace();
-            questions = getSampleQuestions();
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        QuizServer server = new QuizServer(port, Runtime.getRuntime().availableProcessors() * 2,
+                (amount, category, difficulty) -> ApiClient.fetchQuestions(amount, category, difficulty, "multiple"));
+        server.start();
+        System.out.println("Quiz server at " + server.getBaseUri() + "sessions (Ctrl+C to stop)");
+        // The server's threads are daemons; keep the JVM alive.
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            server.stop();
         }
-
-        return questions;
     }
+}
 
-    private static List<Question> parseQuestions(String jsonResponse) throws ParseException {
-        List<Question> questions = new ArrayList<>();
-
-        JSONParser parser = new JSONParser();
-        JSONObject jsonObject = (JSONObject) parser.parse(jsonResponse);
+/**
+ * Load test for QuizServer: thousands of simulated participants take quizzes
+ * at once against one in-process server. Each participant is a chain of
+ * asynchronous requests rather than a thread, arrives during a ramp-up,
+ * thinks for one to ten seconds before answering, and now and then lets a
+ * question time out. Reports
+ * throughput, request latency, the JVM's peak thread count, and checks
+ * every final score and time-out count against what the participant saw.
+ *
+ * Usage: java QuizLoadTest [participants] [questionsPerQuiz] [handlerThreads]
+ */
+class QuizLoadTest {
+    private static final int TIME_LIMIT_SECONDS = 20;
+    private static final long MIN_THINK_MILLIS = 1000;
+    private static final long MAX_THINK_MILLIS = 10_000;
+    private static final double IDLE_RATE = 0.05;
+    private static final long RAMP_UP_MILLIS = 20_000;
+
+    // A few threads drive every participant. Think times run on this
+    // pool too: CompletableFuture's default async pool starts a thread per
+    // task on machines with fewer than three cores.
+    private static final ScheduledExecutorService CLIENT_THREADS = Executors.newScheduledThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "load-test-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .executor(CLIENT_THREADS)
+            .build();
+
+    private final URI baseUri;
+    private final int questionsPerQuiz;
+    private final long[] latencies;
+    private final AtomicInteger latencyCount = new AtomicInteger();
+    final AtomicInteger completed = new AtomicInteger();
+    final AtomicInteger mismatched = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final AtomicInteger expectedTimeouts = new AtomicInteger();
+
+    QuizLoadTest(URI baseUri, int participants, int questionsPerQuiz) {
+        this.baseUri = baseUri;
+        this.questionsPerQuiz = questionsPerQuiz;
+        // Start, then next and answer (or a state check) per question, then the last next.
+        this.latencies = new long[participants * (2 * questionsPerQuiz + 2)];
+    }
 
-        long responseCode = (long) jsonObject.get("response_code");
-        if (responseCode != 0) {
-            System.out.println("API returned error code: " + responseCode);
-            return getSampleQuestions();
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int questionsPerQuiz = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int handlerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        QuizServer server = new QuizServer(0, handlerThreads, QuizLoadTest::syntheticQuestions);
+        server.start();
+        QuizLoadTest test = new QuizLoadTest(server.getBaseUri(), participants, questionsPerQuiz);
+
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> running = new ArrayList<>(participants);
+        for (int i = 0; i < participants; i++) {
+            long arrival = ThreadLocalRandom.current().nextLong(RAMP_UP_MILLIS);
+            running.add(CompletableFuture.runAsync(() -> { },
+                            CompletableFuture.delayedExecutor(arrival, TimeUnit.MILLISECONDS, CLIENT_THREADS))
+                    .thenCompose(ignored -> test.participate()));
         }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.stop();
+        QuizAnalytics.Stats total = server.getAnalytics().getTotal();
+
+        long[] sorted = Arrays.copyOf(test.latencies, Math.min(test.latencyCount.get(), test.latencies.length));
+        Arrays.sort(sorted);
+        System.out.printf("%d participants x %d questions, %d handler threads, %d s time limit%n",
+                participants, questionsPerQuiz, handlerThreads, TIME_LIMIT_SECONDS);
+        System.out.printf("completed %d, failed %d, score mismatches %d, time-outs %d%n",
+                test.completed.get(), test.failed.get(), test.mismatched.get(), test.expectedTimeouts.get());
+        System.out.printf("%.1f s, %d requests, %.0f req/s%n", seconds, server.requests.get(),
+                server.requests.get() / seconds);
+        System.out.printf("latency ms: p50 %.2f, p95 %.2f, p99 %.2f, max %.2f%n", percentile(sorted, 50),
+                percentile(sorted, 95), percentile(sorted, 99), percentile(sorted, 100));
+        System.out.printf("peak JVM threads (server and client): %d%n", threads.getPeakThreadCount());
+        System.out.printf("analytics: %d quizzes, %d questions, accuracy %.1f%%, time-outs %d, median answer %d s%n",
+                server.getAnalytics().getQuizCount(), total.getAsked(), total.getAccuracy() * 100,
+                total.getTimedOut(), total.getPercentileSeconds(0.5));
+    }
 
-        JSONArray results = (JSONArray) jsonObject.get("results");
-
-        for (Object obj : results) {
-            JSONObject questionObj = (JSONObject) obj;
-
-            String questionText = (String) questionObj.get("question");
-
-            questionText = decodeHtmlEntities(questionText);
-
-            String correctAnswer = (String) questionObj.get("correct_answer");
-            correctAnswer = decodeHtmlEntities(correctAnswer);
-
-            JSONArray incorrectAnswers = (JSONArray) questionObj.get("incorrect_answers");
-
-            String[] options = new String[incorrectAnswers.size() + 1];
-
-            int correctAnswerIndex = incorrectAnswers.size();
-
-            for (int i = 0; i < incorrectAnswers.size(); i++) {
-                String incorrectAnswer = (String) incorrectAnswers.get(i);
-                incorrectAnswer = decodeHtmlEntities(incorrectAnswer);
-                options[i] = (char)('A' + i) + ". " + incorrectAnswer;
-            }
-
-            options[correctAnswerIndex] = (char)('A' + correctAnswerIndex) + ". " + correctAnswer;
-
-            int timeLimit = 20 + (int)(Math.random() * 11);
-
-            questions.add(new Question(questionText, options, correctAnswerIndex, timeLimit));
+    private static List<Question> syntheticQuestions(int amount, Integer category, String difficulty) {
+        List<Question> questions = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            questions.add(new Question("Synthetic question " + (i + 1) + " \"quoted\"",
+                    new String[]{"A. One", "B. Two", "C. Three", "D. Four"},
+                    ThreadLocalRandom.current().nextInt(4), TIME_LIMIT_SECONDS,
+                    "Category " + (category == null ? "any" : category)));
         }
-
         return questions;
     }
 
-    private static String decodeHtmlEntities(String input) {
-        return input.replaceAll("&quot;", "\"")
-                   .replaceAll("&amp;", "&")
-                   .replaceAll("&lt;", "<")
-                   .replaceAll("&gt;", ">")
-                   .replaceAll("&#039;", "'")
-                   .replaceAll("&rsquo;", "'")
-                   .replaceAll("&lsquo;", "'")
-                   .replaceAll("&rdquo;", "\"")
-                   .replaceAll("&ldquo;", "\"");
+    /** One participant's whole quiz, as a chain of requests. */
+    private CompletableFuture<Void> participate() {
+        int[] tally = new int[2];
+        return send("POST", "sessions?amount=" + questionsPerQuiz)
+                .thenCompose(created -> step(created.get("session"), tally))
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                    }
+                    return null;
+                });
     }
 
-    private static List<Question> getSampleQuestions() {
-        System.out.println("Using fallback sample questions...");
-        List<Question> questions = new ArrayList<>();
-
-        questions.add(new Question(
-                "What is the capital of France?",
-                new String[]{"A. London", "B. Berlin", "C. Paris", "D. Madrid"},
-                2, 30)); 
-
-        questions.add(new Question(
-                "Which planet is known as the Red Planet?",
-                new String[]{"A. Venus", "B. Mars", "C. Jupiter", "D. Saturn"},
-                1, 30));
-
-        questions.add(new Question(
-                "What is the largest mammal in the world?",
-                new String[]{"A. Elephant", "B. Giraffe", "C. Blue Whale", "D. Polar Bear"},
-                2, 30));
+    /** Opens the next question and answers it or lets it time out. */
+    private CompletableFuture<Void> step(String session, int[] tally) {
+        return send("POST", "sessions/" + session + "/next").thenCompose(opened -> {
+            if (opened.get("state").equals("FINISHED")) {
+                if (Long.parseLong(opened.get("correct_answers")) == tally[0]
+                        && Long.parseLong(opened.get("timed_out")) == tally[1]) {
+                    completed.incrementAndGet();
+                } else {
+                    mismatched.incrementAndGet();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
 
-        questions.add(new Question(
-                "Who wrote 'Romeo and Juliet'?",
-                new String[]{"A. Charles Dickens", "B. William Shakespeare", "C. Jane Austen", "D. Mark Twain"},
-                1, 30)); 
+            boolean idle = ThreadLocalRandom.current().nextDouble() < IDLE_RATE;
+            long thinkMillis = idle ? TimeUnit.SECONDS.toMillis(TIME_LIMIT_SECONDS) + 200
+                    : ThreadLocalRandom.current().nextLong(MIN_THINK_MILLIS, MAX_THINK_MILLIS);
+            int option = ThreadLocalRandom.current().nextInt(4);
+            Executor later = CompletableFuture.delayedExecutor(thinkMillis, TimeUnit.MILLISECONDS, CLIENT_THREADS);
+            return CompletableFuture.runAsync(() -> { }, later)
+                    .thenCompose(ignored -> idle
+                            ? send("GET", "sessions/" + session)
+                            : send("POST", "sessions/" + session + "/answer?option=" + option))
+                    .thenCompose(closed -> {
+                        if (!closed.get("state").equals("CLOSED")) {
+                            throw new IllegalStateException("Question still open: " + closed);
+                        }
+                        if (idle) {
+                            tally[1]++;
+                            expectedTimeouts.incrementAndGet();
+                        } else if (Long.parseLong(closed.get("correct_option")) == option) {
+                            tally[0]++;
+                        }
+                        return step(session, tally);
+                    });
+        });
+    }
 
-        questions.add(new Question(
-                "What is the chemical symbol for gold?",
-                new String[]{"A. Go", "B. Gd", "C. Au", "D. Ag"},
-                2, 30)); 
+    /** Sends a request and reads the top-level string and number fields of the reply. */
+    private CompletableFuture<Map<String, String>> send(String method, String pathAndQuery) {
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve(pathAndQuery))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        long start = System.nanoTime();
+        // Bodies are read whole: blocking on a stream would hold one of the
+        // few client threads the HttpClient itself runs on.
+        return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            int slot = latencyCount.getAndIncrement();
+            if (slot < latencies.length) {
+                latencies[slot] = System.nanoTime() - start;
+            }
+            Map<String, String> fields = new HashMap<>();
+            try {
+                JsonPullParser json = new JsonPullParser(new InputStreamReader(
+                        new ByteArrayInputStream(response.body()), StandardCharsets.UTF_8));
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    switch (name) {
+                        case "session":
+                        case "state":
+                        case "error":
+                            fields.put(name, json.nextString());
+                            break;
+                        case "correct_answers":
+                        case "timed_out":
+                        case "correct_option":
+                            fields.put(name, String.valueOf(json.nextLong()));
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            if (fields.containsKey("error")) {
+                throw new IllegalStateException(response.statusCode() + " " + fields.get("error"));
+            }
+            return fields;
+        });
+    }
 
-        return questions;
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
     }
 }
 
@@ -264,16 +4294,25 @@ class QuizApp extends JFrame {
     private static final Color TEXT_COLOR = new Color(33, 33, 33); 
     private static final Color CORRECT_COLOR = new Color(46, 204, 113); 
     private static final Color INCORRECT_COLOR = new Color(231, 76, 60); 
+    private static final int MIN_FRAME_MILLIS = 100;
 
     private CardLayout cardLayout;
     private JPanel mainPanel;
     private List<Question> questions;
-    private QuizResult result;
-    private int currentQuestionIndex;
+    // Set while a mixed-category quiz may still be downloading.
+    private MixedQuestions mixedQuestions;
+    private QuizEngine engine;
+    // Every quiz finished since the app started.
+    private final QuizAnalytics analytics = new QuizAnalytics();
     private ExecutorService executorService;
-    private ScheduledExecutorService timerExecutor;
-    private Future<?> timerFuture;
-    private AtomicBoolean questionAnswered;
+    private CountdownScheduler countdowns;
+    private QuestionPrefetcher prefetcher;
+    // Set once the bank named by BANK_FILE has loaded.
+    private volatile QuestionBank bank;
+    // Redraws the countdown on the EDT; one timer, restarted per question.
+    private Timer countdownDisplay;
+    private int shownSeconds;
+    private int shownProgress;
     private int selectedDifficulty = 0;
     private int selectedCategory = 0;
     private int selectedNumQuestions = 5;
@@ -295,14 +4334,22 @@ class QuizApp extends JFrame {
     private JButton nextButton;
 
     private JPanel resultsPanel;
+    private JLabel scoreLabel;
+    private JLabel totalQuestionsValue;
+    private JLabel correctAnswersValue;
+    private JLabel averageTimeValue;
+    private JLabel allQuizzesValue;
+    private ResultRows resultRows;
+    private JPanel timedOutPanel;
+    private TimedOutRows timedOutRows;
 
     public QuizApp() {
 
-        result = new QuizResult();
-        currentQuestionIndex = 0;
         executorService = Executors.newCachedThreadPool();
-        timerExecutor = Executors.newSingleThreadScheduledExecutor();
-        questionAnswered = new AtomicBoolean(false);
+        countdowns = new CountdownScheduler("quiz-countdown");
+        prefetcher = new QuestionPrefetcher();
+        loadBank();
+        countdownDisplay = new Timer(MIN_FRAME_MILLIS, e -> updateCountdown());
         optionButtons = new HashMap<>();
 
         setTitle("Dynamic Quiz Application");
@@ -312,6 +4359,7 @@ class QuizApp extends JFrame {
         setLocationRelativeTo(null);
 
         createUI();
+        warmSelection();
 
         addWindowListener(new WindowAdapter() {
             @Override
@@ -391,11 +4439,12 @@ class QuizApp extends JFrame {
         categoryLabel.setFont(new Font("Arial", Font.BOLD, 14));
 
         JComboBox<String> categoryCombo = new JComboBox<>(new String[]{
-            "General Knowledge", "Science", "Entertainment", "History", "Any Category"
+            "General Knowledge", "Science", "Entertainment", "History", "Any Category", "Mixed Categories"
         });
         categoryCombo.setSelectedIndex(0);
         categoryCombo.addActionListener(e -> {
             selectedCategory = categoryCombo.getSelectedIndex();
+            warmSelection();
         });
 
         JLabel difficultyLabel = new JLabel("Difficulty:");
@@ -407,6 +4456,7 @@ class QuizApp extends JFrame {
         difficultyCombo.setSelectedIndex(0);
         difficultyCombo.addActionListener(e -> {
             selectedDifficulty = difficultyCombo.getSelectedIndex();
+            warmSelection();
         });
 
         optionsPanel.add(numQuestionsLabel);
@@ -550,12 +4600,11 @@ class QuizApp extends JFrame {
         nextButton.setBorder(BorderFactory.createEmptyBorder(8, 25, 8, 25));
         nextButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
         nextButton.addActionListener(e -> {
-            if (questionAnswered.get()) {
+            if (engine.getState() == QuizEngine.State.OPEN) {
                 processAnswer();
             } else {
-
-                questionAnswered.set(true);
-                processAnswer();
+                // Timed out; the engine has recorded it already.
+                showNextQuestion();
             }
         });
 
@@ -595,7 +4644,7 @@ class QuizApp extends JFrame {
 
         optionButton.addActionListener(e -> {
 
-            if (!questionAnswered.get()) {
+            if (engine != null && engine.getState() == QuizEngine.State.OPEN) {
                 nextButton.setEnabled(true);
             }
         });
@@ -604,16 +4653,16 @@ class QuizApp extends JFrame {
         return optionButton;
     }
 
+    /**
+     * Builds the results screen once; updateResultsScreen only fills it in.
+     * The question summary is a JList with fixed-size rows, so it lays out
+     * and paints only the rows in view however long the quiz was.
+     */
     private void createResultsScreen() {
         resultsPanel = new JPanel();
         resultsPanel.setLayout(new BorderLayout());
         resultsPanel.setBackground(SECONDARY_COLOR);
 
-    }
-
-    private void updateResultsScreen() {
-        resultsPanel.removeAll();
-
         JPanel headerPanel = new JPanel();
         headerPanel.setBackground(PRIMARY_COLOR);
         headerPanel.setLayout(new FlowLayout(FlowLayout.CENTER));
@@ -634,41 +4683,68 @@ class QuizApp extends JFrame {
         scorePanel.setBackground(SECONDARY_COLOR);
         scorePanel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        int score = result.getScore();
-        JLabel scoreLabel = new JLabel(score + "%");
+        scoreLabel = new JLabel();
         scoreLabel.setFont(new Font("Arial", Font.BOLD, 60));
-        scoreLabel.setForeground(score >= 70 ? CORRECT_COLOR : (score >= 40 ? PRIMARY_COLOR : INCORRECT_COLOR));
 
         scorePanel.add(scoreLabel);
 
         JPanel statsPanel = new JPanel();
-        statsPanel.setLayout(new GridLayout(2, 2, 20, 10));
+        statsPanel.setLayout(new GridLayout(4, 2, 20, 10));
         statsPanel.setBackground(SECONDARY_COLOR);
         statsPanel.setBorder(new EmptyBorder(20, 0, 20, 0));
-        statsPanel.setMaximumSize(new Dimension(400, 100));
+        statsPanel.setMaximumSize(new Dimension(400, 160));
         statsPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         JLabel totalQuestionsLabel = new JLabel("Total Questions:");
         totalQuestionsLabel.setFont(new Font("Arial", Font.BOLD, 16));
 
-        JLabel totalQuestionsValue = new JLabel(String.valueOf(result.getTotalQuestions()));
+        totalQuestionsValue = new JLabel();
         totalQuestionsValue.setFont(new Font("Arial", Font.PLAIN, 16));
 
         JLabel correctAnswersLabel = new JLabel("Correct Answers:");
         correctAnswersLabel.setFont(new Font("Arial", Font.BOLD, 16));
 
-        JLabel correctAnswersValue = new JLabel(String.valueOf(result.getCorrectAnswers()));
+        correctAnswersValue = new JLabel();
         correctAnswersValue.setFont(new Font("Arial", Font.PLAIN, 16));
 
+        JLabel averageTimeLabel = new JLabel("Average Time:");
+        averageTimeLabel.setFont(new Font("Arial", Font.BOLD, 16));
+
+        averageTimeValue = new JLabel();
+        averageTimeValue.setFont(new Font("Arial", Font.PLAIN, 16));
+
+        JLabel allQuizzesLabel = new JLabel("All Quizzes:");
+        allQuizzesLabel.setFont(new Font("Arial", Font.BOLD, 16));
+
+        allQuizzesValue = new JLabel();
+        allQuizzesValue.setFont(new Font("Arial", Font.PLAIN, 16));
+
         statsPanel.add(totalQuestionsLabel);
         statsPanel.add(totalQuestionsValue);
         statsPanel.add(correctAnswersLabel);
         statsPanel.add(correctAnswersValue);
+        statsPanel.add(averageTimeLabel);
+        statsPanel.add(averageTimeValue);
+        statsPanel.add(allQuizzesLabel);
+        statsPanel.add(allQuizzesValue);
+
+        resultRows = new ResultRows();
+        JList<Boolean> summaryList = new JList<>(resultRows);
+        summaryList.setCellRenderer(new ResultRowRenderer());
+        summaryList.setBackground(SECONDARY_COLOR);
+        summaryList.setFocusable(false);
+        summaryList.setSelectionModel(new DefaultListSelectionModel() {
+            @Override
+            public void setSelectionInterval(int anchor, int lead) {
+                // The summary is read-only.
+            }
+        });
+        // Fixed sizes, so the list never measures its rows one by one.
+        summaryList.setFixedCellHeight(ResultRowRenderer.ROW_HEIGHT);
+        summaryList.setFixedCellWidth(200);
 
-        JPanel summaryPanel = new JPanel();
-        summaryPanel.setLayout(new BoxLayout(summaryPanel, BoxLayout.Y_AXIS));
-        summaryPanel.setBackground(SECONDARY_COLOR);
-        summaryPanel.setBorder(BorderFactory.createTitledBorder(
+        JScrollPane scrollPane = new JScrollPane(summaryList);
+        scrollPane.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(PRIMARY_COLOR), 
             "Question Summary", 
             TitledBorder.LEFT, 
@@ -676,65 +4752,58 @@ class QuizApp extends JFrame {
             new Font("Arial", Font.BOLD, 14),
             PRIMARY_COLOR
         ));
-        summaryPanel.setMaximumSize(new Dimension(600, 300));
-        summaryPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
-
-        List<Boolean> answerResults = result.getAnswerResults();
-        for (int i = 0; i < answerResults.size(); i++) {
-            JPanel questionResultPanel = new JPanel();
-            questionResultPanel.setLayout(new BorderLayout());
-            questionResultPanel.setBackground(answerResults.get(i) ? new Color(240, 255, 240) : new Color(255, 240, 240));
-            questionResultPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-
-            JLabel questionLabel = new JLabel("Question " + (i + 1));
-            questionLabel.setFont(new Font("Arial", Font.BOLD, 14));
-            questionLabel.setForeground(answerResults.get(i) ? CORRECT_COLOR : INCORRECT_COLOR);
-
-            JLabel resultLabel = new JLabel(answerResults.get(i) ? "Correct" : "Incorrect");
-            resultLabel.setFont(new Font("Arial", Font.PLAIN, 14));
-            resultLabel.setForeground(answerResults.get(i) ? CORRECT_COLOR : INCORRECT_COLOR);
-
-            questionResultPanel.add(questionLabel, BorderLayout.WEST);
-            questionResultPanel.add(resultLabel, BorderLayout.EAST);
-
-            summaryPanel.add(questionResultPanel);
-            if (i < answerResults.size() - 1) {
-                summaryPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-            }
-        }
-
-        List<String> timedOutQuestions = result.getTimedOutQuestions();
-        if (!timedOutQuestions.isEmpty()) {
-            JPanel timedOutPanel = new JPanel();
-            timedOutPanel.setLayout(new BoxLayout(timedOutPanel, BoxLayout.Y_AXIS));
-            timedOutPanel.setBackground(SECONDARY_COLOR);
-            timedOutPanel.setBorder(BorderFactory.createTitledBorder(
-                BorderFactory.createLineBorder(ACCENT_COLOR), 
-                "Timed Out Questions", 
-                TitledBorder.LEFT, 
-                TitledBorder.TOP,
-                new Font("Arial", Font.BOLD, 14),
-                ACCENT_COLOR
-            ));
-            timedOutPanel.setMaximumSize(new Dimension(600, 100));
-            timedOutPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        scrollPane.setBackground(SECONDARY_COLOR);
+        scrollPane.getViewport().setBackground(SECONDARY_COLOR);
+        scrollPane.setPreferredSize(new Dimension(600, 300));
+        scrollPane.setMaximumSize(new Dimension(600, 300));
+        scrollPane.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-            JLabel timedOutLabel = new JLabel("You ran out of time on: " + String.join(", ", timedOutQuestions));
-            timedOutLabel.setFont(new Font("Arial", Font.PLAIN, 14));
-            timedOutLabel.setForeground(ACCENT_COLOR);
-            timedOutLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-            timedOutLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        scrollPane.getVerticalScrollBar().setUnitIncrement(ResultRowRenderer.ROW_HEIGHT);
 
-            timedOutPanel.add(timedOutLabel);
-            summaryPanel.add(Box.createRigidArea(new Dimension(0, 10)));
-            summaryPanel.add(timedOutPanel);
-        }
+        timedOutPanel = new JPanel();
+        timedOutPanel.setLayout(new BoxLayout(timedOutPanel, BoxLayout.Y_AXIS));
+        timedOutPanel.setBackground(SECONDARY_COLOR);
+        timedOutPanel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createLineBorder(ACCENT_COLOR), 
+            "Timed Out Questions", 
+            TitledBorder.LEFT, 
+            TitledBorder.TOP,
+            new Font("Arial", Font.BOLD, 14),
+            ACCENT_COLOR
+        ));
+        timedOutPanel.setMaximumSize(new Dimension(600, 100));
+        timedOutPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+        JLabel timedOutLabel = new JLabel("You ran out of time on:");
+        timedOutLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        timedOutLabel.setForeground(ACCENT_COLOR);
+        timedOutLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        timedOutLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 5, 10));
+
+        // Wrapped across the width and painted on demand, like the summary rows.
+        timedOutRows = new TimedOutRows();
+        JList<String> timedOutList = new JList<>(timedOutRows);
+        timedOutList.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        timedOutList.setVisibleRowCount(-1);
+        timedOutList.setFont(new Font("Arial", Font.PLAIN, 14));
+        timedOutList.setForeground(ACCENT_COLOR);
+        timedOutList.setBackground(SECONDARY_COLOR);
+        timedOutList.setFocusable(false);
+        timedOutList.setSelectionModel(new DefaultListSelectionModel() {
+            @Override
+            public void setSelectionInterval(int anchor, int lead) {
+                // The list is read-only.
+            }
+        });
+        timedOutList.setPrototypeCellValue("Question 00000");
 
-        JScrollPane scrollPane = new JScrollPane(summaryPanel);
-        scrollPane.setBorder(null);
-        scrollPane.setAlignmentX(Component.CENTER_ALIGNMENT);
+        JScrollPane timedOutScroll = new JScrollPane(timedOutList);
+        timedOutScroll.setBorder(BorderFactory.createEmptyBorder(0, 10, 5, 10));
+        timedOutScroll.getViewport().setBackground(SECONDARY_COLOR);
+        timedOutScroll.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        scrollPane.getVerticalScrollBar().setUnitIncrement(56);
+        timedOutPanel.add(timedOutLabel);
+        timedOutPanel.add(timedOutScroll);
 
         JPanel buttonPanel = new JPanel();
         buttonPanel.setLayout(new FlowLayout(FlowLayout.CENTER));
@@ -757,38 +4826,261 @@ class QuizApp extends JFrame {
         contentPanel.add(statsPanel);
         contentPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         contentPanel.add(scrollPane);
+        contentPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        contentPanel.add(timedOutPanel);
         contentPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         contentPanel.add(buttonPanel);
 
         resultsPanel.add(headerPanel, BorderLayout.NORTH);
         resultsPanel.add(new JScrollPane(contentPanel), BorderLayout.CENTER);
+    }
+
+    private void updateResultsScreen() {
+        QuizResult result = engine.getResult();
+
+        int score = result.getScore();
+        scoreLabel.setText(score + "%");
+        scoreLabel.setForeground(score >= 70 ? CORRECT_COLOR : (score >= 40 ? PRIMARY_COLOR : INCORRECT_COLOR));
+
+        totalQuestionsValue.setText(String.valueOf(result.getTotalQuestions()));
+        correctAnswersValue.setText(String.valueOf(result.getCorrectAnswers()));
+
+        long answerMillis = 0;
+        int answered = 0;
+        int[] timedOut = new int[result.getTimedOutCount()];
+        int timedOutCount = 0;
+        for (int i = 0; i < result.getTotalQuestions(); i++) {
+            if (result.isTimedOut(i)) {
+                timedOut[timedOutCount++] = i;
+            } else {
+                answerMillis += result.getResponseMillis(i);
+                answered++;
+            }
+        }
+        averageTimeValue.setText(answered == 0 ? "-" : String.format("%.1f s", answerMillis / 1000.0 / answered));
+
+        QuizAnalytics.Stats overall = analytics.getTotal();
+        allQuizzesValue.setText(String.format("%.0f%% of %d in %d", overall.getAccuracy() * 100,
+                overall.getAsked(), analytics.getQuizCount()));
+
+        resultRows.show(result);
+
+        timedOutPanel.setVisible(timedOut.length > 0);
+        timedOutRows.show(timedOut);
 
         resultsPanel.revalidate();
         resultsPanel.repaint();
     }
 
-    private void startQuiz() {
+    /** The rows of the question summary: whether each answer was correct. */
+    private static class ResultRows extends AbstractListModel<Boolean> {
+        private static final long serialVersionUID = 1L;
 
-        cardLayout.show(mainPanel, "loading");
+        private QuizResult result = new QuizResult(0);
+
+        void show(QuizResult result) {
+            int oldSize = this.result.getTotalQuestions();
+            this.result = result;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (result.getTotalQuestions() > 0) {
+                fireIntervalAdded(this, 0, result.getTotalQuestions() - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return result.getTotalQuestions();
+        }
+
+        @Override
+        public Boolean getElementAt(int index) {
+            return result.isCorrect(index);
+        }
+    }
+
+    /** The questions that ran out of time, labelled only when a cell is painted. */
+    private static class TimedOutRows extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+
+        private int[] indices = new int[0];
+
+        void show(int[] indices) {
+            int oldSize = this.indices.length;
+            this.indices = indices;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (indices.length > 0) {
+                fireIntervalAdded(this, 0, indices.length - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return indices.length;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return "Question " + (indices[index] + 1);
+        }
+    }
+
+    /**
+     * Paints each summary row with one reused panel, so rows cost no
+     * components. Fonts, colours and borders are made once, not per row.
+     */
+    private static class ResultRowRenderer extends JPanel implements ListCellRenderer<Boolean> {
+        private static final long serialVersionUID = 1L;
+        static final int ROW_HEIGHT = 45;
+
+        private static final Font QUESTION_FONT = new Font("Arial", Font.BOLD, 14);
+        private static final Font RESULT_FONT = new Font("Arial", Font.PLAIN, 14);
+        private static final Color CORRECT_BACKGROUND = new Color(240, 255, 240);
+        private static final Color INCORRECT_BACKGROUND = new Color(255, 240, 240);
+
+        private final JLabel questionLabel = new JLabel();
+        private final JLabel resultLabel = new JLabel();
+
+        ResultRowRenderer() {
+            super(new BorderLayout());
+            // The bottom strip in the list's colour keeps the 5 px gap the
+            // rows had as separate panels.
+            setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createMatteBorder(0, 0, 5, 0, SECONDARY_COLOR),
+                BorderFactory.createEmptyBorder(10, 10, 10, 10)
+            ));
+            questionLabel.setFont(QUESTION_FONT);
+            resultLabel.setFont(RESULT_FONT);
+            add(questionLabel, BorderLayout.WEST);
+            add(resultLabel, BorderLayout.EAST);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends Boolean> list, Boolean correct, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            Color color = correct ? CORRECT_COLOR : INCORRECT_COLOR;
+            setBackground(correct ? CORRECT_BACKGROUND : INCORRECT_BACKGROUND);
+            questionLabel.setText("Question " + (index + 1));
+            questionLabel.setForeground(color);
+            resultLabel.setText(correct ? "Correct" : "Incorrect");
+            resultLabel.setForeground(color);
+            return this;
+        }
+    }
+
+    private String selectedDifficultyName() {
+        return selectedDifficulty < 3 ? new String[]{"easy", "medium", "hard"}[selectedDifficulty] : null;
+    }
 
-        result = new QuizResult();
-        currentQuestionIndex = 0;
+    private static final Integer[] CATEGORY_IDS = {9, 17, 11, 23};
+    // The API's names for CATEGORY_IDS, as a bank file has them.
+    private static final String[] CATEGORY_NAMES = {
+        "General Knowledge", "Science & Nature", "Entertainment: Film", "History"
+    };
+    private static final int MIXED_CATEGORIES = 5;
+    // Run quizzes from a local question bank rather than the API with
+    // -Dquiz.bank=questions.json
+    private static final String BANK_FILE = System.getProperty("quiz.bank");
+
+    private Integer selectedCategoryId() {
+        return selectedCategory < 4 ? CATEGORY_IDS[selectedCategory] : null;
+    }
 
+    private void loadBank() {
+        if (BANK_FILE == null) {
+            return;
+        }
         executorService.submit(() -> {
             try {
+                bank = QuestionBank.load(Paths.get(BANK_FILE));
+                System.out.println("Loaded " + bank.size() + " questions from " + BANK_FILE);
+            } catch (IOException e) {
+                System.out.println("Could not read question bank " + BANK_FILE + ": " + e.getMessage());
+            }
+        });
+    }
 
-                String difficulty = null;
-                if (selectedDifficulty < 3) {
-                    difficulty = new String[]{"easy", "medium", "hard"}[selectedDifficulty];
+    /**
+     * Deals the selected quiz from the bank, or returns null to fall back
+     * to the API when no bank is loaded or it has nothing for the filter.
+     */
+    private List<Question> sampleBank(String difficulty) {
+        QuestionBank bank = this.bank;
+        if (bank == null) {
+            return null;
+        }
+        List<Question> dealt;
+        if (selectedCategory == MIXED_CATEGORIES) {
+            Map<Integer, Integer> weights = new LinkedHashMap<>();
+            for (int i = 0; i < CATEGORY_IDS.length; i++) {
+                weights.put(i, 1);
+            }
+            Map<Integer, Integer> quotas = MixedQuestions.quotas(selectedNumQuestions, weights);
+            Map<Integer, Iterator<Question>> byCategory = new HashMap<>();
+            quotas.forEach((i, quota) -> byCategory.put(i,
+                    bank.sample(quota, CATEGORY_NAMES[i], difficulty, "multiple").iterator()));
+            dealt = new ArrayList<>(selectedNumQuestions);
+            for (int i : MixedQuestions.interleave(quotas)) {
+                if (byCategory.get(i).hasNext()) {
+                    dealt.add(byCategory.get(i).next());
                 }
+            }
+        } else {
+            dealt = bank.sample(selectedNumQuestions, selectedCategory < 4 ? CATEGORY_NAMES[selectedCategory] : null,
+                    difficulty, "multiple");
+        }
+        return dealt.isEmpty() ? null : dealt;
+    }
 
-                Integer category = null;
-                if (selectedCategory < 4) {
+    private void warmSelection() {
+        // A mixed quiz is fetched per category; warming them all would
+        // keep the rate limiter busy for four slots, and a quiz started
+        // meanwhile waits out whichever one is in flight. With
+        // a bank the API is only a fallback, so nothing is warmed.
+        if (selectedCategory != MIXED_CATEGORIES && BANK_FILE == null) {
+            prefetcher.warm(selectedCategoryId(), selectedDifficultyName(), "multiple");
+        }
+    }
 
-                    category = new Integer[]{9, 17, 11, 23}[selectedCategory];
-                }
+    private void startQuiz() {
+
+        if (engine != null) {
+            engine.cancel();
+        }
+        mixedQuestions = null;
+
+        String difficulty = selectedDifficultyName();
+        Integer category = selectedCategoryId();
+
+        List<Question> banked = sampleBank(difficulty);
+        if (banked != null) {
+            questions = banked;
+            beginQuiz();
+            return;
+        }
+
+        if (selectedCategory == MIXED_CATEGORIES) {
+            startMixedQuiz(difficulty);
+            return;
+        }
+
+        List<Question> prefetched = prefetcher.take(selectedNumQuestions, category, difficulty, "multiple");
+        if (prefetched != null) {
+            questions = prefetched;
+            beginQuiz();
+            return;
+        }
+
+        cardLayout.show(mainPanel, "loading");
+
+        executorService.submit(() -> {
+            try {
 
                 questions = ApiClient.fetchQuestions(selectedNumQuestions, category, difficulty, "multiple");
+                prefetcher.warm(category, difficulty, "multiple");
 
                 SwingUtilities.invokeLater(() -> {
                     if (questions.isEmpty()) {
@@ -800,7 +5092,7 @@ class QuizApp extends JFrame {
                         );
                         cardLayout.show(mainPanel, "welcome");
                     } else {
-                        showQuestion(0);
+                        beginQuiz();
                     }
                 });
             } catch (Exception e) {
@@ -818,23 +5110,68 @@ class QuizApp extends JFrame {
         });
     }
 
-    private void showQuestion(int index) {
+    private void startMixedQuiz(String difficulty) {
+        Map<Integer, Integer> weights = new LinkedHashMap<>();
+        for (Integer category : CATEGORY_IDS) {
+            weights.put(category, 1);
+        }
+        MixedQuestions mixed = ApiClient.fetchMixedQuestions(selectedNumQuestions, weights, difficulty, "multiple");
+        mixedQuestions = mixed;
+        questions = mixed;
+
+        cardLayout.show(mainPanel, "loading");
+        mixed.whenAvailable(0).thenAccept(first -> SwingUtilities.invokeLater(() -> {
+            if (mixedQuestions != mixed) {
+                return;
+            }
+            if (first == null) {
+                JOptionPane.showMessageDialog(
+                    this,
+                    "Failed to load questions. Please try again.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+                );
+                cardLayout.show(mainPanel, "welcome");
+            } else {
+                beginQuiz();
+            }
+        }));
+    }
+
+    private void beginQuiz() {
+        engine = new QuizEngine(questions, countdowns, this::questionTimedOut);
+        showNextQuestion();
+    }
+
+    private void showNextQuestion() {
 
         cancelTimer();
 
-        questionAnswered.set(false);
+        QuizEngine quiz = engine;
+        int index = quiz.getIndex() + 1;
+        MixedQuestions mixed = mixedQuestions;
+        if (mixed != null && index < mixed.size() && mixed.get(index) == null) {
+            // Its category is still downloading; carry on once it is in.
+            cardLayout.show(mainPanel, "loading");
+            mixed.whenAvailable(index).thenRun(() -> SwingUtilities.invokeLater(() -> {
+                if (engine == quiz) {
+                    showNextQuestion();
+                }
+            }));
+            return;
+        }
+
         optionsGroup.clearSelection();
         nextButton.setEnabled(false);
 
-        if (index >= questions.size()) {
-
+        Question question = quiz.next();
+        if (question == null) {
+            analytics.record(questions, quiz.getResult());
             updateResultsScreen();
             cardLayout.show(mainPanel, "results");
             return;
         }
 
-        Question question = questions.get(index);
-
         questionNumberLabel.setText("Question " + (index + 1) + " of " + questions.size());
         questionTextArea.setText(question.getQuestionText());
 
@@ -867,64 +5204,66 @@ class QuizApp extends JFrame {
     private void startTimer(int timeLimit) {
 
         timerLabel.setText(timeLimit + "s");
+        timerLabel.setForeground(Color.WHITE);
         timerProgressBar.setValue(100);
+        timerProgressBar.setForeground(ACCENT_COLOR);
+        shownSeconds = timeLimit;
+        shownProgress = 100;
+
+        // Only shows the time left; the engine decides when it is up. A
+        // frame is when the bar would move by one step, so a question
+        // costs about a hundred EDT events whatever its length.
+        countdownDisplay.setDelay(Math.max(MIN_FRAME_MILLIS, timeLimit * 1000 / 100));
+        countdownDisplay.restart();
+    }
 
-        final int[] timeRemaining = {timeLimit};
-        final long startTime = System.currentTimeMillis();
-        final long duration = timeLimit * 1000L;
-
-        timerFuture = timerExecutor.scheduleAtFixedRate(() -> {
-            long elapsedTime = System.currentTimeMillis() - startTime;
-            int remainingTime = Math.max(0, (int)((duration - elapsedTime) / 1000));
-            int progressValue = Math.max(0, (int)((duration - elapsedTime) * 100 / duration));
+    private void updateCountdown() {
+        long remainingMillis = engine.getRemainingMillis();
+        if (remainingMillis == 0) {
+            countdownDisplay.stop();
+            return;
+        }
+        long duration = engine.getQuestion().getTimeLimit() * 1000L;
+        int remainingTime = (int) (remainingMillis / 1000);
+        int progressValue = (int) (remainingMillis * 100 / duration);
 
-            if (remainingTime != timeRemaining[0]) {
-                timeRemaining[0] = remainingTime;
-                SwingUtilities.invokeLater(() -> {
-                    timerLabel.setText(remainingTime + "s");
+        if (remainingTime != shownSeconds) {
+            shownSeconds = remainingTime;
+            timerLabel.setText(remainingTime + "s");
 
-                    if (remainingTime <= 5) {
-                        timerLabel.setForeground(INCORRECT_COLOR);
-                        timerProgressBar.setForeground(INCORRECT_COLOR);
-                    }
-                });
+            if (remainingTime <= 5) {
+                timerLabel.setForeground(INCORRECT_COLOR);
+                timerProgressBar.setForeground(INCORRECT_COLOR);
             }
+        }
+        if (progressValue != shownProgress) {
+            shownProgress = progressValue;
+            timerProgressBar.setValue(progressValue);
+        }
+    }
 
-            SwingUtilities.invokeLater(() -> {
-                timerProgressBar.setValue(progressValue);
-            });
-
-            if (elapsedTime >= duration && !questionAnswered.get()) {
-
-                questionAnswered.set(true);
-                SwingUtilities.invokeLater(() -> {
-                    timerLabel.setText("Time's up!");
-                    nextButton.setEnabled(true);
-
-                    highlightCorrectAnswer();
-
-                    result.addResult(
-                        currentQuestionIndex,
-                        -1, 
-                        false, 
-                        true 
-                    );
-                });
-
-                cancelTimer();
+    private void questionTimedOut(int index) {
+        QuizEngine quiz = engine;
+        SwingUtilities.invokeLater(() -> {
+            if (engine != quiz) {
+                return;
             }
-        }, 0, 100, TimeUnit.MILLISECONDS);
+            timerLabel.setText("Time's up!");
+            timerProgressBar.setValue(0);
+            nextButton.setEnabled(true);
+
+            highlightCorrectAnswer();
+        });
     }
 
     private void cancelTimer() {
-        if (timerFuture != null && !timerFuture.isDone()) {
-            timerFuture.cancel(true);
-        }
+        countdownDisplay.stop();
     }
 
     private void processAnswer() {
 
         cancelTimer();
+        nextButton.setEnabled(false);
 
         int selectedAnswerIndex = -1;
         Enumeration<AbstractButton> buttons = optionsGroup.getElements();
@@ -939,25 +5278,25 @@ class QuizApp extends JFrame {
             option++;
         }
 
-        Question question = questions.get(currentQuestionIndex);
-        int correctAnswerIndex = question.getCorrectAnswerIndex();
-
-        boolean isCorrect = (selectedAnswerIndex == correctAnswerIndex);
-
-        result.addResult(currentQuestionIndex, selectedAnswerIndex, isCorrect, false);
+        if (engine.answer(selectedAnswerIndex) == null) {
+            // The time ran out first; questionTimedOut takes it from here.
+            return;
+        }
 
         highlightCorrectAnswer();
 
+        QuizEngine quiz = engine;
         Timer delayTimer = new Timer(1500, e -> {
-            currentQuestionIndex++;
-            showQuestion(currentQuestionIndex);
+            if (engine == quiz) {
+                showNextQuestion();
+            }
         });
         delayTimer.setRepeats(false);
         delayTimer.start();
     }
 
     private void highlightCorrectAnswer() {
-        Question question = questions.get(currentQuestionIndex);
+        Question question = engine.getQuestion();
         int correctIndex = question.getCorrectAnswerIndex();
 
         char option = 'A';
@@ -973,8 +5312,9 @@ class QuizApp extends JFrame {
 
         cardLayout.show(mainPanel, "welcome");
 
-        result = new QuizResult();
-        currentQuestionIndex = 0;
+        if (engine != null) {
+            engine.cancel();
+        }
 
         optionsGroup.clearSelection();
         for (JRadioButton button : optionButtons.values()) {
@@ -990,8 +5330,8 @@ class QuizApp extends JFrame {
             executorService.shutdownNow();
         }
 
-        if (timerExecutor != null) {
-            timerExecutor.shutdownNow();
+        if (countdowns != null) {
+            countdowns.shutdown();
         }
     }
 
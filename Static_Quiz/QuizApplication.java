@@ -258,21 +258,29 @@ public class QuizApplication extends JFrame {
         performanceLabel.setFont(new Font("Arial", Font.BOLD, 18));
         performanceLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        // Summary of questions and answers
-        JPanel summaryPanel = new JPanel();
-        summaryPanel.setLayout(new BoxLayout(summaryPanel, BoxLayout.Y_AXIS));
-        summaryPanel.setBorder(BorderFactory.createTitledBorder("Question Summary"));
-
-        for (int i = 0; i < questions.size(); i++) {
-            Question q = questions.get(i);
-            JLabel questionSummary = new JLabel((i + 1) + ". " + q.getQuestion());
-            JLabel correctAnswer = new JLabel("   Correct Answer: " + q.getOptions()[q.getCorrectAnswerIndex()]);
-            correctAnswer.setForeground(Color.GREEN.darker());
-
-            summaryPanel.add(questionSummary);
-            summaryPanel.add(correctAnswer);
-            summaryPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        // Summary of questions and answers, painted on demand so only the visible rows cost anything
+        JList<Question> summaryList = new JList<>(new AbstractListModel<Question>() {
+            @Override
+            public int getSize() {
+                return questions.size();
+            }
+
+            @Override
+            public Question getElementAt(int index) {
+                return questions.get(index);
+            }
+        });
+        summaryList.setCellRenderer(new SummaryRowRenderer());
+        // Cells are as wide as the longest question, measured once from it, so long text still scrolls
+        Question longest = questions.get(0);
+        for (Question q : questions) {
+            if (q.getQuestion().length() > longest.getQuestion().length()) {
+                longest = q;
+            }
         }
+        summaryList.setPrototypeCellValue(longest);
+        summaryList.setFixedCellHeight(SummaryRowRenderer.ROW_HEIGHT);
+        summaryList.setFocusable(false);
 
         // Add components to results panel
         resultsPanel.add(Box.createRigidArea(new Dimension(0, 20)));
@@ -286,7 +294,8 @@ public class QuizApplication extends JFrame {
         resultsPanel.add(Box.createRigidArea(new Dimension(0, 20)));
 
         // Add components to main panel with scroll pane for summary
-        JScrollPane scrollPane = new JScrollPane(summaryPanel);
+        JScrollPane scrollPane = new JScrollPane(summaryList);
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Question Summary"));
         scrollPane.setPreferredSize(new Dimension(550, 200));
 
         JPanel mainPanel = new JPanel();
@@ -313,6 +322,35 @@ public class QuizApplication extends JFrame {
         repaint();
     }
 
+    // Draws every row of the question summary with the same two labels
+    private static class SummaryRowRenderer extends JPanel implements ListCellRenderer<Question> {
+        private static final long serialVersionUID = 1L;
+        static final int ROW_HEIGHT = 44;
+        private static final Color ANSWER_COLOR = Color.GREEN.darker();
+
+        private final JLabel questionLabel = new JLabel();
+        private final JLabel answerLabel = new JLabel();
+
+        SummaryRowRenderer() {
+            setLayout(new GridLayout(2, 1));
+            setBorder(BorderFactory.createEmptyBorder(2, 5, 8, 5));
+            answerLabel.setForeground(ANSWER_COLOR);
+            add(questionLabel);
+            add(answerLabel);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends Question> list, Question q, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            // The prototype is measured with index -1; number it like the last row
+            int number = index < 0 ? list.getModel().getSize() : index + 1;
+            questionLabel.setText(number + ". " + q.getQuestion());
+            answerLabel.setText("   Correct Answer: " + q.getOptions()[q.getCorrectAnswerIndex()]);
+            setBackground(list.getBackground());
+            return this;
+        }
+    }
+
     // Question class to store quiz questions and answers
     private static class Question {
         private String question;